@@ -7,16 +7,49 @@ TABLESFILE=$2
 TABLESLIST=`cat $TABLESFILE`
 
 cd "$1"
-DATAFILES=`ls *.dump`
+DATAFILES=`ls *.dump* *.pgcopy* 2>/dev/null`
+
+# Load one dump file, decompressing it on the fly into copy from stdin if it's compressed.
+# .pgcopy files are in COPY's binary format.
+load_file() {
+	case "$2" in
+		*.pgcopy*)
+			OPTS=" with binary"
+			;;
+		*)
+			OPTS=""
+			;;
+	esac
+	case "$2" in
+		*.gz)
+			gzip -dc "$2" | psql -hlocalhost dt -c "copy $1 from stdin$OPTS"
+			;;
+		*.zz)
+			pigz -dzc "$2" | psql -hlocalhost dt -c "copy $1 from stdin$OPTS"
+			;;
+		*)
+			psql -hlocalhost dt -c "copy $1 from '$DATAHOME/$2'$OPTS"
+			;;
+	esac
+}
 
 for a in $TABLESLIST
 do
-	FILENAME=`echo "dbo.$a.dump"`; #| sed 's/_//g'`
-	echo "Loading $a from $FILENAME"
-	if [ -e "$FILENAME" ]; then
+	FILENAME=`ls dbo.$a.dump dbo.$a.dump.gz dbo.$a.dump.zz dbo.$a.pgcopy dbo.$a.pgcopy.gz dbo.$a.pgcopy.zz 2>/dev/null | head -1`; #| sed 's/_//g'`
+	PARTS=`ls dbo.$a.[0-9][0-9][0-9].dump dbo.$a.[0-9][0-9][0-9].dump.gz dbo.$a.[0-9][0-9][0-9].dump.zz dbo.$a.[0-9][0-9][0-9].pgcopy dbo.$a.[0-9][0-9][0-9].pgcopy.gz dbo.$a.[0-9][0-9][0-9].pgcopy.zz 2>/dev/null`
+	echo "Loading $a"
+	if [ -n "$FILENAME" ]; then
 		echo "Found $FILENAME"
-		psql -hlocalhost dt -c "copy $a from '$DATAHOME/$FILENAME'"
+		load_file $a "$FILENAME"
+	elif [ -n "$PARTS" ]; then
+		# Range partitioned dump - load the parts side by side
+		for PART in $PARTS
+		do
+			echo "Found $PART"
+			load_file $a "$PART" &
+		done
+		wait
 	else
-		echo "Warning: $FILENAME not found"
+		echo "Warning: no dump found for $a"
 	fi
 done
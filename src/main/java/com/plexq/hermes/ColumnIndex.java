@@ -0,0 +1,133 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.io.Serializable;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The columns of a result, worked out once and shared by every RowMap in it, so each row only has to
+ * hold its values.
+ * <p/>
+ * A result can have the same column name more than once, from a join say.  A row map can only have
+ * one of them, so as with ResultSet.getObject(String) it's the first column of that name: the later
+ * ones map to the same slot but aren't read into it.
+ *
+ * @author plexq
+ */
+public class ColumnIndex implements Serializable {
+    /**
+     * The distinct column names, in the order they first appear
+     */
+    private String[] names;
+
+    /**
+     * The slot of each column name
+     */
+    private HashMap<String, Integer> positions = new HashMap<String, Integer>();
+
+    /**
+     * The slot each column of the result goes to, by the column's position in the result from 0
+     */
+    private int[] slots;
+
+    /**
+     * The column of the result, from 0, that each slot is read from: the first with its name
+     */
+    private int[] columns;
+
+    public ColumnIndex(String[] resultColumns) {
+        List<String> distinct = new ArrayList<String>();
+        slots = new int[resultColumns.length];
+        for (int t = 0; t < resultColumns.length; t++) {
+            Integer slot = positions.get(resultColumns[t]);
+            if (slot == null) {
+                slot = distinct.size();
+                distinct.add(resultColumns[t]);
+                positions.put(resultColumns[t], slot);
+            }
+            slots[t] = slot;
+        }
+        names = distinct.toArray(new String[distinct.size()]);
+        columns = new int[names.length];
+        for (int t = slots.length - 1; t >= 0; t--) {
+            columns[slots[t]] = t;
+        }
+    }
+
+    /**
+     * The columns of a result set
+     */
+    public static ColumnIndex fromMetaData(ResultSetMetaData rsmd) throws SQLException {
+        String[] columns = new String[rsmd.getColumnCount()];
+        for (int t = 0; t < columns.length; t++) {
+            columns[t] = rsmd.getColumnName(t + 1);
+        }
+        return new ColumnIndex(columns);
+    }
+
+    /**
+     * @return the slot for a column name, or null if there's no such column
+     */
+    public Integer getPosition(Object name) {
+        return positions.get(name);
+    }
+
+    /**
+     * @return the slot that column t of the result, counting from 0, goes to
+     */
+    public int getSlot(int t) {
+        return slots[t];
+    }
+
+    /**
+     * @return the column of the result, counting from 0, to read a slot's value from
+     */
+    public int getColumn(int slot) {
+        return columns[slot];
+    }
+
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return the distinct column names, in slot order
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * @return how many slots a row needs
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return how many columns there are in the result, counting any repeated names
+     */
+    public int getResultColumnCount() {
+        return slots.length;
+    }
+}
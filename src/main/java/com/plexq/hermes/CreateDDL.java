@@ -1,6 +1,14 @@
 package com.plexq.hermes;
 
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
 
 /**
  * Created by IntelliJ IDEA.
@@ -11,7 +19,16 @@ import java.sql.*;
 public class CreateDDL {
     private String[] names;
 
+    /**
+     * Where to get extra connections for reading table metadata side by side, null to read it all on
+     * the connection we're given
+     */
+    private DataSource dataSource;
+
+    private int threads = 1;
+
     public CreateDDL() {
+
     }
 
     public CreateDDL(String[] names) {
@@ -19,15 +36,32 @@ public class CreateDDL {
     }
 
     public String create(Connection db, String schema, TableBuilder tb) throws SQLException,TableBuildException {
-        StringBuilder sb = new StringBuilder();
+        return build(fetchTables(db, schema), tb);
+    }
+
+    /**
+     * Read the tables we're building DDL for - every table in the schema, or just the names we were
+     * given.  Tables without a primary key are left out.  For the whole schema the metadata is read in
+     * a few bulk calls on the one connection, unless we've been given a data source and more than one
+     * thread, in which case it's read table by table across the threads instead.
+     */
+    public List<TableRepresentation> fetchTables(Connection db, String schema) throws SQLException {
+        List<String> tableNames = new ArrayList<String>();
 
         ResultSet rs;
 
         DatabaseMetaData dmd = db.getMetaData();
         if (names==null || names.length==0) {
+            if (!isParallel()) {
+                System.out.println("Reading metadata...");
+                // The whole schema in a few bulk calls, so the TableRepresentations below come from the cache
+                SchemaMetadata.fetch(db, schema).preload(db);
+            }
+            // Otherwise each table's metadata is read in prefetch, spread across the threads
+
             System.out.println("Getting tables...");
             rs = dmd.getTables(null,schema,null,null);
-            processResultSet(db, tb, rs);
+            readTableNames(rs, tableNames);
         }
         else {
             System.out.println("Select tables only...");
@@ -42,30 +76,229 @@ public class CreateDDL {
                     lSchema = pieces[0];
                     tableName = pieces[1];
                 }
-
-                processResultSet(db, tb, dmd.getTables(null, lSchema, tableName, null));
+                readTableNames(dmd.getTables(null, lSchema, tableName, null), tableNames);
             }
         }
 
+        List<TableRepresentation> tables = new ArrayList<TableRepresentation>();
+        addTables(db, tableNames, tables);
+        return tables;
+    }
+
+    /**
+     * Read the tables from a snapshot file if we can, otherwise from the database, saving a new snapshot
+     * as we go.  The snapshot is used if it's still current, or without checking if there's no connection.
+     * It holds whichever tables were read into it, so a different list of names wants a different file.
+     * @param db a database connection, or null to work offline from the snapshot alone
+     * @param snapshot the snapshot file, which needn't exist yet, or null not to use one
+     */
+    public List<TableRepresentation> fetchTables(Connection db, String schema, File snapshot) throws SQLException, IOException {
+        if (snapshot == null) {
+            return fetchTables(db, schema);
+        }
+        if (snapshot.exists()) {
+            SchemaSnapshot ss = SchemaSnapshot.load(snapshot);
+            if (db == null) {
+                System.out.println("Using snapshot " + snapshot + " without checking it");
+                return ss.getTableRepresentations();
+            }
+            if (ss.isCurrent(db)) {
+                System.out.println("Snapshot " + snapshot + " is current");
+                return ss.getTableRepresentations();
+            }
+            System.out.println("Snapshot " + snapshot + " is out of date");
+        }
+        else if (db == null) {
+            throw new FileNotFoundException("No snapshot at " + snapshot + " to work offline from");
+        }
 
-        return sb.toString();
+        List<TableRepresentation> tables = fetchTables(db, schema);
+        SchemaSnapshot.fromTables(db, schema, tables).save(snapshot);
+        return tables;
     }
 
     public String processResultSet(Connection db, TableBuilder tb, ResultSet rs) throws SQLException, TableBuildException {
-        StringBuilder sb = new StringBuilder();
+        List<String> tableNames = new ArrayList<String>();
+        readTableNames(rs, tableNames);
+        List<TableRepresentation> tables = new ArrayList<TableRepresentation>();
+        addTables(db, tableNames, tables);
+        return build(tables, tb);
+    }
+
+    private void readTableNames(ResultSet rs, List<String> tableNames) throws SQLException {
         while (rs.next()) {
-            String tableName = rs.getString(3);
-            System.out.println("Table : " + tableName);
+            tableNames.add(rs.getString(3));
+        }
+        rs.close();
+    }
 
-            TableRepresentation tr = new TableRepresentation(db, tableName);
+    private void addTables(Connection db, List<String> tableNames, List<TableRepresentation> tables) throws SQLException {
+        prefetch(db, tableNames);
 
+        for (String tableName : tableNames) {
+            System.out.println("Table : " + tableName);
+            TableRepresentation tr = new TableRepresentation(db, tableName);
             if (tr.getPrimaryKeys().length>0) {
-                System.out.println("Building for table " + tr.getTableName());
-                sb.append(tb.buildTable(tr));
-                sb.append("\n");
+                tables.add(tr);
+            }
+        }
+    }
+
+    /**
+     * Whether we have the connections and threads to read table metadata side by side
+     */
+    private boolean isParallel() {
+        return dataSource!=null && threads>1;
+    }
+
+    /**
+     * Read the metadata for any of the tables that isn't already cached, spread across our threads each
+     * with its own connection.  The TableRepresentations are still made one at a time in the original
+     * order afterwards, from the cache, so the DDL comes out the same as reading it serially would give.
+     */
+    private void prefetch(Connection db, List<String> tableNames) throws SQLException {
+        if (!isParallel()) {
+            return;
+        }
+
+        Queue<String> queue = new ConcurrentLinkedQueue<String>();
+        for (String tableName : tableNames) {
+            if (TableMetadata.getMetadataCache().get(db, null, tableName)==null) {
+                queue.add(tableName);
+            }
+        }
+        if (queue.size()<2) {
+            return;
+        }
+
+        int workers = Math.min(threads, queue.size());
+        System.out.println("Reading metadata for " + queue.size() + " tables on " + workers + " connections...");
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int t=0; t<workers; t++) {
+            futures.add(pool.submit(new MetadataWorker(queue)));
+        }
+        pool.shutdown();
+
+        SQLException failure = null;
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted reading table metadata");
+            }
+            catch (ExecutionException ee) {
+                // Stop the others early, and report the first failure the way the serial path would
+                queue.clear();
+                if (failure==null) {
+                    if (ee.getCause() instanceof SQLException) {
+                        failure = (SQLException)ee.getCause();
+                    }
+                    else if (ee.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)ee.getCause();
+                    }
+                    else {
+                        failure = new SQLException("Failed reading table metadata: " + ee.getCause());
+                    }
+                }
+            }
+        }
+        if (failure!=null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Pulls table names off the shared queue until it's empty, reading each one's metadata into the
+     * cache on this worker's own connection
+     */
+    private class MetadataWorker implements Callable<Object> {
+        private Queue<String> queue;
+
+        public MetadataWorker(Queue<String> queue) {
+            this.queue = queue;
+        }
+
+        public Object call() throws SQLException {
+            Connection connection = dataSource.getConnection();
+            try {
+                String tableName;
+                while ((tableName = queue.poll())!=null) {
+                    TableMetadata.fetchMetadata(connection, tableName);
+                }
             }
+            finally {
+                connection.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The complete DDL for each table, keys and indexes included
+     */
+    public String build(List<TableRepresentation> tables, TableBuilder tb) throws SQLException, TableBuildException {
+        StringBuilder sb = new StringBuilder();
+        for (TableRepresentation tr : tables) {
+            System.out.println("Building for table " + tr.getTableName());
+            sb.append(tb.buildTable(tr));
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The DDL to run before loading data: the tables on their own
+     */
+    public String buildPreData(List<TableRepresentation> tables, TableBuilder tb) throws SQLException, TableBuildException {
+        StringBuilder sb = new StringBuilder();
+        for (TableRepresentation tr : tables) {
+            sb.append(tb.buildPreData(tr));
+            sb.append("\n");
         }
+        return sb.toString();
+    }
 
+    /**
+     * The DDL to run after loading data, one statement a line: every table's primary key and indexes,
+     * which can be built in any order, then the foreign keys, which need the keys they point at to
+     * exist first.
+     */
+    public String buildPostData(List<TableRepresentation> tables, TableBuilder tb) throws SQLException, TableBuildException {
+        StringBuilder sb = new StringBuilder();
+        for (TableRepresentation tr : tables) {
+            for (String s : tb.buildIndexes(tr)) {
+                sb.append(s);
+                sb.append("\n");
+            }
+        }
+        for (TableRepresentation tr : tables) {
+            for (String s : tb.buildForeignKeys(tr)) {
+                sb.append(s);
+                sb.append("\n");
+            }
+        }
         return sb.toString();
     }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * How many connections to read table metadata on at once; it takes a data source as well
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
 }
@@ -0,0 +1,107 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CreateDDLTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(CreateDDLTest.class);
+    }
+
+    private static final int TABLES = 20;
+
+    /**
+     * A catalog of TABLES tables, each with an id, a name and a reference to the one before
+     */
+    private static FakeCatalog catalog() {
+        FakeCatalog c = new FakeCatalog();
+        for (int n = 0; n < TABLES; n++) {
+            String table = "t" + n;
+            c.add("getTables", FakeCatalog.row(3, table));
+            c.add("getPrimaryKeys", FakeCatalog.row(3, table, 4, "id"));
+            c.add("getColumns", FakeCatalog.row(3, table, 4, "id", 5, Types.BIGINT, 6, "int8", 18, "NO"));
+            c.add("getColumns", FakeCatalog.row(3, table, 4, "name", 5, Types.VARCHAR, 6, "varchar", 9, 40, 18, "YES"));
+            c.add("getColumns", FakeCatalog.row(3, table, 4, "prevId", 5, Types.BIGINT, 6, "int8", 18, "YES"));
+            if (n > 0) {
+                c.add("getImportedKeys", FakeCatalog.row(3, "t" + (n - 1), 4, "id", 7, table, 8, "prevId", 11, (short)DatabaseMetaData.importedKeyNoAction));
+            }
+            c.add("getIndexInfo", FakeCatalog.row(3, table, 4, true, 6, table + "_name", 9, "name"));
+        }
+        return c;
+    }
+
+    private static String[] names() {
+        String[] names = new String[TABLES];
+        for (int t = 0; t < TABLES; t++) {
+            names[t] = "t" + t;
+        }
+        return names;
+    }
+
+    private String ddl(FakeCatalog c, CreateDDL cddl) throws Exception {
+        TableMetadata.getMetadataCache().invalidateAll();
+        List<TableRepresentation> tables = cddl.fetchTables(c.connection(), null);
+        PostgresqlTableBuilder tb = new PostgresqlTableBuilder();
+        return cddl.build(tables, tb) + cddl.buildPostData(tables, tb);
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws Exception {
+        FakeCatalog serial = catalog();
+        String expected = ddl(serial, new CreateDDL(names()));
+
+        FakeCatalog parallel = catalog();
+        CreateDDL cddl = new CreateDDL(names());
+        cddl.setDataSource(parallel.dataSource());
+        cddl.setThreads(4);
+        String actual = ddl(parallel, cddl);
+
+        assertEquals(expected, actual);
+        assertTrue(expected.contains("t19"));
+        // The connection we were given, and one for each worker
+        assertEquals(5, parallel.connections.get());
+    }
+
+    /**
+     * For the whole schema the bulk read is left out when there are threads to use, so the workers
+     * read the tables instead, and the DDL comes out the same as the bulk read gives
+     */
+    @Test
+    public void testSchemaWideParallelMatchesSerial() throws Exception {
+        FakeCatalog serial = catalog();
+        String expected = ddl(serial, new CreateDDL());
+        assertEquals(1, serial.connections.get());
+
+        FakeCatalog parallel = catalog();
+        CreateDDL cddl = new CreateDDL();
+        cddl.setDataSource(parallel.dataSource());
+        cddl.setThreads(4);
+        String actual = ddl(parallel, cddl);
+
+        assertEquals(expected, actual);
+        assertTrue(expected.contains("t19"));
+        assertEquals(5, parallel.connections.get());
+    }
+}
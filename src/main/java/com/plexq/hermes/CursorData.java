@@ -0,0 +1,210 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * The rows of a query read as they are iterated over, rather than all at once the way ResultsData
+ * does it, so a big table doesn't have to fit in memory.  The driver is asked for fetchSize rows at a
+ * time from an open cursor.  Each row is a RowMap of column name to value, the same as in ResultsData.
+ * <p/>
+ * The statement is released when the last row has been read, or on close(), which should be called
+ * in a finally block in case the loop doesn't run to the end:
+ * <pre>
+ * CursorData cd = tr.fetchCursor();
+ * try {
+ *     for (Map&lt;String, Object&gt; row : cd) {
+ *         ...
+ *     }
+ * }
+ * finally {
+ *     cd.close();
+ * }
+ * </pre>
+ * PostgreSQL only reads from a cursor inside a transaction, so if the connection is in auto commit
+ * it's taken out of it until the cursor is closed.  The statement is prepared here rather than taken
+ * from the StatementCache, as it stays open while the rows are read, and the connection can't run
+ * anything else on it in the meantime.  The rows can be iterated over once.
+ *
+ * @author plexq
+ */
+public class CursorData implements Iterable<Map<String, Object>>, Closeable {
+    private static Logger log = Logger.getLogger(CursorData.class);
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private Connection db;
+    private PreparedStatement ps;
+    private ResultSet rs;
+    private ColumnIndex columns;
+
+    /**
+     * Whether we took the connection out of auto commit, and have to put it back
+     */
+    private boolean restoreAutoCommit = false;
+
+    private boolean iterated = false;
+    private boolean closed = false;
+    private long rowCount = 0;
+
+    public CursorData(Connection db, QueryBuilder qb) throws SQLException {
+        this(db, qb, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Run the query and open the cursor
+     *
+     * @param db the connection to read on, which can't be used for anything else until this is closed
+     * @param qb the query
+     * @param fetchSize how many rows to ask the driver for at a time
+     */
+    public CursorData(Connection db, QueryBuilder qb, int fetchSize) throws SQLException {
+        this.db = db;
+        ArrayList<Object> a = qb.getQueryStringBare();
+        log.debug("CursorData coming from " + a.get(0));
+
+        if (db.getAutoCommit()) {
+            db.setAutoCommit(false);
+            restoreAutoCommit = true;
+        }
+
+        try {
+            ps = db.prepareStatement((String)a.get(0), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            for (int t = 1; t < a.size(); t++) {
+                ps.setObject(t, a.get(t));
+            }
+            rs = ps.executeQuery();
+
+            columns = ColumnIndex.fromMetaData(rs.getMetaData());
+        }
+        catch (SQLException e) {
+            try {
+                close();
+            }
+            catch (PersistenceException pe) {
+                log.warn(pe.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The rows, read from the database as they're asked for.  Any problem reading them is thrown as a
+     * PersistenceException, with the SQLException as its cause, and closes the cursor.
+     */
+    public Iterator<Map<String, Object>> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("The rows of a CursorData can only be iterated over once");
+        }
+        iterated = true;
+
+        return new Iterator<Map<String, Object>>() {
+            private Map<String, Object> next;
+
+            public boolean hasNext() {
+                if (next == null && !closed) {
+                    next = read();
+                }
+                return next != null;
+            }
+
+            public Map<String, Object> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map<String, Object> m = next;
+                next = null;
+                return m;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return the next row, or null when there are no more, in which case the cursor has been closed
+     */
+    private Map<String, Object> read() {
+        try {
+            if (!rs.next()) {
+                close();
+                return null;
+            }
+            Object[] row = new Object[columns.size()];
+            for (int t = 0; t < row.length; t++) {
+                row[t] = rs.getObject(columns.getColumn(t) + 1);
+            }
+            rowCount++;
+            return new RowMap(columns, row);
+        }
+        catch (SQLException e) {
+            close();
+            throw new PersistenceException("Failed to read the next row: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Release the cursor and its statement, and put the connection back in auto commit if we took it
+     * out.  Calling this more than once does nothing.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+            if (ps != null) {
+                ps.close();
+            }
+            if (restoreAutoCommit) {
+                // Nothing was changed, this just ends the transaction the cursor was in
+                db.setAutoCommit(true);
+            }
+        }
+        catch (SQLException e) {
+            throw new PersistenceException("Failed to close cursor: " + e.getMessage(), e);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String[] getColumnNames() {
+        return columns.getNames();
+    }
+
+    /**
+     * @return how many rows have been read so far
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CursorDataTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(CursorDataTest.class);
+    }
+
+    /**
+     * A table of ROWS rows of id and name, that counts how far the cursor over it has been read
+     */
+    private static class Table implements InvocationHandler {
+        static final int ROWS = 10;
+
+        boolean autoCommit = true;
+        int fetchSize = 0;
+        int position = 0;
+        boolean statementClosed = false;
+        String sql;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            }
+            if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean)args[0];
+                return null;
+            }
+            if (name.equals("prepareStatement")) {
+                sql = (String)args[0];
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {PreparedStatement.class}, this);
+            }
+            if (name.equals("setFetchSize")) {
+                fetchSize = (Integer)args[0];
+                return null;
+            }
+            if (name.equals("executeQuery")) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ResultSet.class, ResultSetMetaData.class}, this);
+            }
+            if (name.equals("getMetaData")) {
+                return proxy;
+            }
+            if (name.equals("getColumnCount")) {
+                return 2;
+            }
+            if (name.equals("getColumnName")) {
+                return (Integer)args[0] == 1 ? "id" : "name";
+            }
+            if (name.equals("next")) {
+                return ++position <= ROWS;
+            }
+            if (name.equals("getObject")) {
+                return (Integer)args[0] == 1 ? (Object)(long)position : "name " + position;
+            }
+            if (name.equals("close")) {
+                if (proxy instanceof PreparedStatement) {
+                    statementClosed = true;
+                }
+                return null;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        Connection connection() {
+            return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class}, this);
+        }
+    }
+
+    private static QueryBuilder query() {
+        QueryBuilder qb = new PostgresqlQueryBuilder();
+        String table = qb.addTable("customer");
+        qb.addColumn(table, "id");
+        qb.addColumn(table, "name");
+        return qb;
+    }
+
+    @Test
+    public void testRowsReadAsIterated() throws SQLException {
+        Table t = new Table();
+        CursorData cd = new CursorData(t.connection(), query(), 4);
+
+        assertEquals(4, t.fetchSize);
+        assertFalse(t.autoCommit);
+        assertTrue(t.sql.startsWith("select "));
+        assertArrayEquals(new String[] {"id", "name"}, cd.getColumnNames());
+
+        Iterator<Map<String, Object>> it = cd.iterator();
+        Map<String, Object> row = it.next();
+        assertEquals(1L, row.get("id"));
+        assertEquals("name 1", row.get("name"));
+        // Only as far as the first row
+        assertEquals(1, t.position);
+
+        int n = 1;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        assertEquals(Table.ROWS, n);
+        assertEquals(Table.ROWS, cd.getRowCount());
+        // Reaching the end released the statement and put the connection back how it was
+        assertTrue(cd.isClosed());
+        assertTrue(t.statementClosed);
+        assertTrue(t.autoCommit);
+    }
+
+    @Test
+    public void testClosedPartWayThrough() throws SQLException {
+        Table t = new Table();
+        CursorData cd = new CursorData(t.connection(), query());
+        try {
+            for (Map<String, Object> row : cd) {
+                if (row.get("id").equals(3L)) {
+                    break;
+                }
+            }
+        }
+        finally {
+            cd.close();
+        }
+
+        assertEquals(CursorData.DEFAULT_FETCH_SIZE, t.fetchSize);
+        assertEquals(3, t.position);
+        assertTrue(t.statementClosed);
+        assertTrue(t.autoCommit);
+
+        try {
+            cd.iterator();
+            fail("Expected a second iteration to be refused");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A database that only has metadata, for the tests that read it.  Canned rows are kept by the
+ * DatabaseMetaData call that returns them, and played back for the whole schema or filtered down to a
+ * table.  It counts the calls made for each kind, and the connections asked for, and can refuse calls
+ * without a table name the way some drivers do.
+ */
+class FakeCatalog implements InvocationHandler {
+    Map<String, List<Map<Integer, Object>>> rows = new HashMap<String, List<Map<Integer, Object>>>();
+    Map<String, Integer> calls = new HashMap<String, Integer>();
+    AtomicInteger connections = new AtomicInteger();
+    boolean tableRequired = false;
+    String productName = "PostgreSQL";
+    String productVersion = "9.1";
+
+    /**
+     * A metadata row, given as column number and value pairs
+     */
+    static Map<Integer, Object> row(Object... pairs) {
+        Map<Integer, Object> m = new HashMap<Integer, Object>();
+        for (int t = 0; t < pairs.length; t += 2) {
+            m.put((Integer)pairs[t], pairs[t + 1]);
+        }
+        return m;
+    }
+
+    void add(String call, Map<Integer, Object> row) {
+        List<Map<Integer, Object>> l = rows.get(call);
+        if (l == null) {
+            l = new ArrayList<Map<Integer, Object>>();
+            rows.put(call, l);
+        }
+        l.add(row);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("getConnection")) {
+            connections.incrementAndGet();
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class, DatabaseMetaData.class}, this);
+        }
+        if (name.equals("getMetaData")) {
+            return proxy;
+        }
+        if (name.equals("getDatabaseProductName")) {
+            return productName;
+        }
+        if (name.equals("getDatabaseProductVersion")) {
+            return productVersion;
+        }
+        if (name.equals("getURL")) {
+            return "jdbc:catalog";
+        }
+        if (name.equals("getUserName")) {
+            return "test";
+        }
+        if (rows.containsKey(name)) {
+            synchronized (calls) {
+                calls.put(name, calls.containsKey(name) ? calls.get(name) + 1 : 1);
+            }
+            String table = (String)args[2];
+            if (table == null && tableRequired && !name.equals("getColumns") && !name.equals("getTables")) {
+                throw new SQLException("Table name required");
+            }
+            // Imported keys belong to the table with the foreign key, not the one it points at
+            int tableColumn = name.equals("getImportedKeys") ? 7 : 3;
+            List<Map<Integer, Object>> result = new ArrayList<Map<Integer, Object>>();
+            for (Map<Integer, Object> r : rows.get(name)) {
+                if (table == null || table.equals(r.get(tableColumn))) {
+                    result.add(r);
+                }
+            }
+            return resultSet(result);
+        }
+        return null;
+    }
+
+    Connection connection() throws SQLException {
+        return dataSource().getConnection();
+    }
+
+    DataSource dataSource() {
+        return (DataSource)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DataSource.class}, this);
+    }
+
+    static ResultSet resultSet(final List<Map<Integer, Object>> rows) {
+        return (ResultSet)Proxy.newProxyInstance(FakeCatalog.class.getClassLoader(), new Class[] {ResultSet.class}, new InvocationHandler() {
+            int position = -1;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    return ++position < rows.size();
+                }
+                if (name.equals("close")) {
+                    return null;
+                }
+                Object v = rows.get(position).get(args[0]);
+                if (name.equals("getString")) {
+                    return v;
+                }
+                if (name.equals("getInt")) {
+                    return v == null ? 0 : ((Number)v).intValue();
+                }
+                if (name.equals("getShort")) {
+                    return v == null ? (short)0 : ((Number)v).shortValue();
+                }
+                if (name.equals("getBoolean")) {
+                    return v != null && (Boolean)v;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
@@ -38,6 +38,7 @@ public class Guidance {
     private String nativeTypeName="";
     private int javaSQLType;
     private int fieldPosition=1;
+    private boolean autoIncrement=false;
 
     public boolean isIndex() {
         return index;
@@ -131,31 +132,66 @@ public class Guidance {
 
         rs = dmd.getColumns(null, null, tableName, columnName);
         while (rs.next()) {
-            g.setNullable(rs.getString(18).equals("YES"));
-            if (rs.getInt(8)!=0) {
-                g.setPrecision(rs.getInt(7),rs.getInt(9));
-            }
-            else {
-                g.setPrecision(rs.getInt(9));
-            }
-            g.setDefaultValue(rs.getString(12));
-            g.setJavaSQLType(rs.getInt(5));
-            g.setNativeTypeName(rs.getString(6));
+            g.readColumnRow(rs);
         }
 
         rs = dmd.getImportedKeys(null,null,tableName);
         while (rs.next()) {
-            if (rs.getString(7).equalsIgnoreCase(columnName)) {
-                ForeignKey fk = new ForeignKey();
-                fk.setColumnName(columnName);
-                fk.setTableName(rs.getString(3));
-                g.setForeignKey(fk);
+            if (rs.getString(8).equalsIgnoreCase(columnName)) {
+                g.setForeignKey(readForeignKeyRow(rs));
             }
         }
 
         return g;
     }
 
+    /**
+     * Build a foreign key from the current row of a DatabaseMetaData.getImportedKeys() result set
+     */
+    public static ForeignKey readForeignKeyRow(ResultSet rs) throws SQLException {
+        ForeignKey fk = new ForeignKey();
+        fk.setTableName(rs.getString(3));
+        fk.setColumnName(rs.getString(4));
+        if (rs.getShort(11)==DatabaseMetaData.importedKeyCascade) {
+            fk.setDeleteAction(ForeignKey.CASCADE);
+        }
+        else {
+            fk.setDeleteAction(ForeignKey.NO_ACTION);
+        }
+        return fk;
+    }
+
+    /**
+     * Build guidance from the current row of a DatabaseMetaData.getColumns() result set, for when we
+     * already have one in hand.  Foreign keys aren't part of that row so they're left unset.
+     * @param rs a result set from getColumns positioned on the column's row
+     * @return the guidance for the column
+     */
+    public static Guidance fromColumnRow(ResultSet rs) throws SQLException {
+        Guidance g = new Guidance();
+        g.readColumnRow(rs);
+        return g;
+    }
+
+    private void readColumnRow(ResultSet rs) throws SQLException {
+        setNullable(rs.getString(18).equals("YES"));
+        if (rs.getInt(8)!=0) {
+            setPrecision(rs.getInt(7),rs.getInt(9));
+        }
+        else {
+            setPrecision(rs.getInt(9));
+        }
+        setDefaultValue(rs.getString(12));
+        setJavaSQLType(rs.getInt(5));
+        setNativeTypeName(rs.getString(6));
+        try {
+            setAutoIncrement("YES".equals(rs.getString(23)));
+        }
+        catch (SQLException se) {
+            // IS_AUTOINCREMENT is new in JDBC 4, older drivers don't have it
+        }
+    }
+
     public int getJavaSQLType() {
         return javaSQLType;
     }
@@ -164,6 +200,18 @@ public class Guidance {
         this.javaSQLType = javaSQLType;
     }
 
+    /**
+     * Does the driver say the database fills this column in itself.  That takes in serial columns as
+     * well as identity ones, so check the default for a sequence before treating it as identity.
+     */
+    public boolean isAutoIncrement() {
+        return autoIncrement;
+    }
+
+    public void setAutoIncrement(boolean autoIncrement) {
+        this.autoIncrement = autoIncrement;
+    }
+
     public String getNativeTypeName() {
         return nativeTypeName;
     }
@@ -0,0 +1,271 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cache behind TableMetadata.fetchMetadata.  Entries are keyed by data source, schema and table, so
+ * two databases with a table of the same name don't trample each other.  The data source is told apart
+ * by its connection URL and user name.
+ * <p/>
+ * The cache holds at most maxSize tables, dropping the least recently used when it's full, and entries
+ * can be given a time to live so a long running application notices schema changes eventually.  All
+ * access is synchronized; metadata is read from the database outside the lock, so a slow introspection
+ * doesn't hold up lookups of other tables.  If two threads load the same table at once, the first one
+ * in wins and both get its copy.
+ *
+ * @author plexq
+ */
+public class MetadataCache {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private int maxSize;
+
+    /**
+     * Time to live in milliseconds, 0 to keep entries until they're evicted or invalidated
+     */
+    private long ttl;
+
+    private LinkedHashMap<Key, Cached> entries;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    public MetadataCache() {
+        this(DEFAULT_MAX_SIZE, 0);
+    }
+
+    public MetadataCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        // Access order, so iteration runs least recently used first
+        entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                if (size() > MetadataCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Look a table up, reading its metadata from the database if we don't have it
+     * @param db a connection to the data source the table is in
+     * @param schema the schema, or null for whatever the connection finds without one
+     * @param tableName the table
+     */
+    public TableMetadata fetch(Connection db, String schema, String tableName) throws SQLException {
+        Key key = new Key(getDataSourceKey(db), schema, tableName);
+        TableMetadata tm = get(key);
+        if (tm != null) {
+            hits.incrementAndGet();
+            return tm;
+        }
+        misses.incrementAndGet();
+        return putIfAbsent(key, new TableMetadata(db, tableName));
+    }
+
+    /**
+     * @return the cached metadata, or null if we don't have it or it has expired
+     */
+    public TableMetadata get(Connection db, String schema, String tableName) throws SQLException {
+        return get(new Key(getDataSourceKey(db), schema, tableName));
+    }
+
+    private synchronized TableMetadata get(Key key) {
+        Cached e = entries.get(key);
+        if (e == null) {
+            return null;
+        }
+        if (isExpired(e)) {
+            entries.remove(key);
+            return null;
+        }
+        return e.metadata;
+    }
+
+    /**
+     * Cache metadata that was read some other way, replacing anything already there
+     */
+    public void put(Connection db, String schema, String tableName, TableMetadata tm) throws SQLException {
+        Key key = new Key(getDataSourceKey(db), schema, tableName);
+        synchronized (this) {
+            entries.put(key, new Cached(tm, now()));
+        }
+    }
+
+    private synchronized TableMetadata putIfAbsent(Key key, TableMetadata tm) {
+        Cached e = entries.get(key);
+        if (e != null && !isExpired(e)) {
+            return e.metadata;
+        }
+        entries.put(key, new Cached(tm, now()));
+        return tm;
+    }
+
+    /**
+     * Forget one table, so the next fetch reads it again
+     */
+    public void invalidate(Connection db, String schema, String tableName) throws SQLException {
+        Key key = new Key(getDataSourceKey(db), schema, tableName);
+        synchronized (this) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Forget every table from one data source
+     */
+    public void invalidate(Connection db) throws SQLException {
+        String dataSource = getDataSourceKey(db);
+        synchronized (this) {
+            for (Iterator<Key> i = entries.keySet().iterator(); i.hasNext();) {
+                if (i.next().dataSource.equals(dataSource)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    private boolean isExpired(Cached e) {
+        return ttl > 0 && now() - e.loaded >= ttl;
+    }
+
+    /**
+     * The clock entries are timed against
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Tell data sources apart by where they connect to and as whom
+     */
+    public static String getDataSourceKey(Connection db) throws SQLException {
+        DatabaseMetaData dmd = db.getMetaData();
+        return dmd.getURL() + "|" + dmd.getUserName();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the fraction of fetches that didn't go to the database, 0 if there haven't been any
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Change the size limit; shrinking it evicts the least recently used tables straight away
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        for (Iterator<Key> i = entries.keySet().iterator(); i.hasNext() && entries.size() > maxSize;) {
+            i.next();
+            i.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized long getTtl() {
+        return ttl;
+    }
+
+    public synchronized void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public String toString() {
+        return "MetadataCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + "]";
+    }
+
+    private static class Key {
+        private String dataSource;
+        private String schema;
+        private String table;
+
+        Key(String dataSource, String schema, String table) {
+            this.dataSource = dataSource;
+            this.schema = schema == null ? "" : schema;
+            this.table = table;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return dataSource.equals(k.dataSource) && schema.equals(k.schema) && table.equals(k.table);
+        }
+
+        public int hashCode() {
+            return (dataSource.hashCode() * 31 + schema.hashCode()) * 31 + table.hashCode();
+        }
+    }
+
+    private static class Cached {
+        private TableMetadata metadata;
+        private long loaded;
+
+        Cached(TableMetadata metadata, long loaded) {
+            this.metadata = metadata;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MetadataCacheTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(MetadataCacheTest.class);
+    }
+
+    /**
+     * A connection that only knows where it's connected to
+     */
+    private static Connection connection(final String url) {
+        return (Connection)Proxy.newProxyInstance(MetadataCacheTest.class.getClassLoader(), new Class[] {Connection.class, DatabaseMetaData.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getMetaData")) {
+                    return proxy;
+                }
+                if (name.equals("getURL")) {
+                    return url;
+                }
+                if (name.equals("getUserName")) {
+                    return "test";
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    /**
+     * A cache with a clock we can move by hand
+     */
+    private static class TimedCache extends MetadataCache {
+        long time = 1000;
+
+        TimedCache(int maxSize, long ttl) {
+            super(maxSize, ttl);
+        }
+
+        protected long now() {
+            return time;
+        }
+    }
+
+    @Test
+    public void testKeyedByDataSourceAndSchema() throws SQLException {
+        MetadataCache mc = new MetadataCache();
+        Connection a = connection("jdbc:a");
+        Connection b = connection("jdbc:b");
+        TableMetadata tm = new TableMetadata();
+        mc.put(a, null, "Customer", tm);
+
+        assertSame(tm, mc.fetch(a, null, "Customer"));
+        assertNull(mc.get(b, null, "Customer"));
+        assertNull(mc.get(a, "dbo", "Customer"));
+        assertEquals(1, mc.getHits());
+        assertEquals(0, mc.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws SQLException {
+        MetadataCache mc = new MetadataCache(2, 0);
+        Connection db = connection("jdbc:a");
+        mc.put(db, null, "a", new TableMetadata());
+        mc.put(db, null, "b", new TableMetadata());
+        // Touch a, so b is the one to go
+        mc.fetch(db, null, "a");
+        mc.put(db, null, "c", new TableMetadata());
+
+        assertEquals(2, mc.size());
+        assertEquals(1, mc.getEvictions());
+        assertNotNull(mc.get(db, null, "a"));
+        assertNull(mc.get(db, null, "b"));
+        assertNotNull(mc.get(db, null, "c"));
+
+        mc.setMaxSize(1);
+        assertEquals(1, mc.size());
+        assertEquals(2, mc.getEvictions());
+        assertNotNull(mc.get(db, null, "c"));
+    }
+
+    @Test
+    public void testExpiry() throws SQLException {
+        TimedCache mc = new TimedCache(10, 500);
+        Connection db = connection("jdbc:a");
+        mc.put(db, null, "a", new TableMetadata());
+
+        mc.time += 499;
+        assertNotNull(mc.get(db, null, "a"));
+        mc.time += 1;
+        assertNull(mc.get(db, null, "a"));
+        assertEquals(0, mc.size());
+    }
+
+    @Test
+    public void testInvalidate() throws SQLException {
+        MetadataCache mc = new MetadataCache();
+        Connection a = connection("jdbc:a");
+        Connection b = connection("jdbc:b");
+        mc.put(a, null, "x", new TableMetadata());
+        mc.put(a, null, "y", new TableMetadata());
+        mc.put(b, null, "x", new TableMetadata());
+
+        mc.invalidate(a, null, "x");
+        assertNull(mc.get(a, null, "x"));
+        assertEquals(2, mc.size());
+
+        mc.invalidate(a);
+        assertEquals(1, mc.size());
+        assertNotNull(mc.get(b, null, "x"));
+
+        mc.invalidateAll();
+        assertEquals(0, mc.size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final MetadataCache mc = new MetadataCache(50, 0);
+        final Connection db = connection("jdbc:a");
+        final AtomicInteger failures = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            String table = "t" + ((i * 7 + seed) % 100);
+                            if (mc.get(db, null, table) == null) {
+                                mc.put(db, null, table, new TableMetadata());
+                            }
+                            if (i % 500 == 0) {
+                                mc.invalidate(db, null, table);
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertTrue(mc.size() <= 50);
+    }
+}
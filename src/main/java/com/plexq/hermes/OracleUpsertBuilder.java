@@ -0,0 +1,100 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * merge into ... using a row selected from dual.  Oracle won't update a column the merge joins on, so
+ * the primary key is never in the update.
+ */
+public class OracleUpsertBuilder extends UpsertBuilder {
+    public ArrayList<Object> buildUpsert(String tableName, String[] pkey, Map<String, Object> values, Set<String> updateColumns) {
+        ArrayList<Object> al = new ArrayList<Object>();
+        al.add("");
+
+        StringBuilder sql = new StringBuilder("merge into ");
+        sql.append(tableName);
+        sql.append(" t using (select ");
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            appendValue(sb, e.getValue(), al);
+            trim(sb, 2);
+            sql.append(sb);
+            sql.append(" ");
+            sql.append(e.getKey());
+            sql.append(", ");
+        }
+        trim(sql, 2);
+        sql.append(" from dual) s on (");
+        for (String s : pkey) {
+            sql.append("t.");
+            sql.append(s);
+            sql.append("=s.");
+            sql.append(s);
+            sql.append(" and ");
+        }
+        trim(sql, 5);
+        sql.append(")");
+
+        StringBuilder update = new StringBuilder();
+        for (String s : updateColumns) {
+            if (!isKey(pkey, s)) {
+                update.append("t.");
+                update.append(s);
+                update.append("=s.");
+                update.append(s);
+                update.append(", ");
+            }
+        }
+        if (update.length() > 0) {
+            trim(update, 2);
+            sql.append(" when matched then update set ");
+            sql.append(update);
+        }
+
+        sql.append(" when not matched then insert (");
+        StringBuilder sb = new StringBuilder();
+        for (String s : values.keySet()) {
+            sql.append(s);
+            sql.append(",");
+            sb.append("s.");
+            sb.append(s);
+            sb.append(", ");
+        }
+        trim(sql, 1);
+        trim(sb, 2);
+        sql.append(") values (");
+        sql.append(sb);
+        sql.append(")");
+
+        al.set(0, sql.toString());
+        return al;
+    }
+
+    private boolean isKey(String[] pkey, String column) {
+        for (String s : pkey) {
+            if (s.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -21,4 +21,8 @@ public class PersistenceException extends RuntimeException {
   public PersistenceException(String msg) {
     super(msg);
   }
+
+  public PersistenceException(String msg, Throwable cause) {
+    super(msg, cause);
+  }
 }
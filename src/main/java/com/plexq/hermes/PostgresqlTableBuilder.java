@@ -26,42 +26,14 @@ import java.sql.Statement;
  */
 public class PostgresqlTableBuilder extends TableBuilder {
     public String buildTable(TableRepresentation tr) throws SQLException, TableBuildException {
-        Map<String, Class> types = tr.getTypeMap();
         final Map<String, Guidance> guidance = tr.getMetaData().getTableGuidance();
 
         StringBuffer sql=new StringBuffer();
 
         sql.append("create table ");
-        sql.append("\""+convertToUnderscoreFormat(tr.getTableName())+"\"");
+        sql.append(getQuotedTableName(tr.getTableName()));
         sql.append(" (\n");
-
-        ArrayList<String> sortedKeys = new ArrayList<String>();
-        sortedKeys.addAll(types.keySet());
-        Collections.sort(sortedKeys, new Comparator<String>() {
-            @Override
-            public int compare(String s, String s1) {
-                return guidance.get(s).getFieldPosition() - guidance.get(s1).getFieldPosition();
-            }
-        });
-
-        for (String a: sortedKeys) {
-            Guidance g=guidance.get(a);
-            sql.append(convertToUnderscoreFormat(a));
-            sql.append(" ");
-            sql.append(getDatabaseTypeForJavaClass(types.get(a), g));
-            if (g!=null) {
-                if (!g.isNullable()) {
-                    sql.append(" not null");
-                }
-                if (g.getDefaultValue()!=null) {
-                    sql.append(" default "+g.getDefaultValue());
-                }
-            }
-
-            sql.append(",\n");
-        }
-
-        sql=new StringBuffer(sql.substring(0,sql.length()-2));
+        sql.append(buildColumns(tr));
 
         for (String a: guidance.keySet()) {
 
@@ -140,6 +112,133 @@ public class PostgresqlTableBuilder extends TableBuilder {
         */
     }
 
+    /**
+     * Just the table and its columns, leaving the keys and indexes to buildIndexes and buildForeignKeys
+     */
+    public String buildPreData(TableRepresentation tr) throws SQLException, TableBuildException {
+        StringBuilder sql = new StringBuilder();
+        sql.append("create table ");
+        sql.append(getQuotedTableName(tr.getTableName()));
+        sql.append(" (\n");
+        sql.append(buildColumns(tr));
+        sql.append(");\n");
+        return sql.toString();
+    }
+
+    /**
+     * The primary key, then the indexes, one statement each
+     */
+    public List<String> buildIndexes(TableRepresentation tr) throws SQLException, TableBuildException {
+        List<String> result = new ArrayList<String>();
+
+        String pkeys[]=tr.getPrimaryKeys();
+        if (pkeys.length>0) {
+            result.add("alter table "+getQuotedTableName(tr.getTableName())+" add primary key ("+buildColumnList(Arrays.asList(pkeys))+");");
+        }
+
+        for (IndexRepresentation ir : tr.getIndices()) {
+            StringBuilder sql = new StringBuilder("create ");
+            if (ir.isUnique()) {
+                sql.append("unique ");
+            }
+            sql.append("index ");
+            sql.append(ir.getName());
+            sql.append(" on ");
+            sql.append(getQuotedTableName(ir.getTableName()));
+            sql.append(" (");
+            sql.append(buildColumnList(ir.getColumns()));
+            sql.append(");");
+            result.add(sql.toString());
+        }
+
+        return result;
+    }
+
+    public List<String> buildForeignKeys(TableRepresentation tr) throws SQLException, TableBuildException {
+        List<String> result = new ArrayList<String>();
+        Map<String, Guidance> guidance = tr.getMetaData().getTableGuidance();
+
+        for (String a: guidance.keySet()) {
+            Guidance g=guidance.get(a);
+            if (g!=null && g.getForeignKey()!=null) {
+                ForeignKey fk=g.getForeignKey();
+                StringBuilder sql = new StringBuilder("alter table ");
+                sql.append(getQuotedTableName(tr.getTableName()));
+                sql.append(" add constraint ");
+                sql.append(convertToUnderscoreFormat(tr.getTableName()));
+                sql.append("_");
+                sql.append(convertToUnderscoreFormat(a));
+                sql.append("_fk foreign key (");
+                sql.append(convertToUnderscoreFormat(a));
+                sql.append(") references ");
+                sql.append(getQuotedTableName(fk.getTableName()));
+                if (fk.getDeleteAction()==ForeignKey.CASCADE) {
+                    sql.append(" on delete cascade");
+                }
+                else if (fk.getDeleteAction()==ForeignKey.NO_ACTION) {
+                    sql.append(" on delete no action");
+                }
+                sql.append(";");
+                result.add(sql.toString());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The column definitions in field order, one to a line, without a trailing separator
+     */
+    private String buildColumns(TableRepresentation tr) throws TableBuildException {
+        Map<String, Class> types = tr.getTypeMap();
+        final Map<String, Guidance> guidance = tr.getMetaData().getTableGuidance();
+
+        StringBuilder sql = new StringBuilder();
+
+        ArrayList<String> sortedKeys = new ArrayList<String>();
+        sortedKeys.addAll(types.keySet());
+        Collections.sort(sortedKeys, new Comparator<String>() {
+            @Override
+            public int compare(String s, String s1) {
+                return guidance.get(s).getFieldPosition() - guidance.get(s1).getFieldPosition();
+            }
+        });
+
+        for (String a: sortedKeys) {
+            Guidance g=guidance.get(a);
+            sql.append(convertToUnderscoreFormat(a));
+            sql.append(" ");
+            sql.append(getDatabaseTypeForJavaClass(types.get(a), g));
+            if (g!=null) {
+                if (!g.isNullable()) {
+                    sql.append(" not null");
+                }
+                if (g.getDefaultValue()!=null) {
+                    sql.append(" default "+g.getDefaultValue());
+                }
+            }
+
+            sql.append(",\n");
+        }
+
+        return sql.substring(0,sql.length()-2);
+    }
+
+    private String getQuotedTableName(String tableName) {
+        return "\""+convertToUnderscoreFormat(tableName)+"\"";
+    }
+
+    private String buildColumnList(List<String> columns) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : columns) {
+            if (sb.length()!=0) {
+                sb.append(",");
+            }
+            sb.append(convertToUnderscoreFormat(s));
+        }
+        return sb.toString();
+    }
+
     public String getDatabaseTypeForJavaClass(Class c, Guidance g) throws TableBuildException {
 
         if (c==String.class) {
@@ -0,0 +1,70 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * insert ... on conflict (pkey) do update, which needs PostgreSQL 9.5 or later
+ */
+public class PostgresqlUpsertBuilder extends UpsertBuilder {
+    public ArrayList<Object> buildUpsert(String tableName, String[] pkey, Map<String, Object> values, Set<String> updateColumns) {
+        ArrayList<Object> al = new ArrayList<Object>();
+        al.add("");
+
+        StringBuilder sql = new StringBuilder("insert into ");
+        sql.append(tableName);
+        sql.append(" (");
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            sql.append(e.getKey());
+            sql.append(",");
+            appendValue(sb, e.getValue(), al);
+        }
+        trim(sql, 1);
+        trim(sb, 2);
+        sql.append(") values (");
+        sql.append(sb);
+        sql.append(") on conflict (");
+        for (String s : pkey) {
+            sql.append(s);
+            sql.append(",");
+        }
+        trim(sql, 1);
+        sql.append(")");
+
+        if (updateColumns.isEmpty()) {
+            sql.append(" do nothing");
+        }
+        else {
+            sql.append(" do update set ");
+            for (String s : updateColumns) {
+                sql.append(s);
+                sql.append("=excluded.");
+                sql.append(s);
+                sql.append(", ");
+            }
+            trim(sql, 2);
+        }
+
+        al.set(0, sql.toString());
+        return al;
+    }
+}
@@ -544,6 +544,14 @@ public interface QueryBuilder {
 
   ArrayList<Object> getQueryStringBare();
 
+  /**
+   * Build the query once into a template that can be kept and run again with new values for its
+   * parameters, without building the SQL each time.
+   *
+   * @return The query as it stands, which later changes to this builder don't affect
+   */
+  QueryTemplate compile();
+
   String toString();
 
   String addWhereGroup(String name, String op);
@@ -0,0 +1,123 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * A query compiled from a QueryBuilder: the SQL, the parameters it was built with, and where in the
+ * statement the parameter for each token the builder handed out goes.  Running the same shape of
+ * query with different values is then just a matter of binding them, without building the SQL again.
+ * <pre>
+ * QueryBuilder qb=QueryBuilderFactory.getQueryBuilder(db);
+ * String person=qb.addTable("person");
+ * qb.addColumn(person,"name");
+ * Integer age=qb.addWhere(person,"age",">",0);
+ * QueryTemplate template=qb.compile();
+ * ...
+ * Map&lt;Integer, Object&gt; values=new HashMap&lt;Integer, Object&gt;();
+ * values.put(age, 21);
+ * PreparedStatement pstmt=template.getPreparedStatement(db, values);
+ * </pre>
+ * A template can't be changed once it's made, so one can be kept and shared between threads.  It
+ * has the number of parameters it was built with, so something like an in list is fixed at the size
+ * it had when compiled.
+ *
+ * @author plexq
+ */
+public final class QueryTemplate {
+    private final String sql;
+    private final Object[] parameters;
+    private final Map<Integer, Integer> positions;
+
+    /**
+     * @param sql the query
+     * @param parameters the parameters it was built with, in order
+     * @param positions the position in the statement, counting from 1, of the parameter for each token
+     */
+    public QueryTemplate(String sql, List<Object> parameters, Map<Integer, Integer> positions) {
+        this.sql = sql;
+        this.parameters = parameters.toArray();
+        this.positions = Collections.unmodifiableMap(new HashMap<Integer, Integer>(positions));
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParameterCount() {
+        return parameters.length;
+    }
+
+    /**
+     * @return the position in the statement of the parameter for a token, or null if there isn't one
+     */
+    public Integer getParameterPosition(Integer token) {
+        return positions.get(token);
+    }
+
+    /**
+     * The query with the parameters it was compiled with, the same as the builder's getQueryStringBare()
+     */
+    public ArrayList<Object> getQueryStringBare() {
+        return bind(Collections.<Integer, Object>emptyMap());
+    }
+
+    /**
+     * The query with new values for some of its parameters, and the values it was compiled with for
+     * the rest
+     *
+     * @param values the new values, by the token handed out for them when the query was built
+     * @return the query followed by its parameters
+     */
+    public ArrayList<Object> bind(Map<Integer, Object> values) {
+        ArrayList<Object> a = new ArrayList<Object>(parameters.length + 1);
+        a.add(sql);
+        a.addAll(Arrays.asList(parameters));
+        for (Map.Entry<Integer, Object> e : values.entrySet()) {
+            Integer position = positions.get(e.getKey());
+            if (position == null) {
+                throw new IllegalArgumentException("Token " + e.getKey() + " is not a parameter of " + sql);
+            }
+            a.set(position, e.getValue());
+        }
+        return a;
+    }
+
+    /**
+     * Prepare the query, from the connection's StatementCache, with new values for some of its
+     * parameters.  Close the statement when finished with its results to hand it back to the cache.
+     *
+     * @param values the new values, by the token handed out for them when the query was built
+     */
+    public PreparedStatement getPreparedStatement(Connection db, Map<Integer, Object> values) throws SQLException {
+        ArrayList<Object> a = bind(values);
+        PreparedStatement pstmt = StatementCache.prepare(db, sql);
+        for (int t = 1; t < a.size(); t++) {
+            pstmt.setObject(t, a.get(t));
+        }
+        return pstmt;
+    }
+
+    public String toString() {
+        return sql;
+    }
+}
@@ -17,34 +17,288 @@
 */
 package com.plexq.hermes;
 
-import java.util.LinkedList;
-import java.util.HashMap;
+import org.apache.log4j.Logger;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
 import java.sql.*;
 
 /**
+ * All the rows of a query, read in one go.  Each row is a RowMap, which keeps its values in an array
+ * laid out by a ColumnIndex the whole result shares, so a row costs little more than its values.
+ * Rows added from elsewhere that aren't RowMaps over the same columns are copied into one.
+ * <p/>
+ * The columns are looked up once per result and each value read by position, as reading by name
+ * makes the driver search for the column every time.  How many results and rows have been read, and
+ * how long it took, is counted across all of them for keeping an eye on.
+ * <p/>
+ * This used to be a LinkedList.  The rows are in an array list now, but it's still a Deque as well
+ * as a List, so getFirst(), poll() and the like work as they did.  Taking rows off the front is no
+ * longer constant time though, so a long result worked through that way is better iterated over.
+ * Code that assigned one to a LinkedList has to use List or Deque instead.
  *
  * @author plexq
  * @date Jun 29, 200:
  */
-public class ResultsData extends LinkedList<Map<String, Object>> {
+public class ResultsData extends AbstractList<Map<String, Object>> implements Deque<Map<String, Object>>, RandomAccess, Serializable {
+	private static Logger log = Logger.getLogger(ResultsData.class);
+
+	private static final AtomicLong resultsRead = new AtomicLong();
+	private static final AtomicLong rowsRead = new AtomicLong();
+	private static final AtomicLong readNanos = new AtomicLong();
+
+	private ColumnIndex columns;
+	private ArrayList<RowMap> rows = new ArrayList<RowMap>();
+
 	public ResultsData(Connection db, QueryBuilder qb) throws SQLException {
 		super();
+		long start=System.nanoTime();
 
 		PreparedStatement ps=qb.getPreparedStatement(db);
 
-		System.out.println("ResultsData comming from "+qb.getQueryStringBare());
+		if (log.isDebugEnabled()) {
+			log.debug("ResultsData coming from "+qb.getQueryStringBare());
+		}
+
+		try {
+			ResultSet rs=ps.executeQuery();
+			try {
+				read(rs);
+			}
+			finally {
+				rs.close();
+			}
+		}
+		finally {
+			// Hands it back to the StatementCache
+			ps.close();
+		}
+
+		long nanos=System.nanoTime()-start;
+		resultsRead.incrementAndGet();
+		rowsRead.addAndGet(rows.size());
+		readNanos.addAndGet(nanos);
+		if (log.isDebugEnabled()) {
+			log.debug("Read "+rows.size()+" rows in "+(nanos/1000000)+"ms");
+		}
+	}
 
-		ResultSet rs=ps.executeQuery();
-		ResultSetMetaData rsmd=rs.getMetaData();
+	/**
+	 * Read every row of a result set.  Where a column name is repeated only the first column of that
+	 * name is read, as getObject() by name would give.
+	 */
+	protected void read(ResultSet rs) throws SQLException {
+		columns=ColumnIndex.fromMetaData(rs.getMetaData());
+		int slotCount=columns.size();
+		int[] sources=new int[slotCount];
+		for (int t=0;t<slotCount;t++) {
+			sources[t]=columns.getColumn(t)+1;
+		}
 
 		while (rs.next()) {
-			HashMap<String,Object> m=new HashMap<String,Object>();
-			for (int t=1;t<=rsmd.getColumnCount();t++) {
-				String columnName=rsmd.getColumnName(t);
-				m.put(columnName, rs.getObject(columnName));
+			Object[] row=new Object[slotCount];
+			for (int t=0;t<slotCount;t++) {
+				row[t]=rs.getObject(sources[t]);
 			}
-			this.add(m);
+			rows.add(new RowMap(columns, row));
+		}
+	}
+
+	/**
+	 * An empty result with the given columns, to add rows to
+	 */
+	public ResultsData(ColumnIndex columns) {
+		this.columns=columns;
+	}
+
+	public ColumnIndex getColumnIndex() {
+		return columns;
+	}
+
+	/**
+	 * @return how many results have been read from the database since the start, or the last reset
+	 */
+	public static long getResultsRead() {
+		return resultsRead.get();
+	}
+
+	/**
+	 * @return how many rows have been read from the database since the start, or the last reset
+	 */
+	public static long getRowsRead() {
+		return rowsRead.get();
+	}
+
+	/**
+	 * @return the time in milliseconds spent running queries and reading their rows since the start, or the last reset
+	 */
+	public static long getReadTime() {
+		return readNanos.get()/1000000;
+	}
+
+	public static void resetStatistics() {
+		resultsRead.set(0);
+		rowsRead.set(0);
+		readNanos.set(0);
+	}
+
+	public RowMap get(int index) {
+		return rows.get(index);
+	}
+
+	public int size() {
+		return rows.size();
+	}
+
+	public Map<String, Object> set(int index, Map<String, Object> m) {
+		return rows.set(index, toRow(m));
+	}
+
+	public void add(int index, Map<String, Object> m) {
+		rows.add(index, toRow(m));
+		modCount++;
+	}
+
+	public Map<String, Object> remove(int index) {
+		modCount++;
+		return rows.remove(index);
+	}
+
+	public void addFirst(Map<String, Object> m) {
+		add(0, m);
+	}
+
+	public void addLast(Map<String, Object> m) {
+		add(m);
+	}
+
+	public boolean offerFirst(Map<String, Object> m) {
+		addFirst(m);
+		return true;
+	}
+
+	public boolean offerLast(Map<String, Object> m) {
+		addLast(m);
+		return true;
+	}
+
+	public Map<String, Object> removeFirst() {
+		if (rows.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		return remove(0);
+	}
+
+	public Map<String, Object> removeLast() {
+		if (rows.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		return remove(rows.size()-1);
+	}
+
+	public Map<String, Object> pollFirst() {
+		return rows.isEmpty() ? null : remove(0);
+	}
+
+	public Map<String, Object> pollLast() {
+		return rows.isEmpty() ? null : remove(rows.size()-1);
+	}
+
+	public RowMap getFirst() {
+		if (rows.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		return rows.get(0);
+	}
+
+	public RowMap getLast() {
+		if (rows.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		return rows.get(rows.size()-1);
+	}
+
+	public RowMap peekFirst() {
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	public RowMap peekLast() {
+		return rows.isEmpty() ? null : rows.get(rows.size()-1);
+	}
+
+	public boolean removeFirstOccurrence(Object o) {
+		return remove(o);
+	}
+
+	public boolean removeLastOccurrence(Object o) {
+		int index=lastIndexOf(o);
+		if (index<0) {
+			return false;
+		}
+		remove(index);
+		return true;
+	}
+
+	public boolean offer(Map<String, Object> m) {
+		return offerLast(m);
+	}
+
+	public Map<String, Object> remove() {
+		return removeFirst();
+	}
+
+	public Map<String, Object> poll() {
+		return pollFirst();
+	}
+
+	public RowMap element() {
+		return getFirst();
+	}
+
+	public RowMap peek() {
+		return peekFirst();
+	}
+
+	public void push(Map<String, Object> m) {
+		addFirst(m);
+	}
+
+	public Map<String, Object> pop() {
+		return removeFirst();
+	}
+
+	public Iterator<Map<String, Object>> descendingIterator() {
+		final ListIterator<Map<String, Object>> i=listIterator(size());
+		return new Iterator<Map<String, Object>>() {
+			public boolean hasNext() {
+				return i.hasPrevious();
+			}
+
+			public Map<String, Object> next() {
+				return i.previous();
+			}
+
+			public void remove() {
+				i.remove();
+			}
+		};
+	}
+
+	private RowMap toRow(Map<String, Object> m) {
+		if (m instanceof RowMap && ((RowMap)m).getColumnIndex()==columns) {
+			return (RowMap)m;
 		}
+		RowMap row=new RowMap(columns);
+		row.clear();
+		row.putAll(m);
+		return row;
 	}
 }
@@ -0,0 +1,154 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.HashMap;
+
+/**
+ * Times reading rows into a ResultsData against reading them the way it used to, looking up every
+ * value by column name, from an in memory result set that finds a column by name the way the
+ * PostgreSQL driver does, by going through the columns in turn.  It's only a rough guide as the time
+ * taken by a real driver to decode the values isn't in it.
+ * <pre>
+ * java com.plexq.hermes.ResultsDataBenchmark [rows] [columns] [rounds]
+ * </pre>
+ *
+ * @author plexq
+ */
+public class ResultsDataBenchmark {
+    private int rowCount;
+    private String[] names;
+
+    public ResultsDataBenchmark(int rowCount, int columnCount) {
+        this.rowCount = rowCount;
+        names = new String[columnCount];
+        for (int t = 0; t < columnCount; t++) {
+            names[t] = "column_" + t;
+        }
+    }
+
+    private class Result implements InvocationHandler {
+        int position = 0;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("next")) {
+                return ++position <= rowCount;
+            }
+            if (name.equals("getObject")) {
+                int column;
+                if (args[0] instanceof String) {
+                    column = findColumn((String)args[0]);
+                }
+                else {
+                    column = (Integer)args[0];
+                }
+                return position * names.length + column;
+            }
+            if (name.equals("getMetaData")) {
+                return proxy;
+            }
+            if (name.equals("getDatabaseProductName")) {
+                return "PostgreSQL";
+            }
+            if (name.equals("getColumnCount")) {
+                return names.length;
+            }
+            if (name.equals("getColumnName")) {
+                return names[(Integer)args[0] - 1];
+            }
+            if (name.equals("prepareStatement")) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {PreparedStatement.class}, this);
+            }
+            if (name.equals("executeQuery")) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ResultSet.class, ResultSetMetaData.class}, this);
+            }
+            if (name.equals("isClosed")) {
+                return false;
+            }
+            return null;
+        }
+
+        int findColumn(String name) {
+            for (int t = 0; t < names.length; t++) {
+                if (names[t].equalsIgnoreCase(name)) {
+                    return t + 1;
+                }
+            }
+            throw new IllegalArgumentException(name);
+        }
+    }
+
+    private Connection connection() {
+        return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class, DatabaseMetaData.class}, new Result());
+    }
+
+    /**
+     * Read the rows as ResultsData did before, into a HashMap each, by column name
+     */
+    public int readByName() throws SQLException {
+        ResultSet rs = connection().prepareStatement("").executeQuery();
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int n = 0;
+        while (rs.next()) {
+            HashMap<String, Object> m = new HashMap<String, Object>();
+            for (int t = 1; t <= rsmd.getColumnCount(); t++) {
+                String columnName = rsmd.getColumnName(t);
+                m.put(columnName, rs.getObject(columnName));
+            }
+            n += m.size();
+        }
+        return n;
+    }
+
+    public int readResultsData() throws SQLException {
+        QueryBuilder qb = new PostgresqlQueryBuilder();
+        qb.addTable("benchmark");
+        Connection db = connection();
+        try {
+            return new ResultsData(db, qb).size();
+        }
+        finally {
+            StatementCache.release(db);
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        ResultsDataBenchmark b = new ResultsDataBenchmark(rows, columns);
+
+        // The first few rounds are for the JIT
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            b.readByName();
+            long byName = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            b.readResultsData();
+            long resultsData = System.nanoTime() - start;
+
+            System.out.println("Round " + round + ": by name " + (byName / rows) + "ns/row, ResultsData " + (resultsData / rows) + "ns/row");
+        }
+    }
+}
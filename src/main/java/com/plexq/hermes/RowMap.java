@@ -0,0 +1,244 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A row of a result as a map of column name to value.  The values are kept in an array laid out by a
+ * ColumnIndex that every row of the result shares, rather than a HashMap of their own with an entry
+ * per column, which takes several times the memory of the data in it.
+ * <p/>
+ * It can be used like any other map.  Putting a key that isn't a column of the result keeps it in a
+ * small map of extras on the side, and removing a column marks its slot empty.  Iteration is in
+ * column order, followed by any extras.
+ *
+ * @author plexq
+ */
+public class RowMap extends AbstractMap<String, Object> implements Serializable {
+    /**
+     * Marks the slot of a column that has been removed, as null is a value
+     */
+    private static final Object ABSENT = new Absent();
+
+    private static final class Absent implements Serializable {
+        private Object readResolve() {
+            return ABSENT;
+        }
+
+        public String toString() {
+            return "ABSENT";
+        }
+    }
+
+    private ColumnIndex columns;
+    private Object[] values;
+    private LinkedHashMap<String, Object> extras;
+
+    /**
+     * A row with every column null
+     */
+    public RowMap(ColumnIndex columns) {
+        this(columns, new Object[columns.size()]);
+    }
+
+    /**
+     * A row over values already in slot order, which the row takes as its own
+     */
+    public RowMap(ColumnIndex columns, Object[] values) {
+        if (values.length != columns.size()) {
+            throw new IllegalArgumentException("Row has " + values.length + " values for " + columns.size() + " columns");
+        }
+        this.columns = columns;
+        this.values = values;
+    }
+
+    public ColumnIndex getColumnIndex() {
+        return columns;
+    }
+
+    /**
+     * The value in a slot, without looking up the column by name
+     */
+    public Object getValue(int slot) {
+        Object o = values[slot];
+        return o == ABSENT ? null : o;
+    }
+
+    public Object get(Object key) {
+        Integer slot = columns.getPosition(key);
+        if (slot != null) {
+            return getValue(slot);
+        }
+        return extras == null ? null : extras.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        Integer slot = columns.getPosition(key);
+        if (slot != null) {
+            return values[slot] != ABSENT;
+        }
+        return extras != null && extras.containsKey(key);
+    }
+
+    public Object put(String key, Object value) {
+        Integer slot = columns.getPosition(key);
+        if (slot != null) {
+            Object o = values[slot];
+            values[slot] = value;
+            return o == ABSENT ? null : o;
+        }
+        if (extras == null) {
+            extras = new LinkedHashMap<String, Object>();
+        }
+        return extras.put(key, value);
+    }
+
+    public Object remove(Object key) {
+        Integer slot = columns.getPosition(key);
+        if (slot != null) {
+            Object o = values[slot];
+            values[slot] = ABSENT;
+            return o == ABSENT ? null : o;
+        }
+        return extras == null ? null : extras.remove(key);
+    }
+
+    public void clear() {
+        Arrays.fill(values, ABSENT);
+        extras = null;
+    }
+
+    public int size() {
+        int n = extras == null ? 0 : extras.size();
+        for (Object o : values) {
+            if (o != ABSENT) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            public int size() {
+                return RowMap.this.size();
+            }
+        };
+    }
+
+    private class SlotEntry implements Map.Entry<String, Object> {
+        private int slot;
+
+        SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        public String getKey() {
+            return columns.getName(slot);
+        }
+
+        public Object getValue() {
+            return RowMap.this.getValue(slot);
+        }
+
+        public Object setValue(Object value) {
+            Object o = getValue();
+            values[slot] = value;
+            return o;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry)o;
+            Object v = getValue();
+            return getKey().equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        public int hashCode() {
+            Object v = getValue();
+            return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Walks the slots, skipping removed ones, and then the extras
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int next = 0;
+        private int last = -1;
+        private Iterator<Map.Entry<String, Object>> extrasIterator;
+
+        EntryIterator() {
+            skip();
+        }
+
+        private void skip() {
+            while (next < values.length && values[next] == ABSENT) {
+                next++;
+            }
+        }
+
+        public boolean hasNext() {
+            if (next < values.length) {
+                return true;
+            }
+            if (extrasIterator == null && extras != null) {
+                extrasIterator = extras.entrySet().iterator();
+            }
+            return extrasIterator != null && extrasIterator.hasNext();
+        }
+
+        public Map.Entry<String, Object> next() {
+            if (next < values.length) {
+                last = next++;
+                skip();
+                return new SlotEntry(last);
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = -1;
+            return extrasIterator.next();
+        }
+
+        public void remove() {
+            if (last >= 0) {
+                values[last] = ABSENT;
+                last = -1;
+            }
+            else if (extrasIterator != null) {
+                extrasIterator.remove();
+            }
+            else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RowMapTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(RowMapTest.class);
+    }
+
+    private static final ColumnIndex COLUMNS = new ColumnIndex(new String[] {"id", "name", "id"});
+
+    @Test
+    public void testBehavesLikeAHashMap() {
+        RowMap row = new RowMap(COLUMNS, new Object[] {1L, null});
+        HashMap<String, Object> m = new HashMap<String, Object>();
+        m.put("id", 1L);
+        m.put("name", null);
+
+        assertEquals(2, COLUMNS.size());
+        assertEquals(3, COLUMNS.getResultColumnCount());
+        assertEquals(0, COLUMNS.getSlot(2));
+        assertEquals(0, COLUMNS.getColumn(0));
+        assertEquals(1, COLUMNS.getColumn(1));
+        assertEquals(m, row);
+        assertEquals(row, m);
+        assertEquals(m.hashCode(), row.hashCode());
+        assertTrue(row.containsKey("name"));
+        assertNull(row.get("missing"));
+
+        row.put("note", "extra");
+        m.put("note", "extra");
+        row.remove("name");
+        m.remove("name");
+        assertEquals(m, row);
+        assertEquals(2, row.size());
+        assertFalse(row.containsKey("name"));
+        assertEquals(Arrays.asList("id", "note"), new ArrayList<String>(row.keySet()));
+    }
+
+    @Test
+    public void testResultsDataCopiesForeignRows() {
+        ResultsData rd = new ResultsData(COLUMNS);
+        RowMap own = new RowMap(COLUMNS, new Object[] {1L, "one"});
+        rd.add(own);
+        HashMap<String, Object> m = new HashMap<String, Object>();
+        m.put("id", 2L);
+        rd.add(m);
+
+        assertSame(own, rd.get(0));
+        assertSame(COLUMNS, rd.get(1).getColumnIndex());
+        assertEquals(m, rd.get(1));
+
+        Iterator<Map<String, Object>> it = rd.iterator();
+        it.next();
+        it.remove();
+        assertEquals(1, rd.size());
+        assertEquals(2L, rd.get(0).get("id"));
+    }
+
+    @Test
+    public void testResultsDataIsADeque() {
+        Deque<Map<String, Object>> rd = new ResultsData(COLUMNS);
+        assertNull(rd.poll());
+        assertNull(rd.peekLast());
+
+        rd.addLast(new RowMap(COLUMNS, new Object[] {2L, "two"}));
+        rd.push(new RowMap(COLUMNS, new Object[] {1L, "one"}));
+        rd.offer(new RowMap(COLUMNS, new Object[] {3L, "three"}));
+
+        assertEquals(1L, rd.getFirst().get("id"));
+        assertEquals(3L, rd.peekLast().get("id"));
+        Iterator<Map<String, Object>> it = rd.descendingIterator();
+        assertEquals(3L, it.next().get("id"));
+        assertEquals(2L, it.next().get("id"));
+        it.remove();
+
+        assertEquals(1L, rd.pop().get("id"));
+        assertEquals(3L, rd.removeLast().get("id"));
+        assertTrue(rd.isEmpty());
+        try {
+            rd.remove();
+            fail("Expected an empty deque to have nothing to remove");
+        }
+        catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A join giving id twice keeps the first, as getObject("id") would
+     */
+    @Test
+    public void testRepeatedColumnReadsFirst() throws SQLException {
+        final Object[] values = {1L, "one", 2L};
+        ResultSet rs = (ResultSet)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ResultSet.class, ResultSetMetaData.class}, new InvocationHandler() {
+            int position = 0;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getMetaData")) {
+                    return proxy;
+                }
+                if (name.equals("getColumnCount")) {
+                    return 3;
+                }
+                if (name.equals("getColumnName")) {
+                    return new String[] {"id", "name", "id"}[(Integer)args[0] - 1];
+                }
+                if (name.equals("next")) {
+                    return ++position <= 1;
+                }
+                if (name.equals("getObject")) {
+                    return values[(Integer)args[0] - 1];
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+
+        ResultsData rd = new ResultsData(COLUMNS);
+        rd.read(rs);
+        assertEquals(1, rd.size());
+        assertEquals(1L, rd.get(0).get("id"));
+        assertEquals("one", rd.get(0).get("name"));
+        assertEquals(2, rd.get(0).size());
+    }
+}
@@ -20,6 +20,7 @@ package com.plexq.hermes;
 import org.apache.log4j.*;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.text.*;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -65,13 +66,11 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 	protected TreeMap<Integer, Integer> parameterPositionMapMap = new TreeMap<Integer, Integer>();
 
 	/**
-	 * Which letter we are currently using for table handles
+	 * How many table handles have been handed out, by every builder.  Handles are unique across
+	 * builders so a subquery from another builder doesn't hide the tables of the query it goes in,
+	 * and are taken from this without locking so builders on different threads don't wait on each other.
 	 */
-	protected static int tableIndex = 65;
-	/**
-	 * Which letter we are using as a prefix for table handles
-	 */
-	protected static String tableIndexPrefix = "A";
+	protected static final AtomicInteger tableIndex = new AtomicInteger();
 	/**
 	 * Are we in debug mode
 	 */
@@ -103,9 +102,10 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 	protected String dateFormat = "MM/DD/YYYY";
 
 	/**
-	 * Integer token that will be assigned to arguments for the preparedStatement
+	 * Integer token that will be assigned to arguments for the preparedStatement.  Tokens only mean
+	 * anything to the builder that gave them out.
 	 */
-	protected static int tokenCounter = 0;
+	protected int tokenCounter = 0;
 
 	/**
 	 * Reserved two letter words
@@ -143,27 +143,19 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 	public String addTable(String inTableName) {
 		inTableName = inTableName.toLowerCase();
 		if (!tables.containsKey(inTableName)) {
-			tables.put(inTableName, tableIndexPrefix + (char) tableIndex);
+			// The handles are shared by every builder, so other threads can take them all and come
+			// round again between two tables of ours
+			String handle = nextTableHandle();
+			for (int t = 0; tables.containsValue(handle); t++) {
+				if (t >= 26 * 26) {
+					throw new IllegalStateException("No table handles left for " + inTableName);
+				}
+				handle = nextTableHandle();
+			}
+			tables.put(inTableName, handle);
 			if (debug) {
 				log.debug("Adding table " + inTableName);
 			}
-			// Loop around
-			tableIndex++;
-			// Do this to avoid building a query select AS.* from table AS
-
-			String s = tableIndexPrefix + (char) tableIndex;
-			while (reserved.contains(s)) {
-				tableIndex++;
-				s = tableIndexPrefix + (char) tableIndex;
-			}
-
-			if (tableIndex > 90) {
-				tableIndexPrefix = "" + (char) (tableIndexPrefix.charAt(0) + 1);
-				if (tableIndexPrefix.charAt(0) > 90) {
-					tableIndexPrefix = "A";
-				}
-				tableIndex = 65;
-			}
 		}
 		return tables.get(inTableName);
 	}
@@ -900,6 +892,12 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 		directJoins.add(jd);
 	}
 
+	/**
+	 * Prepare the query and bind its parameters.  The statement comes from the connection's
+	 * StatementCache, so building the same query again reuses it rather than preparing it afresh.
+	 * Close it when finished with its results to hand it back; until then the same query gets a
+	 * statement of its own.
+	 */
 	public PreparedStatement getPreparedStatement(Connection db) throws java.sql.SQLException {
 		ArrayList<Object> a = getQueryStringBare();
 
@@ -908,7 +906,7 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 
 		}
 
-		PreparedStatement pstmt = db.prepareStatement((String) a.get(0));
+		PreparedStatement pstmt = StatementCache.prepare(db, (String) a.get(0));
 
 		for (int t = 1; t < a.size(); t++) {
 			if (debug) {
@@ -920,6 +918,15 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 		return pstmt;
 	}
 
+	/**
+	 * Build the query and note where each token's parameter went, so it can be run again by binding
+	 * new values to the template instead of building the query again.
+	 */
+	public QueryTemplate compile() {
+		ArrayList<Object> a = getQueryStringBare();
+		return new QueryTemplate((String) a.get(0), a.subList(1, a.size()), parameterPositionMapMap);
+	}
+
 	public String getQueryString() {
 		ArrayList<Object> a = getQueryStringBare();
 
@@ -1013,11 +1020,25 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 	}
 
 	public void resetTableIndex() {
-		tableIndex = 65;
-		tableIndexPrefix = "A";
+		tableIndex.set(0);
 		log.warn("Resetting table index on QueryBuilder");
 	}
 
+	/**
+	 * Hand out the next table handle, from AA to ZZ and then round again, so a builder has to check
+	 * it hasn't already got the one it's given
+	 */
+	protected static String nextTableHandle() {
+		while (true) {
+			int n = (tableIndex.getAndIncrement() & Integer.MAX_VALUE) % (26 * 26);
+			String s = "" + (char) ('A' + n / 26) + (char) ('A' + n % 26);
+			// Do this to avoid building a query select AS.* from table AS
+			if (!reserved.contains(s)) {
+				return s;
+			}
+		}
+	}
+
 	public static void concatenate(ArrayList<Object> a, Object[] o) {
 		a.addAll(Arrays.asList(o));
 	}
@@ -1055,7 +1076,8 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 			query.append(",");
 		}
 
-		return new StringBuffer(query.substring(0, query.length() - 1));
+		query.setLength(query.length() - 1);
+		return query;
 	}
 
 	protected StringBuffer appendTablesString(StringBuffer query) {
@@ -1133,7 +1155,8 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 			}
 		}
 
-		return new StringBuffer(query.substring(0, query.length() - 1));
+		query.setLength(query.length() - 1);
+		return query;
 	}
 
 	protected StringBuffer appendWhereString(StringBuffer query, ArrayList<Object> paramObjects, Integer position) {
@@ -1192,7 +1215,7 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 					}
 				}
 
-				query = new StringBuffer(query.substring(0, query.length() - (op.length() + 2)));
+				query.setLength(query.length() - (op.length() + 2));
 			}
 
 			// and ins
@@ -1222,7 +1245,7 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 					}
 				}
 
-				query = new StringBuffer(query.substring(0, query.length() - (op.length() + 2)));
+				query.setLength(query.length() - (op.length() + 2));
 			}
 
 			if (!where.isEmpty() || !tableIn.isEmpty()) {
@@ -1242,7 +1265,7 @@ public abstract class SQL99QueryBuilder implements QueryBuilder {
 				query.append(s);
 				query.append(",");
 			}
-			query = new StringBuffer(query.substring(0, query.length() - 1));
+			query.setLength(query.length() - 1);
 		}
 
 		return query;
@@ -0,0 +1,165 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SQL99QueryBuilderTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(SQL99QueryBuilderTest.class);
+    }
+
+    private static final int THREADS = 8;
+
+    /**
+     * There are 26 * 26 handles less the reserved words before they go round again
+     */
+    private static final int HANDLES = 26 * 26 - 12;
+
+    /**
+     * Build queries on several threads at once, each with a few tables and parameters, and check no
+     * query was given the same handle twice and every query came out as it would on its own.  Far more
+     * handles are handed out than there are, so they go round many times while the queries are built.
+     */
+    @Test
+    public void testConcurrentBuilders() throws Exception {
+        final int queriesPerThread = 500;
+        final int tablesPerQuery = 8;
+        final AtomicInteger handles = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        new PostgresqlQueryBuilder().resetTableIndex();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int q = 0; q < queriesPerThread; q++) {
+                            QueryBuilder qb = new PostgresqlQueryBuilder();
+                            List<String> mine = new ArrayList<String>();
+                            List<Integer> tokens = new ArrayList<Integer>();
+                            for (int i = 0; i < tablesPerQuery; i++) {
+                                String handle = qb.addTable("t" + i);
+                                mine.add(handle);
+                                qb.addColumn(handle, "id");
+                                tokens.add(qb.addWhere(handle, "id", "=", i));
+                                if (handle.length() != 2 || SQL99QueryBuilder.reserved.contains(handle)) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                            handles.addAndGet(mine.size());
+                            if (new HashSet<String>(mine).size() != mine.size()) {
+                                failures.incrementAndGet();
+                            }
+
+                            // Tokens are this builder's own, so they are always the same
+                            for (int i = 0; i < tablesPerQuery; i++) {
+                                if (tokens.get(i) != i) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                            ArrayList<Object> a = qb.getQueryStringBare();
+                            String sql = (String)a.get(0);
+                            for (int i = 0; i < tablesPerQuery; i++) {
+                                if (!sql.contains("t" + i + " " + mine.get(i)) || !a.get(qb.getParameterPosition(tokens.get(i))).equals(i)) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(THREADS * queriesPerThread * tablesPerQuery, handles.get());
+        assertTrue(handles.get() > 10 * HANDLES);
+    }
+
+    /**
+     * Every other handle taken between two tables of one builder, as busy threads could, brings the
+     * next one round to the builder's first
+     */
+    @Test
+    public void testHandlesGoingRound() {
+        new PostgresqlQueryBuilder().resetTableIndex();
+        QueryBuilder qb = new PostgresqlQueryBuilder();
+        String first = qb.addTable("first");
+        for (int t = 1; t < HANDLES; t++) {
+            SQL99QueryBuilder.nextTableHandle();
+        }
+        String second = qb.addTable("second");
+        assertFalse(first.equals(second));
+    }
+
+    @Test
+    public void testCompiledTemplate() {
+        QueryBuilder qb = new PostgresqlQueryBuilder();
+        String person = qb.addTable("person");
+        qb.addColumn(person, "name");
+        Integer age = qb.addWhere(person, "age", ">", 0);
+        Integer[] types = qb.addIn(person, "type_id", Arrays.<Object>asList(1, 2));
+        qb.addOrder(person, "name", "asc");
+
+        QueryTemplate template = qb.compile();
+        assertEquals(qb.getQueryStringBare(), template.getQueryStringBare());
+        assertEquals(3, template.getParameterCount());
+
+        Map<Integer, Object> values = new HashMap<Integer, Object>();
+        values.put(age, 21);
+        values.put(types[1], 5);
+        ArrayList<Object> a = template.bind(values);
+        assertEquals(template.getSql(), a.get(0));
+        assertEquals(21, a.get(template.getParameterPosition(age)));
+        assertEquals(1, a.get(template.getParameterPosition(types[0])));
+        assertEquals(5, a.get(template.getParameterPosition(types[1])));
+
+        // Changing the builder afterwards leaves the template as it was
+        qb.addWhere(person, "name", "=", "someone");
+        assertFalse(qb.getQueryStringBare().get(0).equals(template.getSql()));
+        assertEquals(3, template.getParameterCount());
+
+        try {
+            values.put(-1, "nothing");
+            template.bind(values);
+            fail("Expected an unknown token to be refused");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
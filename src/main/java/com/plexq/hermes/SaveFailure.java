@@ -0,0 +1,41 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.sql.SQLException;
+
+/**
+ * A row that TableRepresentation.saveAll couldn't save, and why
+ */
+public class SaveFailure {
+    private TableRepresentation tableRepresentation;
+    private SQLException exception;
+
+    public SaveFailure(TableRepresentation tableRepresentation, SQLException exception) {
+        this.tableRepresentation = tableRepresentation;
+        this.exception = exception;
+    }
+
+    public TableRepresentation getTableRepresentation() {
+        return tableRepresentation;
+    }
+
+    public SQLException getException() {
+        return exception;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * The metadata for every table in a schema, read in bulk.  Rather than a handful of DatabaseMetaData
+ * calls per table, this makes one call each for the columns, primary keys, foreign keys and indexes of
+ * the whole schema and sorts the rows out by table in memory.  Not every driver will list keys or
+ * indexes without a table name, so if one of those bulk calls fails or comes back empty we fall back to
+ * asking table by table for that one.
+ * <p/>
+ * Tables with a column type we don't support are left out, so asking TableMetadata for them directly
+ * still gives the usual error.
+ */
+public class SchemaMetadata {
+    private static Logger log = Logger.getLogger(SchemaMetadata.class);
+
+    private String schema;
+
+    /**
+     * Tables in the order the database lists them
+     */
+    private LinkedHashMap<String, TableMetadata> tables = new LinkedHashMap<String, TableMetadata>();
+
+    public SchemaMetadata(String schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Read the metadata for a schema
+     * @param db a database connection
+     * @param schema the schema, or null for every schema the connection can see
+     */
+    public static SchemaMetadata fetch(Connection db, String schema) throws SQLException {
+        SchemaMetadata sm = new SchemaMetadata(schema);
+        DatabaseMetaData dmd = db.getMetaData();
+
+        long start = System.currentTimeMillis();
+        sm.readColumns(dmd);
+        sm.readPrimaryKeys(dmd);
+        sm.readForeignKeys(dmd);
+        sm.readIndexes(dmd);
+        log.info("Read metadata for " + sm.tables.size() + " tables in " + (System.currentTimeMillis() - start) + "ms");
+
+        return sm;
+    }
+
+    private void readColumns(DatabaseMetaData dmd) throws SQLException {
+        Set<String> unsupported = new HashSet<String>();
+
+        ResultSet rs = dmd.getColumns(null, schema, null, null);
+        while (rs.next()) {
+            String tableName = rs.getString(3);
+            if (unsupported.contains(tableName)) {
+                continue;
+            }
+            TableMetadata tm = tables.get(tableName);
+            if (tm == null) {
+                tm = new TableMetadata();
+                tables.put(tableName, tm);
+            }
+            try {
+                tm.addColumn(rs.getString(4), Guidance.fromColumnRow(rs));
+            }
+            catch (RuntimeException re) {
+                log.warn("Leaving out " + tableName + ": " + re.getMessage());
+                unsupported.add(tableName);
+                tables.remove(tableName);
+            }
+        }
+        rs.close();
+    }
+
+    private void readPrimaryKeys(DatabaseMetaData dmd) throws SQLException {
+        if (!tables.isEmpty()) {
+            try {
+                if (readPrimaryKeys(dmd.getPrimaryKeys(null, schema, null))) {
+                    return;
+                }
+            }
+            catch (SQLException se) {
+                log.debug("No bulk primary keys, reading them table by table: " + se.getMessage());
+            }
+        }
+        for (String tableName : tables.keySet()) {
+            readPrimaryKeys(dmd.getPrimaryKeys(null, schema, tableName));
+        }
+    }
+
+    /**
+     * @return true if there were any rows
+     */
+    private boolean readPrimaryKeys(ResultSet rs) throws SQLException {
+        boolean any = false;
+        while (rs.next()) {
+            any = true;
+            TableMetadata tm = tables.get(rs.getString(3));
+            if (tm != null) {
+                tm.getPrimaryKeys().add(rs.getString(4));
+            }
+        }
+        rs.close();
+        return any;
+    }
+
+    private void readForeignKeys(DatabaseMetaData dmd) throws SQLException {
+        if (!tables.isEmpty()) {
+            try {
+                if (readForeignKeys(dmd.getImportedKeys(null, schema, null))) {
+                    return;
+                }
+            }
+            catch (SQLException se) {
+                log.debug("No bulk foreign keys, reading them table by table: " + se.getMessage());
+            }
+        }
+        for (String tableName : tables.keySet()) {
+            readForeignKeys(dmd.getImportedKeys(null, schema, tableName));
+        }
+    }
+
+    private boolean readForeignKeys(ResultSet rs) throws SQLException {
+        boolean any = false;
+        while (rs.next()) {
+            any = true;
+            TableMetadata tm = tables.get(rs.getString(7));
+            if (tm != null) {
+                tm.addForeignKey(rs);
+            }
+        }
+        rs.close();
+        return any;
+    }
+
+    private void readIndexes(DatabaseMetaData dmd) throws SQLException {
+        Map<String, Map<String, IndexRepresentation>> indexes = new HashMap<String, Map<String, IndexRepresentation>>();
+
+        boolean bulk = false;
+        if (!tables.isEmpty()) {
+            try {
+                bulk = readIndexes(dmd.getIndexInfo(null, schema, null, false, true), indexes);
+            }
+            catch (SQLException se) {
+                log.debug("No bulk indexes, reading them table by table: " + se.getMessage());
+            }
+        }
+        if (!bulk) {
+            indexes.clear();
+            for (String tableName : tables.keySet()) {
+                readIndexes(dmd.getIndexInfo(null, schema, tableName, false, true), indexes);
+            }
+        }
+
+        for (Map.Entry<String, TableMetadata> e : tables.entrySet()) {
+            Map<String, IndexRepresentation> tableIndexes = indexes.get(e.getKey());
+            if (tableIndexes != null) {
+                e.getValue().setIndices(tableIndexes);
+            }
+        }
+    }
+
+    private boolean readIndexes(ResultSet rs, Map<String, Map<String, IndexRepresentation>> indexes) throws SQLException {
+        boolean any = false;
+        while (rs.next()) {
+            any = true;
+            String tableName = rs.getString(3);
+            if (!tables.containsKey(tableName)) {
+                continue;
+            }
+            Map<String, IndexRepresentation> tableIndexes = indexes.get(tableName);
+            if (tableIndexes == null) {
+                tableIndexes = new TreeMap<String, IndexRepresentation>();
+                indexes.put(tableName, tableIndexes);
+            }
+            TableMetadata.readIndexRow(rs, tableIndexes);
+        }
+        rs.close();
+        return any;
+    }
+
+    /**
+     * Put every table in TableMetadata's cache, so TableRepresentations made afterwards don't go back
+     * to the database for their metadata.  They look tables up without a schema, so each goes in under
+     * no schema as well as its own.
+     * @param db a connection to the same data source the metadata came from
+     */
+    public void preload(Connection db) throws SQLException {
+        for (Map.Entry<String, TableMetadata> e : tables.entrySet()) {
+            TableMetadata.putMetadata(db, null, e.getKey(), e.getValue());
+            if (schema != null) {
+                TableMetadata.putMetadata(db, schema, e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public Map<String, TableMetadata> getTables() {
+        return tables;
+    }
+
+    public TableMetadata getTable(String tableName) {
+        return tables.get(tableName);
+    }
+}
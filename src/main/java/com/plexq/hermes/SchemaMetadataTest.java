@@ -0,0 +1,112 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SchemaMetadataTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(SchemaMetadataTest.class);
+    }
+
+    private static Map<Integer, Object> column(String table, String name, int type, String nullable) {
+        return FakeCatalog.row(3, table, 4, name, 5, type, 6, "", 7, 0, 8, 0, 9, 0, 18, nullable);
+    }
+
+    private static FakeCatalog catalog() {
+        FakeCatalog c = new FakeCatalog();
+        c.rows.put("getColumns", Arrays.asList(
+                column("Customer", "id", Types.BIGINT, "NO"),
+                column("Customer", "name", Types.VARCHAR, "YES"),
+                column("Orders", "id", Types.BIGINT, "NO"),
+                column("Orders", "customerId", Types.BIGINT, "NO"),
+                column("Orders", "placed", Types.TIMESTAMP, "YES"),
+                column("Odd", "id", Types.INTEGER, "NO"),
+                column("Odd", "shape", Types.STRUCT, "YES")));
+        c.rows.put("getPrimaryKeys", Arrays.asList(
+                FakeCatalog.row(3, "Customer", 4, "id"),
+                FakeCatalog.row(3, "Orders", 4, "id"),
+                FakeCatalog.row(3, "Odd", 4, "id")));
+        c.rows.put("getImportedKeys", Arrays.asList(
+                FakeCatalog.row(3, "Customer", 4, "id", 7, "Orders", 8, "customerId", 11, (short)DatabaseMetaData.importedKeyCascade)));
+        c.rows.put("getIndexInfo", Arrays.asList(
+                FakeCatalog.row(3, "Orders", 4, false, 6, "PK_Orders", 9, "id"),
+                FakeCatalog.row(3, "Orders", 4, true, 6, "IX_Orders_Customer", 9, "customerId"),
+                FakeCatalog.row(3, "Orders", 4, true, 6, "IX_Orders_Customer", 9, "placed"),
+                FakeCatalog.row(3, "Orders", 4, false, 6, null, 9, null)));
+        return c;
+    }
+
+    @Test
+    public void testOneCallEach() throws SQLException {
+        FakeCatalog c = catalog();
+        SchemaMetadata sm = SchemaMetadata.fetch(c.connection(), "dbo");
+
+        assertEquals(Integer.valueOf(1), c.calls.get("getColumns"));
+        assertEquals(Integer.valueOf(1), c.calls.get("getPrimaryKeys"));
+        assertEquals(Integer.valueOf(1), c.calls.get("getImportedKeys"));
+        assertEquals(Integer.valueOf(1), c.calls.get("getIndexInfo"));
+        checkModel(sm);
+    }
+
+    @Test
+    public void testFallsBackTableByTable() throws SQLException {
+        FakeCatalog c = catalog();
+        c.tableRequired = true;
+        SchemaMetadata sm = SchemaMetadata.fetch(c.connection(), "dbo");
+
+        // The failed bulk call, then one for each of the two tables
+        assertEquals(Integer.valueOf(3), c.calls.get("getPrimaryKeys"));
+        assertEquals(Integer.valueOf(3), c.calls.get("getIndexInfo"));
+        checkModel(sm);
+    }
+
+    private void checkModel(SchemaMetadata sm) {
+        // Odd has a type we can't map, so it's left out for TableMetadata to complain about
+        assertEquals(Arrays.asList("Customer", "Orders"), new ArrayList<String>(sm.getTables().keySet()));
+
+        TableMetadata orders = sm.getTable("Orders");
+        assertEquals(Arrays.asList("id", "customerId", "placed"), orders.getColumnsInOrder());
+        assertEquals(Arrays.asList("id"), orders.getPrimaryKeys());
+        assertTrue(orders.hasLongOrIntId());
+        assertEquals(java.sql.Timestamp.class, orders.getColumnTypes().get("placed"));
+        assertEquals(3, orders.getTableGuidance().get("placed").getFieldPosition());
+        assertFalse(orders.getTableGuidance().get("customerId").isNullable());
+
+        ForeignKey fk = orders.getTableGuidance().get("customerId").getForeignKey();
+        assertEquals("Customer", fk.getTableName());
+        assertEquals("id", fk.getColumnName());
+        assertEquals(ForeignKey.CASCADE, fk.getDeleteAction());
+        assertNull(orders.getTableGuidance().get("placed").getForeignKey());
+
+        // The primary key's index is left out
+        assertEquals(1, orders.getIndices().size());
+        IndexRepresentation ir = orders.getIndices().get(0);
+        assertEquals("Orders_customerId_placedi", ir.getName());
+        assertEquals(Arrays.asList("customerId", "placed"), ir.getColumns());
+        assertFalse(ir.isUnique());
+
+        assertTrue(sm.getTable("Customer").getIndices().isEmpty());
+    }
+}
@@ -0,0 +1,330 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The metadata for a set of tables saved to a file, so the code generators can be run again without
+ * introspecting the database, or without the database at all.
+ * <p/>
+ * The file is gzipped and written field by field rather than with Java serialization, so it doesn't
+ * tie the metadata classes to a serialized form, and a change of layout is caught by the version
+ * number.  Along with the tables it keeps a fingerprint of the schema's catalog - a digest of every
+ * column's name, type, size and nullability, plus the database version - which takes a single
+ * getColumns() call to work out again.  If it still matches, the snapshot is current.  Keys and indexes
+ * aren't part of the fingerprint, so a schema change that only touches those needs a refresh by hand.
+ *
+ * @author plexq
+ */
+public class SchemaSnapshot {
+    private static final int MAGIC = 0x48534e50;
+    private static final int VERSION = 2;
+
+    private String schema;
+    private String fingerprint;
+    private long created;
+
+    /**
+     * Tables in the order they were given
+     */
+    private LinkedHashMap<String, TableMetadata> tables = new LinkedHashMap<String, TableMetadata>();
+
+    public SchemaSnapshot(String schema, String fingerprint) {
+        this.schema = schema;
+        this.fingerprint = fingerprint;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * Snapshot the tables we have just read
+     * @param db a connection to the database they came from, to take the fingerprint
+     * @param schema the schema they are in
+     * @param trs the tables
+     */
+    public static SchemaSnapshot fromTables(Connection db, String schema, List<TableRepresentation> trs) throws SQLException {
+        SchemaSnapshot ss = new SchemaSnapshot(schema, fingerprint(db, schema));
+        for (TableRepresentation tr : trs) {
+            ss.tables.put(tr.getTableName(), tr.getMetaData());
+        }
+        return ss;
+    }
+
+    /**
+     * Work out the fingerprint for a schema as it is in the database now
+     */
+    public static String fingerprint(Connection db, String schema) throws SQLException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        DatabaseMetaData dmd = db.getMetaData();
+        update(md, dmd.getDatabaseProductName());
+        update(md, dmd.getDatabaseProductVersion());
+
+        ResultSet rs = dmd.getColumns(null, schema, null, null);
+        while (rs.next()) {
+            update(md, rs.getString(3));
+            update(md, rs.getString(4));
+            update(md, String.valueOf(rs.getInt(5)));
+            update(md, rs.getString(6));
+            update(md, String.valueOf(rs.getInt(7)));
+            update(md, String.valueOf(rs.getInt(9)));
+            update(md, rs.getString(18));
+        }
+        rs.close();
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest md, String s) {
+        try {
+            md.update(String.valueOf(s).getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        md.update((byte)0);
+    }
+
+    /**
+     * @return true if the schema hasn't changed since this snapshot was taken
+     */
+    public boolean isCurrent(Connection db) throws SQLException {
+        return fingerprint.equals(fingerprint(db, schema));
+    }
+
+    /**
+     * TableRepresentations for every table in the snapshot, in order, for handing to a TableBuilder
+     */
+    public List<TableRepresentation> getTableRepresentations() {
+        List<TableRepresentation> trs = new ArrayList<TableRepresentation>();
+        for (Map.Entry<String, TableMetadata> e : tables.entrySet()) {
+            trs.add(new TableRepresentation(e.getKey(), e.getValue()));
+        }
+        return trs;
+    }
+
+    public void save(File f) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+        try {
+            write(out);
+        }
+        finally {
+            out.close();
+        }
+        // Don't leave a half written snapshot where the next run will find it
+        if (f.exists() && !f.delete()) {
+            throw new IOException("Could not replace " + f);
+        }
+        if (!tmp.renameTo(f)) {
+            throw new IOException("Could not rename " + tmp + " to " + f);
+        }
+    }
+
+    public static SchemaSnapshot load(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
+        try {
+            return read(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, schema);
+        out.writeUTF(fingerprint);
+        out.writeLong(created);
+
+        out.writeInt(tables.size());
+        for (Map.Entry<String, TableMetadata> e : tables.entrySet()) {
+            TableMetadata tm = e.getValue();
+            out.writeUTF(e.getKey());
+
+            writeStrings(out, tm.getPrimaryKeys());
+
+            out.writeInt(tm.getColumnsInOrder().size());
+            for (String column : tm.getColumnsInOrder()) {
+                out.writeUTF(column);
+                writeGuidance(out, tm.getTableGuidance().get(column));
+            }
+
+            out.writeInt(tm.getIndices().size());
+            for (IndexRepresentation ir : tm.getIndices()) {
+                writeString(out, ir.getName());
+                writeString(out, ir.getTableName());
+                writeString(out, ir.getSchemaName());
+                out.writeBoolean(ir.isUnique());
+                writeString(out, ir.getFilterCondition());
+                writeStrings(out, ir.getColumns());
+            }
+        }
+    }
+
+    public static SchemaSnapshot read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a schema snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Schema snapshot version " + version + " is not supported, it needs to be taken again");
+        }
+
+        SchemaSnapshot ss = new SchemaSnapshot(readString(in), in.readUTF());
+        ss.created = in.readLong();
+
+        int tableCount = in.readInt();
+        for (int t = 0; t < tableCount; t++) {
+            String tableName = in.readUTF();
+            TableMetadata tm = new TableMetadata();
+
+            tm.getPrimaryKeys().addAll(readStrings(in));
+
+            int columnCount = in.readInt();
+            for (int c = 0; c < columnCount; c++) {
+                String column = in.readUTF();
+                tm.addColumn(column, readGuidance(in));
+            }
+
+            int indexCount = in.readInt();
+            for (int i = 0; i < indexCount; i++) {
+                IndexRepresentation ir = new IndexRepresentation();
+                ir.setName(readString(in));
+                ir.setTableName(readString(in));
+                ir.setSchemaName(readString(in));
+                ir.setUnique(in.readBoolean());
+                ir.setFilterCondition(readString(in));
+                ir.setColumns(readStrings(in));
+                tm.getIndices().add(ir);
+            }
+
+            ss.tables.put(tableName, tm);
+        }
+        return ss;
+    }
+
+    private static void writeGuidance(DataOutputStream out, Guidance g) throws IOException {
+        out.writeInt(g.getJavaSQLType());
+        writeString(out, g.getNativeTypeName());
+        out.writeInt(g.getPrecision());
+        out.writeInt(g.getPrecisionB());
+        out.writeBoolean(g.isNullable());
+        writeString(out, g.getDefaultValue());
+        out.writeBoolean(g.hasTimeZone());
+        out.writeBoolean(g.isTypeChar());
+        out.writeBoolean(g.isIndex());
+        out.writeBoolean(g.isAutoIncrement());
+
+        ForeignKey fk = g.getForeignKey();
+        out.writeBoolean(fk != null);
+        if (fk != null) {
+            writeString(out, fk.getTableName());
+            writeString(out, fk.getColumnName());
+            writeString(out, fk.getDeleteAction());
+        }
+    }
+
+    private static Guidance readGuidance(DataInputStream in) throws IOException {
+        Guidance g = new Guidance();
+        g.setJavaSQLType(in.readInt());
+        g.setNativeTypeName(readString(in));
+        g.setPrecision(in.readInt(), in.readInt());
+        g.setNullable(in.readBoolean());
+        g.setDefaultValue(readString(in));
+        g.setTimeZone(in.readBoolean());
+        g.setTypeChar(in.readBoolean());
+        g.setIndex(in.readBoolean());
+        g.setAutoIncrement(in.readBoolean());
+
+        if (in.readBoolean()) {
+            ForeignKey fk = new ForeignKey();
+            fk.setTableName(readString(in));
+            fk.setColumnName(readString(in));
+            fk.setDeleteAction(readString(in));
+            g.setForeignKey(fk);
+        }
+        return g;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> l) throws IOException {
+        out.writeInt(l.size());
+        for (String s : l) {
+            writeString(out, s);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<String> l = new ArrayList<String>(n);
+        for (int t = 0; t < n; t++) {
+            l.add(readString(in));
+        }
+        return l;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public Map<String, TableMetadata> getTables() {
+        return tables;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SchemaSnapshotTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(SchemaSnapshotTest.class);
+    }
+
+    private static Map<Integer, Object> column(String table, String name, int type, String typeName, int size, String nullable) {
+        return FakeCatalog.row(3, table, 4, name, 5, type, 6, typeName, 7, size, 9, 0, 18, nullable);
+    }
+
+    /**
+     * A catalog that's just the getColumns() rows for Customer
+     */
+    private static FakeCatalog catalog() {
+        FakeCatalog c = new FakeCatalog();
+        c.add("getColumns", column("Customer", "id", Types.BIGINT, "int8", 19, "NO"));
+        c.add("getColumns", column("Customer", "name", Types.VARCHAR, "varchar", 80, "YES"));
+        return c;
+    }
+
+    private static TableRepresentation customer() {
+        TableMetadata tm = new TableMetadata();
+        tm.getPrimaryKeys().add("id");
+
+        Guidance id = new Guidance();
+        id.setJavaSQLType(Types.BIGINT);
+        id.setNativeTypeName("int8");
+        id.setNullable(false);
+        id.setDefaultValue("nextval('customer_id_seq'::regclass)");
+        tm.addColumn("id", id);
+
+        Guidance name = new Guidance();
+        name.setJavaSQLType(Types.VARCHAR);
+        name.setNativeTypeName("varchar");
+        name.setPrecision(80);
+        tm.addColumn("name", name);
+
+        Guidance parent = new Guidance();
+        parent.setJavaSQLType(Types.BIGINT);
+        ForeignKey fk = new ForeignKey();
+        fk.setTableName("Customer");
+        fk.setColumnName("id");
+        fk.setDeleteAction(ForeignKey.CASCADE);
+        parent.setForeignKey(fk);
+        tm.addColumn("parentId", parent);
+
+        IndexRepresentation ir = new IndexRepresentation();
+        ir.setName("Customer_namei");
+        ir.setTableName("Customer");
+        ir.setColumns(Arrays.asList("name"));
+        tm.getIndices().add(ir);
+
+        return new TableRepresentation("Customer", tm);
+    }
+
+    @Test
+    public void testRoundTrip() throws SQLException, IOException {
+        File f = File.createTempFile("snapshot", ".gz");
+        try {
+            SchemaSnapshot.fromTables(catalog().connection(), "public", Arrays.asList(customer())).save(f);
+            SchemaSnapshot ss = SchemaSnapshot.load(f);
+
+            assertEquals("public", ss.getSchema());
+            List<TableRepresentation> trs = ss.getTableRepresentations();
+            assertEquals(1, trs.size());
+            TableRepresentation tr = trs.get(0);
+            assertEquals("Customer", tr.getTableName());
+            assertArrayEquals(new String[] {"id"}, tr.getPrimaryKeys());
+            assertTrue(tr.hasLongOrIntId());
+
+            TableMetadata tm = tr.getMetaData();
+            assertEquals(Arrays.asList("id", "name", "parentId"), tm.getColumnsInOrder());
+            Guidance id = tm.getTableGuidance().get("id");
+            assertFalse(id.isNullable());
+            assertEquals("nextval('customer_id_seq'::regclass)", id.getDefaultValue());
+            assertEquals(80, tm.getTableGuidance().get("name").getPrecision());
+            assertEquals(3, tm.getTableGuidance().get("parentId").getFieldPosition());
+            assertEquals(ForeignKey.CASCADE, tm.getTableGuidance().get("parentId").getForeignKey().getDeleteAction());
+            assertNull(tm.getTableGuidance().get("name").getForeignKey());
+
+            assertEquals(1, tr.getIndices().size());
+            assertEquals("Customer_namei", tr.getIndices().get(0).getName());
+            assertNull(tr.getIndices().get(0).getFilterCondition());
+        }
+        finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testStaleness() throws SQLException {
+        FakeCatalog c = catalog();
+        SchemaSnapshot ss = SchemaSnapshot.fromTables(c.connection(), "public", Arrays.asList(customer()));
+        assertTrue(ss.isCurrent(catalog().connection()));
+
+        c.rows.get("getColumns").get(1).put(7, 120);
+        assertFalse(ss.isCurrent(c.connection()));
+    }
+}
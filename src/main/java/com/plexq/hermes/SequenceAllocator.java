@@ -0,0 +1,226 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Hands out values from a PostgreSQL sequence, fetching them a block at a time so that inserting new
+ * rows doesn't take a round trip each for its primary key.  A block is either blockSize values from
+ * generate_series in one query, or, for a sequence created with INCREMENT BY n and given to
+ * setIncrementBy, the n values starting at a single nextval.
+ * <p/>
+ * Taking a value from the current block is lock free, so any number of threads can share an allocator;
+ * only fetching the next block is synchronized.  Values left in a block when the program ends are never
+ * used, so the keys this gives out have gaps, as sequence values can anyway.
+ * <p/>
+ * There is one allocator for each sequence in each data source, from getAllocator.
+ */
+public class SequenceAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 50;
+
+    private static final Pattern NEXTVAL = Pattern.compile("nextval\\('([^']+)'");
+
+    private static ConcurrentMap<String, SequenceAllocator> allocators = new ConcurrentHashMap<String, SequenceAllocator>();
+
+    private static volatile int defaultBlockSize = DEFAULT_BLOCK_SIZE;
+
+    private String sequence;
+    private volatile int blockSize;
+    private volatile int incrementBy = 1;
+
+    private AtomicReference<Block> current = new AtomicReference<Block>();
+
+    private AtomicInteger blocksFetched = new AtomicInteger();
+
+    public SequenceAllocator(String sequence, int blockSize) {
+        this.sequence = sequence;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * The allocator for a sequence, made with the default block size the first time it's asked for
+     * @param db a connection to the data source the sequence is in
+     * @param sequence the sequence name, as nextval() wants it
+     */
+    public static SequenceAllocator getAllocator(Connection db, String sequence) throws SQLException {
+        String key = MetadataCache.getDataSourceKey(db) + "|" + sequence;
+        SequenceAllocator sa = allocators.get(key);
+        if (sa == null) {
+            SequenceAllocator created = new SequenceAllocator(sequence, defaultBlockSize);
+            sa = allocators.putIfAbsent(key, created);
+            if (sa == null) {
+                sa = created;
+            }
+        }
+        return sa;
+    }
+
+    /**
+     * Forget every allocator, and the values they still had
+     */
+    public static void clear() {
+        allocators.clear();
+    }
+
+    /**
+     * Find the sequence behind a column from its default, which for a serial column is like
+     * nextval('customer_id_seq'::regclass)
+     * @return the sequence name, or null if the default doesn't take a value from one
+     */
+    public static String parseSequenceName(String defaultValue) {
+        if (defaultValue == null) {
+            return null;
+        }
+        Matcher m = NEXTVAL.matcher(defaultValue);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /**
+     * The next value, fetching another block on the given connection if this one is used up
+     */
+    public long next(Connection db) throws SQLException {
+        while (true) {
+            Block b = current.get();
+            if (b != null) {
+                int i = b.index.getAndIncrement();
+                if (i < b.values.length) {
+                    return b.values[i];
+                }
+            }
+            refill(db, b);
+        }
+    }
+
+    private synchronized void refill(Connection db, Block exhausted) throws SQLException {
+        // Another thread may have got here first
+        if (current.get() == exhausted) {
+            current.set(fetch(db));
+            blocksFetched.incrementAndGet();
+        }
+    }
+
+    private Block fetch(Connection db) throws SQLException {
+        long[] values;
+        if (incrementBy > 1) {
+            PreparedStatement ps = StatementCache.prepare(db, "select nextval('" + sequence + "')");
+            try {
+                ResultSet rs = ps.executeQuery();
+                rs.next();
+                long start = rs.getLong(1);
+                values = new long[incrementBy];
+                for (int t = 0; t < values.length; t++) {
+                    values[t] = start + t;
+                }
+            }
+            finally {
+                ps.close();
+            }
+        }
+        else {
+            PreparedStatement ps;
+            if (blockSize > 1) {
+                ps = StatementCache.prepare(db, "select nextval('" + sequence + "') from generate_series(1, ?)");
+                ps.setInt(1, blockSize);
+            }
+            else {
+                ps = StatementCache.prepare(db, "select nextval('" + sequence + "')");
+            }
+            try {
+                values = new long[Math.max(blockSize, 1)];
+                int n = 0;
+                ResultSet rs = ps.executeQuery();
+                while (rs.next() && n < values.length) {
+                    values[n++] = rs.getLong(1);
+                }
+                if (n < values.length) {
+                    long[] fewer = new long[n];
+                    System.arraycopy(values, 0, fewer, 0, n);
+                    values = fewer;
+                }
+            }
+            finally {
+                ps.close();
+            }
+        }
+        if (values.length == 0) {
+            throw new PersistenceException("Sequence " + sequence + " gave no values");
+        }
+        return new Block(values);
+    }
+
+    public String getSequence() {
+        return sequence;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * How many values to fetch from generate_series at a time; 1 fetches them one by one
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public int getIncrementBy() {
+        return incrementBy;
+    }
+
+    /**
+     * Tell the allocator the sequence was created with INCREMENT BY n, so each nextval reserves the n
+     * values from it onwards and a block takes a single nextval
+     */
+    public void setIncrementBy(int incrementBy) {
+        this.incrementBy = incrementBy;
+    }
+
+    public int getBlocksFetched() {
+        return blocksFetched.get();
+    }
+
+    public static int getDefaultBlockSize() {
+        return defaultBlockSize;
+    }
+
+    /**
+     * The block size for allocators made from now on
+     */
+    public static void setDefaultBlockSize(int blockSize) {
+        defaultBlockSize = blockSize;
+    }
+
+    private static class Block {
+        private final long[] values;
+        private final AtomicInteger index = new AtomicInteger();
+
+        Block(long[] values) {
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SequenceAllocatorTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(SequenceAllocatorTest.class);
+    }
+
+    /**
+     * A sequence that counts up from 1 by the given step, answering nextval on its own or from
+     * generate_series, and counting the queries it's sent
+     */
+    private static class Sequence implements InvocationHandler {
+        AtomicLong value = new AtomicLong(1);
+        AtomicInteger queries = new AtomicInteger();
+        List<String> statements = Collections.synchronizedList(new ArrayList<String>());
+        int step = 1;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getMetaData")) {
+                return proxy;
+            }
+            if (name.equals("getDatabaseProductName")) {
+                return "PostgreSQL";
+            }
+            if (name.equals("getURL")) {
+                return "jdbc:sequence";
+            }
+            if (name.equals("getUserName")) {
+                return "test";
+            }
+            if (name.equals("isClosed")) {
+                return false;
+            }
+            if (name.equals("prepareStatement")) {
+                return statement((String)args[0]);
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        PreparedStatement statement(final String sql) {
+            statements.add(sql);
+            return (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {PreparedStatement.class}, new InvocationHandler() {
+                int rows = 1;
+
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("setInt")) {
+                        rows = (Integer)args[1];
+                        return null;
+                    }
+                    if (name.equals("executeQuery")) {
+                        queries.incrementAndGet();
+                        long[] values = new long[rows];
+                        for (int t = 0; t < rows; t++) {
+                            values[t] = value.getAndAdd(step);
+                        }
+                        return resultSet(values);
+                    }
+                    if (name.equals("close") || name.equals("clearParameters")) {
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+        }
+
+        Connection connection() {
+            return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class, DatabaseMetaData.class}, this);
+        }
+    }
+
+    private static ResultSet resultSet(final long[] values) {
+        return (ResultSet)Proxy.newProxyInstance(SequenceAllocatorTest.class.getClassLoader(), new Class[] {ResultSet.class}, new InvocationHandler() {
+            int position = -1;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    return ++position < values.length;
+                }
+                if (name.equals("getLong")) {
+                    return values[position];
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    @Test
+    public void testParseSequenceName() {
+        assertEquals("customer_id_seq", SequenceAllocator.parseSequenceName("nextval('customer_id_seq'::regclass)"));
+        assertEquals("\"Customer_id_seq\"", SequenceAllocator.parseSequenceName("nextval('\"Customer_id_seq\"'::regclass)"));
+        assertNull(SequenceAllocator.parseSequenceName("0"));
+        assertNull(SequenceAllocator.parseSequenceName(null));
+    }
+
+    @Test
+    public void testBlocks() throws SQLException {
+        Sequence s = new Sequence();
+        Connection db = s.connection();
+        SequenceAllocator sa = new SequenceAllocator("customer_id_seq", 10);
+        for (long t = 1; t <= 25; t++) {
+            assertEquals(t, sa.next(db));
+        }
+        assertEquals(3, s.queries.get());
+        assertEquals("select nextval('customer_id_seq') from generate_series(1, ?)", s.statements.get(0));
+    }
+
+    @Test
+    public void testIncrementBy() throws SQLException {
+        Sequence s = new Sequence();
+        s.step = 20;
+        Connection db = s.connection();
+        SequenceAllocator sa = new SequenceAllocator("customer_id_seq", 10);
+        sa.setIncrementBy(20);
+        for (long t = 1; t <= 45; t++) {
+            assertEquals(t, sa.next(db));
+        }
+        assertEquals(3, s.queries.get());
+        assertEquals("select nextval('customer_id_seq')", s.statements.get(0));
+    }
+
+    @Test
+    public void testOneAllocatorPerSequence() throws SQLException {
+        SequenceAllocator.clear();
+        Connection db = new Sequence().connection();
+        assertSame(SequenceAllocator.getAllocator(db, "a_seq"), SequenceAllocator.getAllocator(db, "a_seq"));
+        assertNotSame(SequenceAllocator.getAllocator(db, "a_seq"), SequenceAllocator.getAllocator(db, "b_seq"));
+    }
+
+    @Test
+    public void testConcurrentCallers() throws Exception {
+        Sequence s = new Sequence();
+        final Connection db = s.connection();
+        final SequenceAllocator sa = new SequenceAllocator("customer_id_seq", 50);
+        final Set<Long> seen = Collections.synchronizedSet(new HashSet<Long>());
+        final AtomicInteger failures = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            if (!seen.add(sa.next(db))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(8000, seen.size());
+        // Every block was used up before the next was fetched
+        assertEquals(160, s.queries.get());
+        assertEquals(160, sa.getBlocksFetched());
+    }
+}
@@ -0,0 +1,354 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Prepared statements for one connection, kept by their SQL so that running the same statement again
+ * doesn't prepare it again.  On PostgreSQL the statements are told to use a server side prepared
+ * statement from the first time they run, so the server doesn't plan them again either.  That's done
+ * by reflection, reaching through any wrapper a connection pool puts round the statement, so the
+ * PostgreSQL driver needn't be there for other databases.
+ * <p/>
+ * Statements come out wrapped so that closing one just hands it back to the cache; the real statement is
+ * closed when it's evicted, the least recently used going first once there are more than maxSize, or
+ * when the cache is closed.  A statement is in use from when it's handed out until it's closed, and
+ * asking for the same SQL in the meantime, say for a query run while reading the results of another
+ * the same shape, gives a statement of its own that isn't cached, so the first one's results are left
+ * alone.  A statement that's never closed is never handed out again, so close them when done.
+ * <p/>
+ * Like the connection itself, a cache is meant for one thread at a time, though it's synchronized so it
+ * won't be corrupted if that isn't so.
+ */
+public class StatementCache {
+    private static Logger log = Logger.getLogger(StatementCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 100;
+
+    /**
+     * The caches for each connection we've seen.  Closed connections are cleared out once there are more
+     * than PURGE_SIZE, so handles from a connection pool don't pile up.
+     */
+    private static final Map<Connection, StatementCache> caches = new IdentityHashMap<Connection, StatementCache>();
+
+    private static final int PURGE_SIZE = 64;
+
+    private static volatile int defaultMaxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * The prepare threshold to give PostgreSQL statements, 0 to leave the driver's own
+     */
+    private static volatile int prepareThreshold = 1;
+
+    /**
+     * The PostgreSQL driver's statement interface, which has setPrepareThreshold()
+     */
+    private static final String PG_STATEMENT = "org.postgresql.PGStatement";
+
+    private Connection db;
+    private int maxSize;
+
+    /**
+     * Whether the connection is to PostgreSQL, null until we've asked
+     */
+    private Boolean postgres;
+    private LinkedHashMap<String, Cached> statements;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public StatementCache(Connection db, int maxSize) {
+        this.db = db;
+        this.maxSize = maxSize;
+        // Access order, so iteration runs least recently used first
+        statements = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    evictions++;
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The statement cache for a connection, made the first time it's asked for
+     */
+    public static StatementCache forConnection(Connection db) throws SQLException {
+        synchronized (caches) {
+            StatementCache sc = caches.get(db);
+            if (sc == null) {
+                if (caches.size() >= PURGE_SIZE) {
+                    purge();
+                }
+                sc = new StatementCache(db, defaultMaxSize);
+                caches.put(db, sc);
+            }
+            return sc;
+        }
+    }
+
+    /**
+     * Prepare a statement on a connection through its cache
+     */
+    public static PreparedStatement prepare(Connection db, String sql) throws SQLException {
+        return forConnection(db).prepare(sql);
+    }
+
+    private static void purge() throws SQLException {
+        for (Iterator<Map.Entry<Connection, StatementCache>> i = caches.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Connection, StatementCache> e = i.next();
+            if (e.getKey().isClosed()) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Close the cache for a connection and every statement in it, for when the connection is finished with
+     */
+    public static void release(Connection db) {
+        StatementCache sc;
+        synchronized (caches) {
+            sc = caches.remove(db);
+        }
+        if (sc != null) {
+            sc.close();
+        }
+    }
+
+    /**
+     * The statement for some SQL, prepared if we don't have it already
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        Cached c = statements.get(sql);
+        if (c != null && !c.inUse) {
+            hits++;
+            c.statement.clearParameters();
+            c.inUse = true;
+            return c.wrapper;
+        }
+
+        misses++;
+        PreparedStatement ps = db.prepareStatement(sql);
+        if (prepareThreshold > 0 && isPostgres()) {
+            setPrepareThreshold(ps, prepareThreshold);
+        }
+        if (c != null) {
+            // The cached one hasn't been closed yet, so this one is just for the caller
+            log.debug("Statement in use, preparing another: " + sql);
+            return ps;
+        }
+        c = new Cached(ps);
+        c.inUse = true;
+        statements.put(sql, c);
+        return c.wrapper;
+    }
+
+    private boolean isPostgres() throws SQLException {
+        if (postgres == null) {
+            postgres = "PostgreSQL".equals(db.getMetaData().getDatabaseProductName());
+        }
+        return postgres;
+    }
+
+    /**
+     * Set the prepare threshold on a PostgreSQL statement, unwrapping it first if it's been wrapped.  If
+     * it can't be done, because the driver isn't one that has it, or is too old to unwrap, the statement
+     * is just left at the driver's default.
+     */
+    private static void setPrepareThreshold(PreparedStatement ps, int threshold) {
+        try {
+            Class<?> pg = Class.forName(PG_STATEMENT);
+            Object target = ps;
+            if (!pg.isInstance(ps)) {
+                target = ps.unwrap(pg);
+            }
+            pg.getMethod("setPrepareThreshold", int.class).invoke(target, threshold);
+        }
+        catch (Exception e) {
+            log.debug("Couldn't set the prepare threshold: " + e);
+        }
+        catch (AbstractMethodError ame) {
+            // A JDBC 3 driver or pool, without unwrap()
+            log.debug("Couldn't unwrap statement to set the prepare threshold: " + ame);
+        }
+    }
+
+    /**
+     * Close every statement, leaving the cache empty
+     */
+    public synchronized void close() {
+        for (Cached c : statements.values()) {
+            c.closeQuietly();
+        }
+        statements.clear();
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the fraction of statements that didn't need preparing, 0 if there haven't been any
+     */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Change the size limit; shrinking it closes the least recently used statements straight away
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        for (Iterator<Cached> i = statements.values().iterator(); i.hasNext() && statements.size() > maxSize;) {
+            i.next().evict();
+            i.remove();
+            evictions++;
+        }
+    }
+
+    public static int getDefaultMaxSize() {
+        return defaultMaxSize;
+    }
+
+    /**
+     * The size limit for caches made from now on
+     */
+    public static void setDefaultMaxSize(int maxSize) {
+        defaultMaxSize = maxSize;
+    }
+
+    public static int getPrepareThreshold() {
+        return prepareThreshold;
+    }
+
+    /**
+     * How many times a PostgreSQL statement runs before the driver switches it to a server side prepared
+     * statement.  The driver's own default is 5, which a cached statement reaches soon enough anyway;
+     * 1 starts straight away, and 0 leaves the driver to it.
+     */
+    public static void setPrepareThreshold(int threshold) {
+        prepareThreshold = threshold;
+    }
+
+    public synchronized String toString() {
+        return "StatementCache[size=" + statements.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    private class Cached {
+        private PreparedStatement statement;
+        private PreparedStatement wrapper;
+
+        /**
+         * Handed out and not closed yet
+         */
+        private boolean inUse;
+
+        /**
+         * Dropped from the cache while in use, so it's to be closed when it's handed back
+         */
+        private boolean evicted;
+
+        Cached(final PreparedStatement statement) {
+            this.statement = statement;
+            Set<Class> interfaces = new LinkedHashSet<Class>();
+            interfaces.add(PreparedStatement.class);
+            for (Class c = statement.getClass(); c != null; c = c.getSuperclass()) {
+                interfaces.addAll(Arrays.asList(c.getInterfaces()));
+            }
+            this.wrapper = (PreparedStatement)Proxy.newProxyInstance(statement.getClass().getClassLoader(),
+                    interfaces.toArray(new Class[interfaces.size()]), new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    // Closing just hands the statement back
+                    if (method.getName().equals("close") && method.getParameterTypes().length == 0) {
+                        release();
+                        return null;
+                    }
+                    try {
+                        return method.invoke(statement, args);
+                    }
+                    catch (InvocationTargetException ite) {
+                        throw ite.getCause();
+                    }
+                }
+            });
+        }
+
+        void release() {
+            synchronized (StatementCache.this) {
+                inUse = false;
+                if (evicted) {
+                    closeQuietly();
+                }
+            }
+        }
+
+        /**
+         * Close the statement now, or when it's handed back if it's in use
+         */
+        void evict() {
+            if (inUse) {
+                evicted = true;
+            }
+            else {
+                closeQuietly();
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            }
+            catch (SQLException se) {
+                log.warn("Failed to close cached statement: " + se.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+import org.postgresql.PGStatement;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class StatementCacheTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(StatementCacheTest.class);
+    }
+
+    /**
+     * A connection that keeps count of the statements it prepares and which of them are really closed.
+     * Its statements are wrapped the way a connection pool would, and unwrap to a PostgreSQL statement
+     * that keeps the prepare threshold it's given.
+     */
+    private static class Counter implements InvocationHandler {
+        String productName = "Test";
+        List<String> prepared = new ArrayList<String>();
+        Set<String> closed = new HashSet<String>();
+        int cleared = 0;
+        List<Integer> thresholds = new ArrayList<Integer>();
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("getMetaData")) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DatabaseMetaData.class}, this);
+            }
+            if (method.getName().equals("getDatabaseProductName")) {
+                return productName;
+            }
+            if (method.getName().equals("prepareStatement")) {
+                final String sql = (String)args[0];
+                prepared.add(sql);
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {PreparedStatement.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("close")) {
+                            closed.add(sql);
+                            return null;
+                        }
+                        if (name.equals("clearParameters")) {
+                            cleared++;
+                            return null;
+                        }
+                        if (name.equals("executeUpdate")) {
+                            return 1;
+                        }
+                        if (name.equals("unwrap") && args[0] == PGStatement.class) {
+                            return pgStatement();
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        PGStatement pgStatement() {
+            return (PGStatement)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {PGStatement.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("setPrepareThreshold")) {
+                        thresholds.add((Integer)args[0]);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        Connection connection() {
+            return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class}, this);
+        }
+    }
+
+    @Test
+    public void testReuse() throws SQLException {
+        Counter c = new Counter();
+        StatementCache sc = new StatementCache(c.connection(), 10);
+
+        PreparedStatement a = sc.prepare("select 1");
+        assertEquals(1, a.executeUpdate());
+        a.close();
+        PreparedStatement b = sc.prepare("select 1");
+
+        assertSame(a, b);
+        assertEquals(Arrays.asList("select 1"), c.prepared);
+        // Closing it only handed it back
+        assertTrue(c.closed.isEmpty());
+        assertEquals(1, c.cleared);
+        assertEquals(1, sc.getHits());
+        assertEquals(1, sc.getMisses());
+        assertEquals(0.5, sc.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsClosed() throws SQLException {
+        Counter c = new Counter();
+        StatementCache sc = new StatementCache(c.connection(), 2);
+
+        sc.prepare("a").close();
+        sc.prepare("b").close();
+        sc.prepare("a").close();
+        sc.prepare("c").close();
+
+        assertEquals(2, sc.size());
+        assertEquals(1, sc.getEvictions());
+        assertEquals(new HashSet<String>(Arrays.asList("b")), c.closed);
+
+        sc.setMaxSize(1);
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), c.closed);
+
+        sc.close();
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), c.closed);
+        assertEquals(0, sc.size());
+    }
+
+    @Test
+    public void testOneCachePerConnection() throws SQLException {
+        Counter c = new Counter();
+        Connection db = c.connection();
+        assertSame(StatementCache.forConnection(db), StatementCache.forConnection(db));
+        assertNotSame(StatementCache.forConnection(db), StatementCache.forConnection(new Counter().connection()));
+
+        StatementCache.prepare(db, "select 1");
+        StatementCache.release(db);
+        assertEquals(new HashSet<String>(Arrays.asList("select 1")), c.closed);
+    }
+
+    @Test
+    public void testPrepareThresholdThroughWrapper() throws SQLException {
+        Counter c = new Counter();
+        new StatementCache(c.connection(), 10).prepare("select 1");
+        // Not PostgreSQL, so left alone
+        assertTrue(c.thresholds.isEmpty());
+
+        c.productName = "PostgreSQL";
+        StatementCache sc = new StatementCache(c.connection(), 10);
+        sc.prepare("select 1").close();
+        sc.prepare("select 1").close();
+        assertEquals(Arrays.asList(StatementCache.getPrepareThreshold()), c.thresholds);
+    }
+
+    /**
+     * The same SQL asked for again before the first statement is closed, as when running a query while
+     * reading the results of another the same shape, gets a statement of its own
+     */
+    @Test
+    public void testInUseStatementNotShared() throws SQLException {
+        Counter c = new Counter();
+        StatementCache sc = new StatementCache(c.connection(), 1);
+
+        PreparedStatement outer = sc.prepare("select 1");
+        PreparedStatement inner = sc.prepare("select 1");
+        assertNotSame(outer, inner);
+        assertEquals(Arrays.asList("select 1", "select 1"), c.prepared);
+        assertEquals(0, c.cleared);
+
+        // The one that isn't cached is really closed
+        inner.close();
+        assertEquals(new HashSet<String>(Arrays.asList("select 1")), c.closed);
+        c.closed.clear();
+
+        // Evicted while in use, it's closed once handed back
+        sc.prepare("select 2").close();
+        assertTrue(c.closed.isEmpty());
+        outer.close();
+        assertEquals(new HashSet<String>(Arrays.asList("select 1")), c.closed);
+
+        outer = sc.prepare("select 2");
+        outer.close();
+        assertSame(outer, sc.prepare("select 2"));
+        assertEquals(2, sc.getHits());
+    }
+}
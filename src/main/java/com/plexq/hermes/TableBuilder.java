@@ -20,6 +20,8 @@ package com.plexq.hermes;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A class that represents TableBuilers.  These kinds of object can create a table over a database connection.  There is a subclass for each database type.
@@ -50,6 +52,36 @@ public abstract class TableBuilder {
      */
     public abstract String buildTable(TableRepresentation tr) throws SQLException, TableBuildException;
 
+    /**
+     * The part of the table's DDL to run before its data is loaded - just the table, without the keys
+     * and indexes that would otherwise be maintained row by row during the load.  Builders that don't
+     * split their output give the whole table here.
+     *
+     * @param tr a table representation object which contains types and columns
+     */
+    public String buildPreData(TableRepresentation tr) throws SQLException, TableBuildException {
+        return buildTable(tr);
+    }
+
+    /**
+     * Statements that build the table's primary key and indexes once the data is in.  They don't depend
+     * on each other, so they can be run side by side.
+     *
+     * @param tr a table representation object which contains types and columns
+     */
+    public List<String> buildIndexes(TableRepresentation tr) throws SQLException, TableBuildException {
+        return new ArrayList<String>();
+    }
+
+    /**
+     * Statements that add the table's foreign keys, to run once every table's primary key is built
+     *
+     * @param tr a table representation object which contains types and columns
+     */
+    public List<String> buildForeignKeys(TableRepresentation tr) throws SQLException, TableBuildException {
+        return new ArrayList<String>();
+    }
+
     public String convertToUnderscoreFormat(String s) {
         StringBuilder sb = new StringBuilder();
         for (Character a : s.toCharArray()) {
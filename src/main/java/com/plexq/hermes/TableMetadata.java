@@ -5,26 +5,23 @@ import org.apache.log4j.Logger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeMap;
-import java.util.HashMap;
+import java.util.Map;
 import java.sql.*;
 
 public class TableMetadata {
-	private static HashMap<String, TableMetadata> metadataCache = new HashMap<String, TableMetadata>();
+	private static MetadataCache metadataCache = new MetadataCache();
 
 	private Logger log = Logger.getLogger(TableMetadata.class);
 
-	private ArrayList<String> primaryKeys;
-	private TreeMap<String, Class> columnTypes;
+	private ArrayList<String> primaryKeys = new ArrayList<String>();
+	private TreeMap<String, Class> columnTypes = new TreeMap<String, Class>();
     private TreeMap<String, Guidance> tableGuidance = new TreeMap<String, Guidance>();
     private ArrayList<String> columnsInOrder = new ArrayList<String>();
 	private boolean debug=true;
-    private boolean longOrIntId = false;
+    private List<IndexRepresentation> indices = new ArrayList<IndexRepresentation>();
 
 	public TableMetadata(Connection db, String tableName) throws SQLException {
 		if (db != null) {
-			primaryKeys = new ArrayList<String>();
-			columnTypes = new TreeMap<String, Class>();
-
 			//System.out.println("Dynamically initializing Table Representation");
 			DatabaseMetaData dmd = db.getMetaData();
 			ResultSet rs = null;
@@ -33,110 +30,192 @@ public class TableMetadata {
 			while (rs.next()) {
 				primaryKeys.add(rs.getString(4));
 			}
+			rs.close();
 
+			// One pass over the columns and one over the foreign keys, rather than a round trip of
+			// each for every column
 			rs = dmd.getColumns(null, null, tableName, null);
-            int p = 1;
 			while (rs.next()) {
-				String name = rs.getString(4);
-				int n = rs.getInt(5);
-
-                columnsInOrder.add(name);
-
-				if (debug) {
-					//log.info("Scanned column "+name+" is of type "+n);
-				}
-				if (n == Types.BIGINT) {
-					columnTypes.put(name, Long.class);
-				}
-				else if (n == Types.BOOLEAN) {
-					columnTypes.put(name, Boolean.class);
-				}
-				else if (n == Types.CHAR) {
-					columnTypes.put(name, String.class);
-				}
-				else if (n == Types.DATE) {
-					columnTypes.put(name, java.sql.Date.class);
-				}
-				else if (n == Types.DECIMAL) {
-					columnTypes.put(name, Double.class);
-				}
-				else if (n == Types.DOUBLE) {
-					columnTypes.put(name, Double.class);
-				}
-				else if (n == Types.FLOAT) {
-					columnTypes.put(name, Float.class);
-				}
-				else if (n == Types.INTEGER) {
-					columnTypes.put(name, Integer.class);
-				}
-				else if (n == Types.NUMERIC) {
-					columnTypes.put(name, Double.class);
-				}
-				else if (n == Types.REAL) {
-					columnTypes.put(name, Double.class);
-				}
-				else if (n == Types.SMALLINT) {
-					columnTypes.put(name, Integer.class);
-				}
-				else if (n == Types.TIMESTAMP) {
-					columnTypes.put(name, java.sql.Timestamp.class);
-				}
-				else if (n == Types.VARCHAR) {
-					columnTypes.put(name, String.class);
-				}
-				else if (n == Types.TINYINT) {
-					columnTypes.put(name, Integer.class);
-				}
-				else if (n == Types.LONGVARCHAR) {
-					columnTypes.put(name, String.class);
-				}
-                else if (n == Types.CLOB) {
-                    columnTypes.put(name, String.class);
-                }
-                else if (n == Types.BLOB) {
-                    columnTypes.put(name, byte[].class);
-                }
-                else if (n == Types.VARBINARY) {
-                    columnTypes.put(name, byte[].class);
-                }
-                else if (n == Types.BINARY) {
-                    columnTypes.put(name, byte[].class);
-                }
-				else if (n == Types.BIT) {
-					columnTypes.put(name, Boolean.class);
-				}
-				else {
-					throw new RuntimeException("Type not supported: "+n);
-				}
-				/*
-				if (n==Types.SQLXML) {
-					columnTypes.put(name, String.class);
-				}
-				*/
-				/*
-				if (n==Types.NVARCHAR) {
-					columnTypes.put(name, String.class);
-				}
-				*/
-				/*
-				if (n==Types.NCHAR) {
-					columnTypes.put(name, String.class);
-				}
-				*/
-
-                Guidance g = Guidance.fetchGuidance(db,null,tableName,name);
-                g.setFieldPosition(p++);
-                tableGuidance.put(name,g);
+				addColumn(rs.getString(4), Guidance.fromColumnRow(rs));
+			}
+			rs.close();
+
+			rs = dmd.getImportedKeys(null, null, tableName);
+			while (rs.next()) {
+				addForeignKey(rs);
+			}
+			rs.close();
 
+			TreeMap<String, IndexRepresentation> indexColumns = new TreeMap<String, IndexRepresentation>();
+			rs = dmd.getIndexInfo(null, null, tableName, false, true);
+			while (rs.next()) {
+				readIndexRow(rs, indexColumns);
 			}
+			rs.close();
+			setIndices(indexColumns);
+		}
+	}
+
+	/**
+	 * An empty table for building up from metadata that's been read some other way, see SchemaMetadata
+	 */
+	public TableMetadata() {
+
+	}
+
+	/**
+	 * Add the next column, in field order
+	 * @param name the column name
+	 * @param g the column's guidance, which carries its java.sql type
+	 */
+	public void addColumn(String name, Guidance g) {
+		Class c = getJavaClassForSQLType(g.getJavaSQLType());
+		if (c == null) {
+			throw new RuntimeException("Type not supported: "+g.getJavaSQLType());
+		}
+		columnsInOrder.add(name);
+		columnTypes.put(name, c);
+		g.setFieldPosition(columnsInOrder.size());
+		tableGuidance.put(name, g);
+	}
+
+	/**
+	 * Attach a foreign key to its column from a row of DatabaseMetaData.getImportedKeys()
+	 */
+	public void addForeignKey(ResultSet rs) throws SQLException {
+		Guidance g = tableGuidance.get(rs.getString(8));
+		if (g != null) {
+			g.setForeignKey(Guidance.readForeignKeyRow(rs));
+		}
+	}
+
+	/**
+	 * Collect a row of DatabaseMetaData.getIndexInfo() into the index it belongs to
+	 * @param indexColumns indexes so far by name
+	 */
+	public static void readIndexRow(ResultSet rs, Map<String, IndexRepresentation> indexColumns) throws SQLException {
+		String iName = rs.getString(6);
+
+		// The table statistic row has no index name
+		if (iName!=null) {
+			IndexRepresentation ir;
 
+			if (indexColumns.containsKey(iName)) {
+				ir = indexColumns.get(iName);
+			}
+			else {
+				ir = new IndexRepresentation();
+				indexColumns.put(iName, ir);
+			}
 
-            if (primaryKeys.size()==1 && (columnTypes.get(primaryKeys.get(0)).equals(Long.class) || columnTypes.get(primaryKeys.get(0)).equals(Integer.class))) {
-                longOrIntId = true;
-            }
+			ir.setUnique(!rs.getBoolean(4));
+			ir.setTableName(rs.getString(3));
+			ir.getColumns().add(rs.getString(9));
+			ir.setFilterCondition(rs.getString(13));
 		}
 	}
 
+	/**
+	 * Name the indexes collected by readIndexRow and keep them, leaving out the primary key's own
+	 * index, so set the primary keys first
+	 */
+	public void setIndices(Map<String, IndexRepresentation> indexColumns) {
+		indices = new ArrayList<IndexRepresentation>();
+		for (IndexRepresentation ir : indexColumns.values()) {
+			// The primary key brings its own index with it
+			if (ir.isUnique() && ir.getColumns().equals(primaryKeys)) {
+				continue;
+			}
+
+			StringBuilder sb = new StringBuilder();
+			for (String s : ir.getColumns()) {
+				sb.append("_");
+				sb.append(s);
+			}
+			if (ir.isUnique()) {
+				ir.setName(ir.getTableName()+sb.toString()+"ui");
+			}
+			else {
+				ir.setName(ir.getTableName()+sb.toString()+"i");
+			}
+
+			indices.add(ir);
+		}
+	}
+
+	public List<IndexRepresentation> getIndices() {
+		return indices;
+	}
+
+	/**
+	 * Map a java.sql.Types code to the Java class we hold values of that type in
+	 * @param n a java.sql.Types code
+	 * @return the class, or null if we don't support the type
+	 */
+	public static Class getJavaClassForSQLType(int n) {
+		if (n == Types.BIGINT) {
+			return Long.class;
+		}
+		else if (n == Types.BOOLEAN) {
+			return Boolean.class;
+		}
+		else if (n == Types.CHAR) {
+			return String.class;
+		}
+		else if (n == Types.DATE) {
+			return java.sql.Date.class;
+		}
+		else if (n == Types.DECIMAL) {
+			return Double.class;
+		}
+		else if (n == Types.DOUBLE) {
+			return Double.class;
+		}
+		else if (n == Types.FLOAT) {
+			return Float.class;
+		}
+		else if (n == Types.INTEGER) {
+			return Integer.class;
+		}
+		else if (n == Types.NUMERIC) {
+			return Double.class;
+		}
+		else if (n == Types.REAL) {
+			return Double.class;
+		}
+		else if (n == Types.SMALLINT) {
+			return Integer.class;
+		}
+		else if (n == Types.TIMESTAMP) {
+			return java.sql.Timestamp.class;
+		}
+		else if (n == Types.VARCHAR) {
+			return String.class;
+		}
+		else if (n == Types.TINYINT) {
+			return Integer.class;
+		}
+		else if (n == Types.LONGVARCHAR) {
+			return String.class;
+		}
+		else if (n == Types.CLOB) {
+			return String.class;
+		}
+		else if (n == Types.BLOB) {
+			return byte[].class;
+		}
+		else if (n == Types.VARBINARY) {
+			return byte[].class;
+		}
+		else if (n == Types.BINARY) {
+			return byte[].class;
+		}
+		else if (n == Types.BIT) {
+			return Boolean.class;
+		}
+		return null;
+	}
+
 	public ArrayList<String> getPrimaryKeys() {
 		return primaryKeys;
 	}
@@ -162,24 +241,27 @@ public class TableMetadata {
 	}
 
 	/**
-	 * TODO support schemas here somehow
-	 * We cache metadata about tables through this call.  I can't personally imagine many scenarios where
-	 * you might want to make this a LRU expiring cache, how many tables can you have?
-	 * TODO implement a container size limit on this
+	 * We cache metadata about tables through this call, keyed by the data source the connection is to.
+	 * See MetadataCache for the size limit, expiry and statistics.
 	 * @param db A Database connection object
 	 * @param tableName The name of the table we want to get meta data about
 	 * @return a table meta data object containing the table's meta data
 	 * @throws SQLException When there is a problem selecting the data from the database
 	 */
 	public static TableMetadata fetchMetadata(Connection db, String tableName) throws SQLException {
-		if (metadataCache.containsKey(tableName)) {
-			return metadataCache.get(tableName);
-		}
-		else {
-			TableMetadata tm = new TableMetadata(db, tableName);
-			metadataCache.put(tableName, tm);
-			return tm;
-		}
+		return metadataCache.fetch(db, null, tableName);
+	}
+
+	/**
+	 * Put metadata that was read some other way, such as by SchemaMetadata, in the cache so
+	 * fetchMetadata doesn't go back to the database for it
+	 */
+	public static void putMetadata(Connection db, String schema, String tableName, TableMetadata tm) throws SQLException {
+		metadataCache.put(db, schema, tableName, tm);
+	}
+
+	public static MetadataCache getMetadataCache() {
+		return metadataCache;
 	}
 
     public TreeMap<String, Guidance> getTableGuidance() {
@@ -191,6 +273,10 @@ public class TableMetadata {
     }
 
     public boolean hasLongOrIntId() {
-        return longOrIntId;
+        if (primaryKeys.size()!=1) {
+            return false;
+        }
+        Class c = columnTypes.get(primaryKeys.get(0));
+        return Long.class.equals(c) || Integer.class.equals(c);
     }
 }
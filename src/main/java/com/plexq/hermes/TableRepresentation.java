@@ -36,6 +36,10 @@ public class TableRepresentation implements Map<String, Object> {
 	 * Log4j Logger
 	 */
 	private static Logger log = Logger.getLogger(TableRepresentation.class);
+	/**
+	 * How many rows saveAll sends in a batch unless told otherwise
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 500;
 	/**
 	 * Database Connection that we will use to perform operations
 	 */
@@ -95,6 +99,41 @@ public class TableRepresentation implements Map<String, Object> {
 	 */
 	protected String optimisticLock="version";
 
+	/**
+	 * Whether to save with a single upsert statement instead of selecting the row first
+	 */
+	protected boolean useUpsert = false;
+
+	/**
+	 * Whether the row is in the database as we have it, apart from the dirty columns, because we've
+	 * loaded or saved it
+	 */
+	protected boolean persisted = false;
+
+	/**
+	 * The columns that have been set since we last loaded or saved the row
+	 */
+	protected TreeSet<String> dirtyColumns = new TreeSet<String>();
+
+	/**
+	 * Builds our upserts, found from the connection the first time we need it
+	 */
+	private UpsertBuilder upsertBuilder;
+
+	private boolean upsertBuilderChecked = false;
+
+	/**
+	 * Whether the database can hand back a key from an insert with returning, found from the
+	 * connection the first time we need it
+	 */
+	private Boolean insertReturning;
+
+	/**
+	 * The identity column the insert buildSave made leaves for the database to fill in and return,
+	 * null if there isn't one
+	 */
+	private String returnKey;
+
     /**
      * Type name generator
      */
@@ -170,6 +209,20 @@ public class TableRepresentation implements Map<String, Object> {
 		init();
 	}
 
+	/**
+	 * Create a table representation object from metadata we already have, such as from a SchemaSnapshot,
+	 * without a database connection.  It can describe the table to a TableBuilder, but can't load or save.
+	 *
+	 * @param inTableName the name of the table that this object will represent
+	 * @param inMetaData  the table's metadata
+	 */
+	public TableRepresentation(String inTableName, TableMetadata inMetaData) {
+		tableName = inTableName;
+		tableData = new TreeMap<String, Object>();
+		dataInvalid = false;
+		initFromMetadata(inMetaData);
+	}
+
 	/**
 	 * private method to initialize this object
 	 */
@@ -179,107 +232,329 @@ public class TableRepresentation implements Map<String, Object> {
 
 		if (db != null) {
 			//System.out.println("Dynamically initializing Table Representation");
-			try {
-				metaData = TableMetadata.fetchMetadata(db, tableName);
+			initFromMetadata(TableMetadata.fetchMetadata(db, tableName));
+		}
+	}
 
-                String schemaName = null;
+	private void initFromMetadata(TableMetadata tm) {
+		metaData = tm;
 
-				DatabaseMetaData dmd = db.getMetaData();
-				ResultSet rs = null;
+		ArrayList<String> al = metaData.getPrimaryKeys();
+		pkey = new String[al.size()];
+		for (int t = 0; t < al.size(); t++) {
+			pkey[t] = al.get(t);
+		}
 
-				ArrayList<String> al = metaData.getPrimaryKeys();
-				pkey = new String[al.size()];
-				for (int t = 0; t < al.size(); t++) {
-					pkey[t] = al.get(t);
-				}
+		for (String name : metaData.getColumnTypes().keySet()) {
+			tableData.put(name, null);
 
-				for (String name : metaData.getColumnTypes().keySet()) {
-					tableData.put(name, null);
+			tableTypes.put(name, metaData.getColumnTypes().get(name));
+		}
 
-					tableTypes.put(name, metaData.getColumnTypes().get(name));
-				}
+		getIndices().addAll(metaData.getIndices());
+	}
 
-                rs = dmd.getIndexInfo(null,null,tableName,false,true);
+	/**
+	 * Load this object from the database.  primary key values must be provided already in order to perform a load, otherwise there is no way to figure out what data to load
+	 */
+	public void load() throws SQLException {
 
-                TreeMap<String, IndexRepresentation> indexColumns = new TreeMap<String, IndexRepresentation>();
+		if (db == null) {
+			throw new PersistenceException("Database connection has not been specified when trying to load an object from the database");
+		}
 
-                while (rs.next()) {
-                    String iName = rs.getString(5);
+		ArrayList<Object> al = buildTableSelect();
+		String query = (String) al.get(0);
 
-                    if (iName!=null) {
-                        IndexRepresentation ir;
+		PreparedStatement st = StatementCache.prepare(db, query);
+		try {
+			for (int t = 1; t < al.size(); t++) {
+				st.setObject(t, al.get(t));
+			}
+			ResultSet rs = st.executeQuery();
+			ResultSetMetaData rsmd = rs.getMetaData();
+			persisted = false;
+			while (rs.next()) {
+				for (int t = 1; t <= rsmd.getColumnCount(); t++) {
+					tableData.put(rsmd.getColumnName(t), rs.getObject(t));
+				}
+				saved();
+			}
+		}
+		finally {
+			st.close();
+		}
+	}
 
-                        if (indexColumns.containsKey(iName)) {
-                            ir = indexColumns.get(iName);
-                        }
-                        else {
-                            ir = new IndexRepresentation();
-                        }
+	/**
+	 * Note that the database has the row as we have it now, so the next save only needs to send what
+	 * is set after this
+	 */
+	protected void saved() {
+		persisted = true;
+		dirtyColumns.clear();
+	}
 
-                        ir.setUnique(rs.getBoolean(4));
-                        ir.setTableName(tableName);
-                        ir.getColumns().add(rs.getString(9));
-                        ir.setFilterCondition(rs.getString(12));
-                    }
+	/**
+	 * Put a value into the row on behalf of one of the setters, noting the column as dirty if it's
+	 * actually changed
+	 */
+	protected void setData(String inField, Object inData) {
+		Object old = tableData.put(inField, inData);
+		if (inData == null ? old != null : !inData.equals(old)) {
+			dirtyColumns.add(inField);
+		}
+	}
 
-                }
+	/**
+	 * @return true if the column has been set since the row was last loaded or saved
+	 */
+	public boolean isDirty(String column) {
+		return dirtyColumns.contains(column);
+	}
 
-                for (Entry<String, IndexRepresentation> e : indexColumns.entrySet()) {
-                    IndexRepresentation ir = e.getValue();
+	/**
+	 * @return the columns that have been set since the row was last loaded or saved
+	 */
+	public Set<String> getDirtyColumns() {
+		return Collections.unmodifiableSet(dirtyColumns);
+	}
 
-                    StringBuilder sb = new StringBuilder();
-                    for (String s : ir.getColumns()) {
-                        sb.append("_");
-                        sb.append(s);
-                    }
-                    if (e.getValue().isUnique()) {
-                        ir.setName(tableName+sb.toString()+"ui");
-                    }
-                    else {
-                        ir.setName(tableName+sb.toString()+"i");
-                    }
+	/**
+	 * Save the object to the database
+	 */
+	public void save() throws SQLException {
+		ArrayList<Object> al = buildSave();
+		if (al == null) {
+			return;
+		}
 
-                    getIndices().add(ir);
-                }
+		try {
+			executeSave(al);
+		}
+		catch (SQLException se) {
+			System.out.println("Failed query " + al.get(0) + " : " + se.getMessage());
+			se.printStackTrace();
+			if (!ignoreExceptions) {
+				throw se;
 			}
-			catch (SQLException se) {
-                throw se;
+		}
+	}
+
+	/**
+	 * Run a statement from buildSave on its own, reading back the identity column if it left one for the
+	 * database to fill in
+	 */
+	private void executeSave(ArrayList<Object> al) throws SQLException {
+		String query = (String) al.get(0);
+		PreparedStatement ps = StatementCache.prepare(db, query);
+		if (debug) {
+			log.info("Query " + query);
+		}
+		try {
+			for (int t = 1; t < al.size(); t++) {
+				ps.setObject(t, al.get(t));
+			}
+			if (returnKey != null) {
+				ResultSet rs = ps.executeQuery();
+				rs.next();
+				setKey(returnKey, rs.getLong(1));
+				returnKey = null;
 			}
+			else {
+				ps.executeUpdate();
+			}
+			saved();
+		}
+		finally {
+			ps.close();
 		}
 	}
 
 	/**
-	 * Load this object from the database.  primary key values must be provided already in order to perform a load, otherwise there is no way to figure out what data to load
+	 * Save many objects, sending rows whose statements come out the same - the same table, the same
+	 * columns, and the same columns null - to the database in JDBC batches rather than one at a time.
+	 * Each is still checked for an existing row the way save() does it, so give each row only once.
+	 * <p/>
+	 * A row that fails is thrown as save() would, unless it was set to ignore exceptions, in which case
+	 * it's reported in the list we return and the rest of its batch carries on.  PostgreSQL undoes the
+	 * whole of a batch that fails, and aborts the transaction it's in, so there each batch runs inside a
+	 * savepoint when the connection isn't in auto commit.  When a row fails the batch is rolled back to
+	 * it and sent again without that row.
+	 *
+	 * @param trs the objects to save, all on the same connection
+	 * @param batchSize the most rows to send in one batch
+	 * @return the rows that failed and were ignored
 	 */
-	public void load() throws SQLException {
+	public static List<SaveFailure> saveAll(List<? extends TableRepresentation> trs, int batchSize) throws SQLException {
+		List<SaveFailure> failures = new ArrayList<SaveFailure>();
+		if (trs.isEmpty()) {
+			return failures;
+		}
 
-		if (db == null) {
-			throw new PersistenceException("Database connection has not been specified when trying to load an object from the database");
+		Connection db = trs.get(0).db;
+		boolean postgres = "PostgreSQL".equals(db.getMetaData().getDatabaseProductName());
+		LinkedHashMap<String, List<TableRepresentation>> rows = new LinkedHashMap<String, List<TableRepresentation>>();
+		LinkedHashMap<String, List<ArrayList<Object>>> params = new LinkedHashMap<String, List<ArrayList<Object>>>();
+
+		for (TableRepresentation tr : trs) {
+			if (tr.db != db) {
+				throw new PersistenceException("Batched objects must all be saved on the same connection");
+			}
+			ArrayList<Object> al = tr.buildSave();
+			if (al == null) {
+				continue;
+			}
+
+			String query = (String) al.get(0);
+
+			// A batch can't give us back the keys the database makes, so these go one at a time
+			if (tr.returnKey != null) {
+				try {
+					tr.executeSave(al);
+				}
+				catch (SQLException se) {
+					failed(tr, query, se, failures);
+				}
+				continue;
+			}
+			if (!rows.containsKey(query)) {
+				rows.put(query, new ArrayList<TableRepresentation>());
+				params.put(query, new ArrayList<ArrayList<Object>>());
+			}
+			rows.get(query).add(tr);
+			params.get(query).add(al);
+
+			if (rows.get(query).size() >= batchSize) {
+				executeBatch(db, postgres, query, rows.remove(query), params.remove(query), failures);
+			}
 		}
 
-		ArrayList<Object> al = buildTableSelect();
-		String query = (String) al.get(0);
+		for (String query : rows.keySet()) {
+			executeBatch(db, postgres, query, rows.get(query), params.get(query), failures);
+		}
+
+		return failures;
+	}
 
-		PreparedStatement st = db.prepareStatement(query);
-		for (int t = 1; t < al.size(); t++) {
-			st.setObject(t, al.get(t));
+	public static List<SaveFailure> saveAll(List<? extends TableRepresentation> trs) throws SQLException {
+		return saveAll(trs, DEFAULT_BATCH_SIZE);
+	}
+
+	private static void executeBatch(Connection db, boolean postgres, String query, List<TableRepresentation> rows, List<ArrayList<Object>> params, List<SaveFailure> failures) throws SQLException {
+		Savepoint savepoint = postgres && !db.getAutoCommit() ? db.setSavepoint() : null;
+		PreparedStatement ps = StatementCache.prepare(db, query);
+		try {
+			for (ArrayList<Object> al : params) {
+				for (int t = 1; t < al.size(); t++) {
+					ps.setObject(t, al.get(t));
+				}
+				ps.addBatch();
+			}
+
+			try {
+				ps.executeBatch();
+				if (savepoint != null) {
+					db.releaseSavepoint(savepoint);
+				}
+				for (TableRepresentation tr : rows) {
+					tr.saved();
+				}
+			}
+			catch (BatchUpdateException bue) {
+				ps.clearBatch();
+				int[] counts = bue.getUpdateCounts();
+				if (postgres) {
+					// Nothing in the batch went in: in auto commit it was a transaction of its own, and
+					// otherwise we go back to before it so the transaction can carry on
+					if (savepoint != null) {
+						db.rollback(savepoint);
+					}
+					int failed = firstFailure(counts);
+					if (failed < 0 || failed >= rows.size()) {
+						// We can't tell which row it was
+						for (TableRepresentation tr : rows) {
+							failed(tr, query, bue, failures);
+						}
+						return;
+					}
+					failed(rows.get(failed), query, bue, failures);
+					if (rows.size() > 1) {
+						List<TableRepresentation> restRows = new ArrayList<TableRepresentation>(rows);
+						List<ArrayList<Object>> restParams = new ArrayList<ArrayList<Object>>(params);
+						restRows.remove(failed);
+						restParams.remove(failed);
+						ps.close();
+						executeBatch(db, postgres, query, restRows, restParams, failures);
+					}
+				}
+				else if (counts == null || counts.length < rows.size()) {
+					// The driver stopped at the failure, so everything after it still needs sending
+					int failed = counts == null ? 0 : counts.length;
+					for (int t = 0; t < failed; t++) {
+						rows.get(t).saved();
+					}
+					failed(rows.get(failed), query, bue, failures);
+					if (failed + 1 < rows.size()) {
+						ps.close();
+						executeBatch(db, postgres, query, rows.subList(failed + 1, rows.size()), params.subList(failed + 1, params.size()), failures);
+					}
+				}
+				else {
+					// The driver carried on and marked each row that failed
+					for (int t = 0; t < counts.length; t++) {
+						if (counts[t] == Statement.EXECUTE_FAILED) {
+							failed(rows.get(t), query, bue, failures);
+						}
+						else {
+							rows.get(t).saved();
+						}
+					}
+				}
+			}
+		}
+		finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * @return the row of a batch that failed going by its update counts, the first marked as failed or
+	 * else the one after the last counted, or -1 if there aren't any counts
+	 */
+	private static int firstFailure(int[] counts) {
+		if (counts == null) {
+			return -1;
 		}
-		ResultSet rs = st.executeQuery();
-		ResultSetMetaData rsmd = rs.getMetaData();
-		while (rs.next()) {
-			for (int t = 1; t <= rsmd.getColumnCount(); t++) {
-				tableData.put(rsmd.getColumnName(t), rs.getObject(t));
+		for (int t = 0; t < counts.length; t++) {
+			if (counts[t] == Statement.EXECUTE_FAILED) {
+				return t;
 			}
 		}
+		return counts.length;
+	}
+
+	private static void failed(TableRepresentation tr, String query, SQLException se, List<SaveFailure> failures) throws SQLException {
+		if (!tr.ignoreExceptions) {
+			throw se;
+		}
+		log.warn("Failed query " + query + " : " + se.getMessage());
+		failures.add(new SaveFailure(tr, se));
 	}
 
 	/**
-	 * Save the object to the database
+	 * Work out the statement save() needs to run: an insert if there's no row with our primary key,
+	 * otherwise an update of the columns that have changed.  This is where the existing row is looked
+	 * for and any missing primary key taken from its sequence.  If we loaded or saved the row ourselves
+	 * we already know it's there and which columns have been set since, so it isn't read again.
+	 *
+	 * @return the statement followed by its parameters, or null if there's nothing to save
 	 */
-	public void save() throws SQLException {
+	protected ArrayList<Object> buildSave() throws SQLException {
+		returnKey = null;
 		if (dataInvalid) {
 			log.info("I:" + invalidMsg);
-			return;
+			return null;
 		}
 
 		if (db == null) {
@@ -306,19 +581,45 @@ public class TableRepresentation implements Map<String, Object> {
 			runCheck=false;
 		}
 
+		// The database can tell insert from update itself, which saves the select
+		if (runCheck && useUpsert && !useOptimisticLocking && getUpsertBuilder() != null) {
+			return buildUpsert();
+		}
+
+		// We know the row is there and what we've changed since, so there's nothing to read
+		if (runCheck && persisted && !isKeyDirty()) {
+			TreeMap<String, Object> updateVals = getUpdateValues();
+			if (updateVals.isEmpty()) {
+				if (debug) {
+					System.out.println("E");
+				}
+				return null;
+			}
+			checkOptimisticLock();
+			return buildUpdate(updateVals);
+		}
+
 		boolean doUpdate = runCheck;
+		PreparedStatement stmt = null;
 		ResultSet rs = null;
 		if (runCheck) {
 			// Figure out if we have an existing row that matches our pkey
 			ArrayList<Object> al = buildTableSelect();
 			String query = (String) al.get(0);
-			PreparedStatement stmt = db.prepareStatement(query);
+			stmt = StatementCache.prepare(db, query);
 			for (int t = 1; t < al.size(); t++) {
 				stmt.setObject(t, al.get(t));
 			}
-			rs = stmt.executeQuery();
+			try {
+				rs = stmt.executeQuery();
+			}
+			catch (SQLException se) {
+				stmt.close();
+				throw se;
+			}
 
 			if (!rs.next()) {
+				stmt.close();
 				doUpdate = false;
 				if (debug) {
 					System.out.println("N");
@@ -331,76 +632,34 @@ public class TableRepresentation implements Map<String, Object> {
 		al.add("");
 		if (doUpdate) {
 			TreeMap<String, Object> updateVals = new TreeMap<String, Object>();
-			ResultSetMetaData rsmd = rs.getMetaData();
-			String s = null;
-			for (int t = 0; t < rsmd.getColumnCount(); t++) {
-				s = rsmd.getColumnName(t + 1);
-				/* Don't update if we are null and system is not
-							if (tableData.get(s)==null && rs.getString(t+1)!=null) {
-							  log.info("Mine is null, System is:"+rs.getString(t+1));
-							  updateVals.put(s,tableData.get(s));
-							}
-							*/
-				//log.info("For '"+s+"' Mine :"+tableData.get(s)+" System:"+rs.getString(t+1));
-				if (tableData.get(s) != null && !(tableData.get(s)).equals(rs.getObject(t + 1))) {
-					updateVals.put(s, tableData.get(s));
-				}
-				if (forceColumns.get(s) != null || (globalUpdate && unforceColumns.get(s) == null)) {
-					updateVals.put(s, tableData.get(s));
+			try {
+				ResultSetMetaData rsmd = rs.getMetaData();
+				String s = null;
+				for (int t = 0; t < rsmd.getColumnCount(); t++) {
+					s = rsmd.getColumnName(t + 1);
+					/* Don't update if we are null and system is not
+								if (tableData.get(s)==null && rs.getString(t+1)!=null) {
+								  log.info("Mine is null, System is:"+rs.getString(t+1));
+								  updateVals.put(s,tableData.get(s));
+								}
+								*/
+					//log.info("For '"+s+"' Mine :"+tableData.get(s)+" System:"+rs.getString(t+1));
+					if (tableData.get(s) != null && !(tableData.get(s)).equals(rs.getObject(t + 1))) {
+						updateVals.put(s, tableData.get(s));
+					}
+					if (forceColumns.get(s) != null || (globalUpdate && unforceColumns.get(s) == null)) {
+						updateVals.put(s, tableData.get(s));
+					}
 				}
 			}
+			finally {
+				stmt.close();
+			}
 
 			// If we have columns that need updating
 			if (!updateVals.isEmpty()) {
-				if (useOptimisticLocking) {
-					StringBuffer sb = new StringBuffer();
-					sb.append("select "+optimisticLock+">? from "+tableName+" where ");
-					for (String x : pkey) {
-						sb.append(x);
-						sb.append("=? and ");
-					}
-					PreparedStatement olStmt = db.prepareStatement(sb.substring(0,sb.length()-4));
-					for (int c = 0; c<pkey.length; c++) {
-						olStmt.setObject(c+1, getObject(pkey[c]));
-					}
-					ResultSet olRs = olStmt.executeQuery();
-					if (olRs.next()) {
-						if (olRs.getBoolean(1)) {
-							throw new ConcurrentRowUpdateException("Failed to update "+tableName+", data in database is newer than the record we were asked to save");
-						}
-					}
-				}
-
-				query.append("update ");
-				query.append(tableName);
-				query.append(" set ");
-				Set<String> uks = updateVals.keySet();
-				Iterator<String> it = uks.iterator();
-				//System.out.print("(");
-				while (it.hasNext()) {
-					String key = (String) it.next();
-					//System.out.print(key+",");
-					if (tableData.get(key) == null) {
-						query.append(key);
-						query.append("=null, ");
-					} else {
-						query.append(key);
-						query.append("=?, ");
-						al.add(updateVals.get(key));
-					}
-				}
-				//System.out.println(")");
-
-				query = new StringBuffer(query.substring(0, query.length() - 2));
-
-				query.append(" where ");
-				for (int t = 0; t < pkey.length; t++) {
-					Object pkeyData = tableData.get(pkey[t]);
-					query.append(pkey[t]);
-					query.append("=? and ");
-					al.add(pkeyData);
-				}
-				query = new StringBuffer(query.substring(0, query.length() - 5));
+				checkOptimisticLock();
+				return buildUpdate(updateVals);
 			}
 			else {
 				if (debug) {
@@ -410,18 +669,16 @@ public class TableRepresentation implements Map<String, Object> {
 		} else {
 			for (int t = 0; t < pkey.length; t++) {
 				if (tableData.get(pkey[t]) == null) {
-					Statement stmt = db.createStatement();
-					rs = stmt.executeQuery("select nextval('" + pkey[t] + "_seq')");
-					rs.next();
-					if (tableTypes.get(pkey[t]) == Long.class) {
-						tableData.put(pkey[t], rs.getLong(1));
-					}
-					else if (tableTypes.get(pkey[t]) == Integer.class) {
-						tableData.put(pkey[t], rs.getInt(1));
-					}
-					else {
-						throw new PersistenceException("Type of pkey '"+pkey[t]+"' is "+tableTypes.get(pkey[t])+" which I can't convert a sequence result to");
+					Guidance g = metaData == null ? null : metaData.getTableGuidance().get(pkey[t]);
+					// Drivers report serial columns as auto increment too, but those have a sequence in
+					// their default we can take a block of keys from
+					if (g != null && g.isAutoIncrement() && SequenceAllocator.parseSequenceName(g.getDefaultValue()) == null
+							&& returnKey == null && isInsertReturning()) {
+						// No sequence we can call, the database has to make it and tell us
+						returnKey = pkey[t];
+						continue;
 					}
+					setKey(pkey[t], SequenceAllocator.getAllocator(db, getSequenceName(pkey[t])).next(db));
 				}
 			}
 
@@ -432,6 +689,9 @@ public class TableRepresentation implements Map<String, Object> {
 			Iterator<String> it = tableData.keySet().iterator();
 			while (it.hasNext()) {
 				String key = it.next();
+				if (key.equals(returnKey)) {
+					continue;
+				}
 				query.append(key);
 				query.append(",");
 
@@ -449,27 +709,193 @@ public class TableRepresentation implements Map<String, Object> {
 			query.append(") values (");
 			query.append(sb.toString());
 			query.append(")");
+			if (returnKey != null) {
+				query.append(" returning ");
+				query.append(returnKey);
+			}
 		}
 
-		if (query.toString() != "") {
-			PreparedStatement ps = db.prepareStatement(query.toString());
-			if (debug) {
-				log.info("Query " + query.toString());
+		// Nothing has changed
+		if (query.length() == 0) {
+			return null;
+		}
+
+		al.set(0, query.toString());
+		return al;
+	}
+
+	/**
+	 * The columns to update for a row we've loaded or saved: the ones set to something other than null
+	 * since, and any that are forced.  Setting a column to null isn't enough by itself to update it, the
+	 * same as when the row is read and compared, it has to be forced.
+	 */
+	private TreeMap<String, Object> getUpdateValues() {
+		TreeMap<String, Object> updateVals = new TreeMap<String, Object>();
+		for (Map.Entry<String, Object> e : tableData.entrySet()) {
+			String s = e.getKey();
+			if (dirtyColumns.contains(s) && e.getValue() != null) {
+				updateVals.put(s, e.getValue());
 			}
-			try {
-				for (int t = 1; t < al.size(); t++) {
-					ps.setObject(t, al.get(t));
-				}
-				ps.executeUpdate();
+			if (forceColumns.get(s) != null || (globalUpdate && unforceColumns.get(s) == null)) {
+				updateVals.put(s, e.getValue());
 			}
-			catch (SQLException se) {
-				System.out.println("Failed query " + query + " : " + se.getMessage());
-				se.printStackTrace();
-				if (!ignoreExceptions) {
-					throw se;
+		}
+		return updateVals;
+	}
+
+	private boolean isKeyDirty() {
+		for (String s : pkey) {
+			if (dirtyColumns.contains(s)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Make sure the row in the database isn't newer than ours, if we're using optimistic locking
+	 */
+	private void checkOptimisticLock() throws SQLException {
+		if (!useOptimisticLocking) {
+			return;
+		}
+		StringBuffer sb = new StringBuffer();
+		sb.append("select "+optimisticLock+">? from "+tableName+" where ");
+		for (String x : pkey) {
+			sb.append(x);
+			sb.append("=? and ");
+		}
+		PreparedStatement olStmt = StatementCache.prepare(db, sb.substring(0,sb.length()-4));
+		try {
+			for (int c = 0; c<pkey.length; c++) {
+				olStmt.setObject(c+1, getObject(pkey[c]));
+			}
+			ResultSet olRs = olStmt.executeQuery();
+			if (olRs.next()) {
+				if (olRs.getBoolean(1)) {
+					throw new ConcurrentRowUpdateException("Failed to update "+tableName+", data in database is newer than the record we were asked to save");
 				}
 			}
 		}
+		finally {
+			olStmt.close();
+		}
+	}
+
+	/**
+	 * Build an update of the given columns of our row
+	 *
+	 * @return the statement followed by its parameters
+	 */
+	private ArrayList<Object> buildUpdate(TreeMap<String, Object> updateVals) {
+		StringBuffer query = new StringBuffer("");
+		ArrayList<Object> al = new ArrayList<Object>();
+		al.add("");
+
+		query.append("update ");
+		query.append(tableName);
+		query.append(" set ");
+		Set<String> uks = updateVals.keySet();
+		Iterator<String> it = uks.iterator();
+		//System.out.print("(");
+		while (it.hasNext()) {
+			String key = (String) it.next();
+			//System.out.print(key+",");
+			if (tableData.get(key) == null) {
+				query.append(key);
+				query.append("=null, ");
+			} else {
+				query.append(key);
+				query.append("=?, ");
+				al.add(updateVals.get(key));
+			}
+		}
+		//System.out.println(")");
+
+		query = new StringBuffer(query.substring(0, query.length() - 2));
+
+		query.append(" where ");
+		for (int t = 0; t < pkey.length; t++) {
+			Object pkeyData = tableData.get(pkey[t]);
+			query.append(pkey[t]);
+			query.append("=? and ");
+			al.add(pkeyData);
+		}
+		query = new StringBuffer(query.substring(0, query.length() - 5));
+
+		al.set(0, query.toString());
+		return al;
+	}
+
+	/**
+	 * Build an upsert of our row.  The columns to update are the ones save() would update without
+	 * reading the row: those we've set to something other than null since we last loaded or saved it,
+	 * and any that are forced.  If we've never loaded the row we can't tell what's changed, so every
+	 * column we have a value for is updated.  A row we've loaded and not changed isn't saved at all.
+	 *
+	 * @return the statement followed by its parameters, or null if there's nothing to save
+	 */
+	protected ArrayList<Object> buildUpsert() throws SQLException {
+		Set<String> keys = new HashSet<String>(Arrays.asList(pkey));
+		TreeSet<String> updateColumns = new TreeSet<String>();
+		for (Map.Entry<String, Object> e : tableData.entrySet()) {
+			String s = e.getKey();
+			if (keys.contains(s)) {
+				continue;
+			}
+			if (e.getValue() != null && (!persisted || dirtyColumns.contains(s))) {
+				updateColumns.add(s);
+			}
+			if (forceColumns.get(s) != null || (globalUpdate && unforceColumns.get(s) == null)) {
+				updateColumns.add(s);
+			}
+		}
+
+		if (persisted && updateColumns.isEmpty()) {
+			if (debug) {
+				System.out.println("E");
+			}
+			return null;
+		}
+
+		return getUpsertBuilder().buildUpsert(tableName, pkey, tableData, updateColumns);
+	}
+
+	/**
+	 * The sequence a primary key column takes its values from: the one in its default if it has one,
+	 * otherwise the column name followed by _seq
+	 */
+	protected String getSequenceName(String column) {
+		Guidance g = metaData == null ? null : metaData.getTableGuidance().get(column);
+		String sequence = g == null ? null : SequenceAllocator.parseSequenceName(g.getDefaultValue());
+		return sequence == null ? column + "_seq" : sequence;
+	}
+
+	private void setKey(String column, long value) {
+		if (tableTypes.get(column) == Long.class) {
+			tableData.put(column, value);
+		}
+		else if (tableTypes.get(column) == Integer.class) {
+			tableData.put(column, (int)value);
+		}
+		else {
+			throw new PersistenceException("Type of pkey '"+column+"' is "+tableTypes.get(column)+" which I can't convert a sequence result to");
+		}
+	}
+
+	private boolean isInsertReturning() throws SQLException {
+		if (insertReturning == null) {
+			insertReturning = db.getMetaData().getDatabaseProductName().equals("PostgreSQL");
+		}
+		return insertReturning;
+	}
+
+	private UpsertBuilder getUpsertBuilder() throws SQLException {
+		if (!upsertBuilderChecked) {
+			upsertBuilder = UpsertBuilderFactory.getUpsertBuilder(db);
+			upsertBuilderChecked = true;
+		}
+		return upsertBuilder;
 	}
 
 	public ArrayList<Object> buildTableSelect() {
@@ -514,7 +940,7 @@ public class TableRepresentation implements Map<String, Object> {
 		if (tableTypes.containsKey(inField)) {
 			// Null is valid, and doesn't need parsing
 			if (inData == null) {
-				tableData.put(inField, inData);
+				setData(inField, inData);
 				return;
 			}
 
@@ -526,19 +952,19 @@ public class TableRepresentation implements Map<String, Object> {
 					log.info("Setting Data to " + c + " class");
 				}
 				if (c.equals(String.class)) {
-					tableData.put(inField, inData);
+					setData(inField, inData);
 				}
 				else if (c.equals(Integer.class)) {
-					tableData.put(inField, Integer.parseInt(inData));
+					setData(inField, Integer.parseInt(inData));
 				}
 				else if (c.equals(Long.class)) {
-					tableData.put(inField, Long.parseLong(inData));
+					setData(inField, Long.parseLong(inData));
 				}
 				else if (c.equals(Double.class)) {
-					tableData.put(inField, Double.parseDouble(inData));
+					setData(inField, Double.parseDouble(inData));
 				}
 				else if (c.equals(Float.class)) {
-					tableData.put(inField, Float.parseFloat(inData));
+					setData(inField, Float.parseFloat(inData));
 				}
 				else if (c.equals(java.sql.Date.class)) {
 					SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy");
@@ -554,7 +980,7 @@ public class TableRepresentation implements Map<String, Object> {
 					try {
 						java.util.Date d = sdf.parse(inData);
 						java.sql.Date sd = new java.sql.Date(d.getTime());
-						tableData.put(inField, sd);
+						setData(inField, sd);
 					}
 					catch (ParseException pe) {
 						throw new RuntimeException("Failed to parse date " + inData+" for type Date");
@@ -599,7 +1025,7 @@ public class TableRepresentation implements Map<String, Object> {
 					try {
 						java.util.Date d = sdf.parse(inData);
 						java.sql.Timestamp st = new java.sql.Timestamp(d.getTime());
-						tableData.put(inField, st);
+						setData(inField, st);
 					}
 					catch (ParseException pe) {
 						throw new RuntimeException("Failed to parse date " + inData+" for type Timestamp");
@@ -618,7 +1044,7 @@ public class TableRepresentation implements Map<String, Object> {
 					} else if (inData.equals("Y")) {
 						b = true;
 					}
-					tableData.put(inField, b);
+					setData(inField, b);
 				}
 			}
 			catch (NumberFormatException nfe) {
@@ -637,7 +1063,7 @@ public class TableRepresentation implements Map<String, Object> {
 	 * @param inData  What to set it to
 	 */
 	public void set(String inField, int inData) {
-		tableData.put(inField, new Integer(inData));
+		setData(inField, new Integer(inData));
 	}
 
 	/**
@@ -647,7 +1073,7 @@ public class TableRepresentation implements Map<String, Object> {
 	 * @param inData  What to set it to
 	 */
 	public void set(String inField, long inData) {
-		tableData.put(inField, new Long(inData));
+		setData(inField, new Long(inData));
 	}
 
 	/**
@@ -658,9 +1084,9 @@ public class TableRepresentation implements Map<String, Object> {
 	 */
 	public void setBoolean(String inField, Boolean b) {
 		if (b.booleanValue()) {
-			tableData.put(inField, "t");
+			setData(inField, "t");
 		} else {
-			tableData.put(inField, "f");
+			setData(inField, "f");
 		}
 	}
 
@@ -682,7 +1108,7 @@ public class TableRepresentation implements Map<String, Object> {
 	 */
 	public void setYN(String inField, String inData) {
 		if (inData == null) {
-			tableData.put(inField, inData);
+			setData(inField, inData);
 			return;
 		}
 		if (inData.equals("Y")) {
@@ -695,7 +1121,7 @@ public class TableRepresentation implements Map<String, Object> {
 			setBoolean(inField, false);
 		} else {
 			log.warn("warning didn't find Y or N for bool, found '" + inData + "'");
-			tableData.put(inField, inData);
+			setData(inField, inData);
 		}
 	}
 
@@ -710,7 +1136,7 @@ public class TableRepresentation implements Map<String, Object> {
 		String day = inData.substring(3, 5);
 		String year = inData.substring(6);
 
-		tableData.put(inField, year + "-" + month + "-" + day);
+		setData(inField, year + "-" + month + "-" + day);
 	}
 
 	/**
@@ -725,7 +1151,7 @@ public class TableRepresentation implements Map<String, Object> {
 			set(inField, s);
 		} else {
 			//System.out.println("Settings " + inField + " to " + inData);
-			tableData.put(inField, inData);
+			setData(inField, inData);
 		}
 	}
 
@@ -786,6 +1212,8 @@ public class TableRepresentation implements Map<String, Object> {
 	 */
 	public void setDatabase(Connection inDb) {
 		db = inDb;
+		upsertBuilderChecked = false;
+		insertReturning = null;
 	}
 
 	/**
@@ -970,13 +1398,16 @@ public class TableRepresentation implements Map<String, Object> {
 	}
 
 	public void putAll(Map<? extends String, ? extends Object> m) {
-		tableData.putAll(m);
+		for (Map.Entry<? extends String, ? extends Object> e : m.entrySet()) {
+			setData(e.getKey(), e.getValue());
+		}
 	}
 
 	public Object remove(Object k) {
 		Object o = tableData.get(k);
 		tableData.remove(k);
 		tableTypes.remove(k);
+		dirtyColumns.remove(k);
 		return o;
 	}
 
@@ -986,7 +1417,7 @@ public class TableRepresentation implements Map<String, Object> {
 
 	/**
 	 * Reset this object for re-use
-	 *   resets tableData, tableType, tableGuidance, unforceColumns, forceColumns and globalUpdate
+	 *   resets tableData, tableType, tableGuidance, unforceColumns, forceColumns, globalUpdate and the dirty columns
 	 */
 	public void clear() {
 		tableData.clear();
@@ -994,6 +1425,8 @@ public class TableRepresentation implements Map<String, Object> {
 		unforceColumns.clear();
 		forceColumns.clear();
 		globalUpdate=false;
+		dirtyColumns.clear();
+		persisted=false;
 	}
 
 	public String[] getPrimaryKeys() {
@@ -1021,6 +1454,10 @@ public class TableRepresentation implements Map<String, Object> {
 		tableTypes.remove(oldName);
 		tableData.remove(oldName);
 		metaData.getTableGuidance().remove(oldName);
+
+		if (dirtyColumns.remove(oldName)) {
+			dirtyColumns.add(newName);
+		}
 	}
 
 	/** Fetch all the rows from this table and put them in a ResultsData object
@@ -1038,8 +1475,7 @@ public class TableRepresentation implements Map<String, Object> {
 	}
 
 	/** Fetch all the rows from this table and put them in a ResultsData object
-	 * Don't use this if the table is big, use a CursorData object instead
-	 * TODO build a CursorData object for operation with a cursor
+	 * Don't use this if the table is big, use fetchCursor() instead
 	 * @param order An order by string to pass to the SQL Query TODO make this less SQLy and use column/order pairs instead
 	 * @return A ResultsData object with all the data loaded in it
 	 * @throws SQLException thrown if the object could not load the data from the database for some reason
@@ -1058,7 +1494,7 @@ public class TableRepresentation implements Map<String, Object> {
 
 	/** Fetch all the rows from this table and put them in a ResultsData object given a pre-existing QueryBuilder
 	 * that can be used to construct thinks like limit, order by and where clauses before being passed in
-	 * Don't use this if the table is big, use a CursorData object instead
+	 * Don't use this if the table is big, use fetchCursor() instead
 	 * @param queryBuilder b A query builder object
 	 * @return A ResultsData object with all the data loaded in it
 	 * @throws SQLException thrown if the object could not load the data from the database for some reason
@@ -1072,6 +1508,37 @@ public class TableRepresentation implements Map<String, Object> {
 		return new ResultsData(db, queryBuilder);
 	}
 
+	/** Open a cursor over all the rows from this table, ordered by primary key, which reads them as
+	 * they are iterated over instead of all at once
+	 * @return A CursorData object, which must be closed if it isn't read to the end
+	 * @throws SQLException thrown if the query could not be run
+	 */
+	public CursorData fetchCursor() throws SQLException {
+		StringBuffer order=new StringBuffer();
+		for (String a : pkey) {
+			order.append(a+" asc, ");
+		}
+		QueryBuilder qb=QueryBuilderFactory.getQueryBuilder(db);
+		String table=qb.addTable(tableName);
+		qb.addOrder(table, order.substring(0,order.length()-2), "");
+		return fetchCursor(qb, CursorData.DEFAULT_FETCH_SIZE);
+	}
+
+	/** Open a cursor over the rows from this table given a pre-existing QueryBuilder, like fetchTable(QueryBuilder)
+	 * @param queryBuilder A query builder object, with the table already added if it needs a where or order clause
+	 * @param fetchSize How many rows to read from the database at a time
+	 * @return A CursorData object, which must be closed if it isn't read to the end
+	 * @throws SQLException thrown if the query could not be run
+	 */
+	public CursorData fetchCursor(QueryBuilder queryBuilder, int fetchSize) throws SQLException {
+		String table=queryBuilder.addTable(tableName);
+		for (String column : tableData.keySet()) {
+			queryBuilder.addColumn(table, column);
+		}
+
+		return new CursorData(db, queryBuilder, fetchSize);
+	}
+
 	public String[] getPkey() {
 		return pkey;
 	}
@@ -1090,6 +1557,7 @@ public class TableRepresentation implements Map<String, Object> {
 	 */
 	public void unset(String key) {
 		tableData.remove(key);
+		dirtyColumns.remove(key);
 	}
 
 	public String getOptimisticLock() {
@@ -1108,6 +1576,20 @@ public class TableRepresentation implements Map<String, Object> {
 		this.useOptimisticLocking = useOptimisticLocking;
 	}
 
+	public boolean isUseUpsert() {
+		return useUpsert;
+	}
+
+	/**
+	 * Save with a single upsert statement rather than selecting the row first to see whether to insert
+	 * or update it.  Only for databases UpsertBuilderFactory knows, PostgreSQL from 9.5, and not with
+	 * optimistic locking, which still needs the select; otherwise save() carries on as before.  The
+	 * primary key needs to be a unique constraint in the database for this to work.
+	 */
+	public void setUseUpsert(boolean useUpsert) {
+		this.useUpsert = useUpsert;
+	}
+
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
 		sb.append("TableRepresentation for table '");
@@ -1144,14 +1626,22 @@ public class TableRepresentation implements Map<String, Object> {
 
     public void setDb(Connection db) {
         this.db = db;
+        upsertBuilderChecked = false;
+        insertReturning = null;
     }
 
     public TreeMap<String, Object> getTableData() {
         return tableData;
     }
 
+    /**
+     * Replace the row wholesale.  We can't tell what's changed after this, so the next save reads
+     * the row to find out.
+     */
     public void setTableData(TreeMap<String, Object> tableData) {
         this.tableData = tableData;
+        dirtyColumns.clear();
+        persisted = false;
     }
 
     public TreeMap<String, Class> getTableTypes() {
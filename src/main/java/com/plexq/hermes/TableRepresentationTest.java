@@ -0,0 +1,444 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import org.junit.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TableRepresentationTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(TableRepresentationTest.class);
+    }
+
+    /**
+     * A database with no rows in it that writes down every batch it's sent, and can be told to fail
+     * rows with a given id the way PostgreSQL does, stopping the batch there
+     */
+    private static class Recorder implements InvocationHandler {
+        List<String> statements = new ArrayList<String>();
+        List<List<Object>> batches = new ArrayList<List<Object>>();
+        Set<Object> failIds = new HashSet<Object>();
+        String product = "PostgreSQL";
+        int majorVersion = 9;
+        int minorVersion = 6;
+        boolean autoCommit = true;
+        List<String> savepoints = new ArrayList<String>();
+        int queries = 0;
+        int sequenceQueries = 0;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("prepareStatement")) {
+                return statement((String)args[0]);
+            }
+            if (name.equals("getMetaData")) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DatabaseMetaData.class}, this);
+            }
+            if (name.equals("getDatabaseProductName")) {
+                return product;
+            }
+            if (name.equals("getDatabaseMajorVersion")) {
+                return majorVersion;
+            }
+            if (name.equals("getDatabaseMinorVersion")) {
+                return minorVersion;
+            }
+            if (name.equals("isClosed")) {
+                return false;
+            }
+            if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            }
+            if (name.equals("setSavepoint") || name.equals("rollback") || name.equals("releaseSavepoint")) {
+                savepoints.add(name);
+                return name.equals("setSavepoint") ? Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Savepoint.class}, this) : null;
+            }
+            if (name.equals("getURL")) {
+                return "jdbc:recorder";
+            }
+            if (name.equals("getUserName")) {
+                return "test";
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        PreparedStatement statement(final String sql) {
+            return (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {PreparedStatement.class}, new InvocationHandler() {
+                Map<Integer, Object> params = new TreeMap<Integer, Object>();
+                List<Object> batch = new ArrayList<Object>();
+
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("setObject") || name.equals("setInt")) {
+                        params.put((Integer)args[0], args[1]);
+                        return null;
+                    }
+                    if (name.equals("clearParameters")) {
+                        params.clear();
+                        return null;
+                    }
+                    if (name.equals("executeQuery")) {
+                        if (sql.contains("nextval(")) {
+                            sequenceQueries++;
+                            return sequenceResultSet((Integer)params.get(1));
+                        }
+                        if (sql.contains(" returning ")) {
+                            statements.add(sql);
+                            batches.add(new ArrayList<Object>(params.values()));
+                            return keyResultSet(42L);
+                        }
+                        queries++;
+                        return emptyResultSet();
+                    }
+                    if (name.equals("executeUpdate")) {
+                        statements.add(sql);
+                        batches.add(new ArrayList<Object>(params.values()));
+                        return 1;
+                    }
+                    if (name.equals("clearBatch")) {
+                        batch.clear();
+                        return null;
+                    }
+                    if (name.equals("addBatch")) {
+                        // The id is the first column, so the first parameter
+                        batch.add(params.get(1));
+                        return null;
+                    }
+                    if (name.equals("executeBatch")) {
+                        statements.add(sql);
+                        List<Object> sent = new ArrayList<Object>(batch);
+                        batches.add(sent);
+                        batch.clear();
+                        for (int t = 0; t < sent.size(); t++) {
+                            if (failIds.contains(sent.get(t))) {
+                                int[] counts = new int[t];
+                                Arrays.fill(counts, 1);
+                                throw new BatchUpdateException("duplicate key", counts);
+                            }
+                        }
+                        int[] counts = new int[sent.size()];
+                        Arrays.fill(counts, 1);
+                        return counts;
+                    }
+                    if (name.equals("close")) {
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+        }
+
+        Connection connection() {
+            return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class}, this);
+        }
+    }
+
+    private static ResultSet emptyResultSet() {
+        return (ResultSet)Proxy.newProxyInstance(TableRepresentationTest.class.getClassLoader(), new Class[] {ResultSet.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("next")) {
+                    return false;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static ResultSet keyResultSet(final long key) {
+        return (ResultSet)Proxy.newProxyInstance(TableRepresentationTest.class.getClassLoader(), new Class[] {ResultSet.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("next")) {
+                    return true;
+                }
+                if (method.getName().equals("getLong")) {
+                    return key;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The values 1 to n, the way a block comes back from a sequence
+     */
+    private static ResultSet sequenceResultSet(final int n) {
+        return (ResultSet)Proxy.newProxyInstance(TableRepresentationTest.class.getClassLoader(), new Class[] {ResultSet.class}, new InvocationHandler() {
+            int position = 0;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("next")) {
+                    return ++position <= n;
+                }
+                if (method.getName().equals("getLong")) {
+                    return (long)position;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static TableMetadata customer() {
+        TableMetadata tm = new TableMetadata();
+        tm.getPrimaryKeys().add("id");
+        Guidance id = new Guidance();
+        id.setJavaSQLType(Types.BIGINT);
+        tm.addColumn("id", id);
+        Guidance name = new Guidance();
+        name.setJavaSQLType(Types.VARCHAR);
+        tm.addColumn("name", name);
+        return tm;
+    }
+
+    private static List<TableRepresentation> rows(Connection db, int n, boolean ignoreExceptions) {
+        List<TableRepresentation> trs = new ArrayList<TableRepresentation>();
+        for (int t = 0; t < n; t++) {
+            TableRepresentation tr = new TableRepresentation("customer", customer());
+            tr.setDatabase(db);
+            tr.setIgnoreExceptions(ignoreExceptions);
+            tr.setObject("id", (long)t);
+            // Every third row has no name, which makes for a different statement
+            tr.setObject("name", t % 3 == 0 ? null : "name " + t);
+            trs.add(tr);
+        }
+        return trs;
+    }
+
+    @Test
+    public void testGroupsByStatement() throws SQLException {
+        Recorder r = new Recorder();
+        List<SaveFailure> failures = TableRepresentation.saveAll(rows(r.connection(), 10, false), 4);
+
+        assertTrue(failures.isEmpty());
+        String withName = "insert into customer (id,name) values (?, ?)";
+        String withoutName = "insert into customer (id,name) values (?, null)";
+        // Each batch goes as soon as it's full, and what's left over at the end
+        assertEquals(Arrays.asList(withName, withoutName, withName), r.statements);
+        assertEquals(Arrays.<Object>asList(1L, 2L, 4L, 5L), r.batches.get(0));
+        assertEquals(Arrays.<Object>asList(0L, 3L, 6L, 9L), r.batches.get(1));
+        assertEquals(Arrays.<Object>asList(7L, 8L), r.batches.get(2));
+    }
+
+    @Test
+    public void testFailuresReportedWhenIgnored() throws SQLException {
+        Recorder r = new Recorder();
+        r.failIds.add(2L);
+        r.failIds.add(7L);
+        List<TableRepresentation> trs = rows(r.connection(), 10, true);
+        List<SaveFailure> failures = TableRepresentation.saveAll(trs, 100);
+
+        assertEquals(2, failures.size());
+        assertSame(trs.get(2), failures.get(0).getTableRepresentation());
+        assertSame(trs.get(7), failures.get(1).getTableRepresentation());
+        assertTrue(failures.get(0).getException() instanceof BatchUpdateException);
+        // PostgreSQL undid the whole batch, so it was sent again each time without the row that failed
+        assertEquals(Arrays.<Object>asList(1L, 2L, 4L, 5L, 7L, 8L), r.batches.get(1));
+        assertEquals(Arrays.<Object>asList(1L, 4L, 5L, 7L, 8L), r.batches.get(2));
+        assertEquals(Arrays.<Object>asList(1L, 4L, 5L, 8L), r.batches.get(3));
+        assertEquals(4, r.batches.size());
+        assertTrue(trs.get(1).getDirtyColumns().isEmpty());
+        assertFalse(trs.get(2).getDirtyColumns().isEmpty());
+        // In auto commit there's no transaction to save
+        assertTrue(r.savepoints.isEmpty());
+    }
+
+    @Test
+    public void testFailedBatchRolledBackToSavepoint() throws SQLException {
+        Recorder r = new Recorder();
+        r.autoCommit = false;
+        r.failIds.add(2L);
+        List<SaveFailure> failures = TableRepresentation.saveAll(rows(r.connection(), 3, true), 100);
+
+        assertEquals(1, failures.size());
+        assertEquals(Arrays.<Object>asList(1L, 2L), r.batches.get(1));
+        assertEquals(Arrays.<Object>asList(1L), r.batches.get(2));
+        // One for each batch, the failed one rolled back and the rest released
+        assertEquals(Arrays.asList("setSavepoint", "releaseSavepoint", "setSavepoint", "rollback", "setSavepoint", "releaseSavepoint"), r.savepoints);
+    }
+
+    @Test
+    public void testRestSentWhenDriverStops() throws SQLException {
+        Recorder r = new Recorder();
+        r.product = "Oracle";
+        r.failIds.add(2L);
+        List<TableRepresentation> trs = rows(r.connection(), 6, true);
+        List<SaveFailure> failures = TableRepresentation.saveAll(trs, 100);
+
+        assertEquals(1, failures.size());
+        // The rows before the failure went in, and the ones after were sent in a batch of their own
+        assertEquals(Arrays.<Object>asList(1L, 2L, 4L, 5L), r.batches.get(1));
+        assertEquals(Arrays.<Object>asList(4L, 5L), r.batches.get(2));
+        assertTrue(trs.get(1).getDirtyColumns().isEmpty());
+        assertTrue(r.savepoints.isEmpty());
+    }
+
+    @Test
+    public void testFailureThrownWhenNotIgnored() throws SQLException {
+        Recorder r = new Recorder();
+        r.failIds.add(2L);
+        try {
+            TableRepresentation.saveAll(rows(r.connection(), 10, false), 100);
+            fail("Expected the batch failure");
+        }
+        catch (BatchUpdateException bue) {
+            assertEquals(1, bue.getUpdateCounts().length);
+        }
+    }
+
+    @Test
+    public void testUpsertOnPostgresql() throws SQLException {
+        Recorder r = new Recorder();
+        TableRepresentation tr = rows(r.connection(), 2, false).get(1);
+        tr.setUseUpsert(true);
+
+        tr.save();
+        assertEquals(0, r.queries);
+        assertEquals("insert into customer (id,name) values (?, ?) on conflict (id) do update set name=excluded.name", r.statements.get(0));
+        assertEquals(Arrays.<Object>asList(1L, "name 1"), r.batches.get(0));
+
+        // Nothing has changed since, so there's nothing to do
+        tr.save();
+        assertEquals(1, r.statements.size());
+
+        tr.setObject("name", null);
+        tr.save();
+        assertEquals(1, r.statements.size());
+
+        tr.forceColumnUpdate("name");
+        tr.save();
+        assertEquals("insert into customer (id,name) values (?, null) on conflict (id) do update set name=excluded.name", r.statements.get(1));
+        assertEquals(0, r.queries);
+    }
+
+    @Test
+    public void testUpsertOnOracle() throws SQLException {
+        Recorder r = new Recorder();
+        r.product = "Oracle";
+        TableRepresentation tr = rows(r.connection(), 2, false).get(1);
+        tr.setUseUpsert(true);
+
+        tr.save();
+        assertEquals("merge into customer t using (select ? id, ? name from dual) s on (t.id=s.id) when matched then update set t.name=s.name when not matched then insert (id,name) values (s.id, s.name)", r.statements.get(0));
+        assertEquals(0, r.queries);
+    }
+
+    @Test
+    public void testOldPostgresqlFallsBack() throws SQLException {
+        Recorder r = new Recorder();
+        r.majorVersion = 9;
+        r.minorVersion = 4;
+        TableRepresentation tr = rows(r.connection(), 2, false).get(1);
+        tr.setUseUpsert(true);
+
+        tr.save();
+        // No on conflict before 9.5, so the row is looked for first
+        assertEquals(1, r.queries);
+        assertEquals("insert into customer (id,name) values (?, ?)", r.statements.get(0));
+    }
+
+    @Test
+    public void testNoUpsertFallsBack() throws SQLException {
+        Recorder r = new Recorder();
+        r.product = "Microsoft SQL Server";
+        TableRepresentation tr = rows(r.connection(), 2, false).get(1);
+        tr.setUseUpsert(true);
+
+        tr.save();
+        assertEquals(1, r.queries);
+        assertEquals("insert into customer (id,name) values (?, ?)", r.statements.get(0));
+    }
+
+    @Test
+    public void testIdentityKeyReturned() throws SQLException {
+        Recorder r = new Recorder();
+        TableMetadata tm = customer();
+        tm.getTableGuidance().get("id").setAutoIncrement(true);
+        TableRepresentation tr = new TableRepresentation("customer", tm);
+        tr.setDatabase(r.connection());
+        tr.setObject("name", "someone");
+
+        tr.save();
+        assertEquals("insert into customer (name) values (?) returning id", r.statements.get(0));
+        assertEquals(Arrays.<Object>asList("someone"), r.batches.get(0));
+        assertEquals(42L, tr.get("id"));
+    }
+
+    @Test
+    public void testDirtyColumnsUpdatedWithoutRead() throws SQLException {
+        Recorder r = new Recorder();
+        TableRepresentation tr = rows(r.connection(), 2, false).get(1);
+
+        tr.save();
+        assertEquals(1, r.queries);
+        assertEquals("insert into customer (id,name) values (?, ?)", r.statements.get(0));
+        assertTrue(tr.getDirtyColumns().isEmpty());
+
+        // The same value again isn't a change
+        tr.setObject("name", "name 1");
+        assertFalse(tr.isDirty("name"));
+        tr.save();
+        assertEquals(1, r.statements.size());
+
+        tr.set("name", "someone else");
+        assertTrue(tr.isDirty("name"));
+        tr.save();
+        assertEquals("update customer set name=? where id=?", r.statements.get(1));
+        assertEquals(Arrays.<Object>asList("someone else", 1L), r.batches.get(1));
+        assertEquals(1, r.queries);
+        assertFalse(tr.isDirty("name"));
+
+        // Forcing still works without anything being set
+        tr.forceColumnUpdate("name");
+        tr.save();
+        assertEquals("update customer set name=? where id=?", r.statements.get(2));
+        assertEquals(1, r.queries);
+    }
+
+    @Test
+    public void testSerialKeyTakenFromSequence() throws SQLException {
+        SequenceAllocator.clear();
+        Recorder r = new Recorder();
+        Connection db = r.connection();
+        List<TableRepresentation> trs = new ArrayList<TableRepresentation>();
+        for (int t = 0; t < 3; t++) {
+            // What a JDBC 4 driver reports for a serial column
+            TableMetadata tm = customer();
+            Guidance id = tm.getTableGuidance().get("id");
+            id.setAutoIncrement(true);
+            id.setDefaultValue("nextval('customer_id_seq'::regclass)");
+            TableRepresentation tr = new TableRepresentation("customer", tm);
+            tr.setDatabase(db);
+            tr.setObject("name", "name " + t);
+            trs.add(tr);
+        }
+
+        assertTrue(TableRepresentation.saveAll(trs, 10).isEmpty());
+        // One block from the sequence, and the rows sent in one batch without returning
+        assertEquals(1, r.sequenceQueries);
+        assertEquals(Arrays.asList("insert into customer (id,name) values (?, ?)"), r.statements);
+        assertEquals(Arrays.<Object>asList(1L, 2L, 3L), r.batches.get(0));
+        assertEquals(3L, trs.get(2).get("id"));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a single statement that inserts a row, or updates it if a row with the same primary key is
+ * already there, so TableRepresentation can save without first selecting the row to find out which.
+ * There is a subclass for each database that can do this; get one from UpsertBuilderFactory.
+ * <p/>
+ * As with TableRepresentation's own inserts, null values are written into the statement rather than
+ * bound, so rows with the same columns null share a statement.
+ */
+public abstract class UpsertBuilder {
+    /**
+     * Build the statement
+     *
+     * @param tableName the table
+     * @param pkey the primary key columns, all of which must have values
+     * @param values every column's value, in the order to insert them
+     * @param updateColumns the columns to update when the row is already there, which may be empty
+     * @return the statement followed by its parameters, as TableRepresentation.buildTableSelect gives them
+     */
+    public abstract ArrayList<Object> buildUpsert(String tableName, String[] pkey, Map<String, Object> values, Set<String> updateColumns);
+
+    /**
+     * Append "?, " for a value we'll bind, or "null, " for one we won't, binding as we go
+     */
+    protected void appendValue(StringBuilder sb, Object value, ArrayList<Object> al) {
+        if (value == null) {
+            sb.append("null, ");
+        }
+        else {
+            sb.append("?, ");
+            al.add(value);
+        }
+    }
+
+    protected void trim(StringBuilder sb, int n) {
+        sb.setLength(sb.length() - n);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+        Copyright Alex R.M. Turner 2008
+        This file is part of Hermes DB
+        Hermes DB is free software; you can redistribute it and/or modify
+        it under the terms of the Lesser GNU General Public License as published by
+        the Free Software Foundation; version 3 of the License.
+
+        Hermes DB is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        You should have received a copy of the Lesser GNU General Public License
+        along with Hermes DB if not, write to the Free Software
+        Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+        This file is released under the LGPL v3.0
+*/
+package com.plexq.hermes;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+public class UpsertBuilderFactory {
+    /**
+     * @return the upsert builder for the connection's database, or null if we don't have one for it,
+     * or the server is too old for it
+     */
+    public static UpsertBuilder getUpsertBuilder(Connection db) throws SQLException {
+        DatabaseMetaData dmd = db.getMetaData();
+        String product = dmd.getDatabaseProductName();
+
+        if (product.equals("PostgreSQL")) {
+            // on conflict came in with 9.5
+            int major = dmd.getDatabaseMajorVersion();
+            if (major > 9 || (major == 9 && dmd.getDatabaseMinorVersion() >= 5)) {
+                return new PostgresqlUpsertBuilder();
+            }
+            return null;
+        }
+        if (product.equals("Oracle")) {
+            return new OracleUpsertBuilder();
+        }
+
+        return null;
+    }
+}
@@ -1,5 +1,6 @@
 package com.plexq.migration.app;
 
+import com.plexq.migration.dump.StreamingStatementFactory;
 import net.sourceforge.jtds.jdbcx.JtdsDataSource;
 import org.apache.log4j.Logger;
 import org.springframework.context.ApplicationContext;
@@ -24,14 +25,20 @@ public class DumpToORASQLLoadable {
 
     private String dumpPath="data";
 
+    private int fetchSize=StreamingStatementFactory.DEFAULT_FETCH_SIZE;
+
     public static void main(String[] args) throws SQLException, IOException {
         String x = System.getProperty("dumpPath");
+        String fetchSize = System.getProperty("fetchSize");
 
         context = new FileSystemXmlApplicationContext("src/main/resources/META-INF/spring-dump-database.xml");
         DumpToORASQLLoadable dtc = new DumpToORASQLLoadable();
         if (x!=null && !x.equals("")) {
             dtc.setDumpPath(x);
         }
+        if (fetchSize!=null && !fetchSize.equals("")) {
+            dtc.setFetchSize(Integer.parseInt(fetchSize));
+        }
 
         DataSource ds = (DataSource)context.getBean("dataSource");
         if (ds instanceof JtdsDataSource) {
@@ -93,7 +100,7 @@ public class DumpToORASQLLoadable {
                         cl.add(c);
                     }
 
-                    Statement st = connection.createStatement();
+                    Statement st = StreamingStatementFactory.createStatement(connection, fetchSize);
                     StringBuilder sb = new StringBuilder();
                     for (Column c : cl) {
                         if (sb.length()!=0) {
@@ -175,6 +182,9 @@ public class DumpToORASQLLoadable {
                         fw.write("\n");
                     }
                     fw.close();
+                    rs.close();
+                    st.close();
+                    StreamingStatementFactory.finish(connection);
                 }
                 catch (SQLException se) {
                     log.info(se);
@@ -208,6 +218,14 @@ public class DumpToORASQLLoadable {
         this.dumpPath = dumpPath;
     }
 
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
     private class Column {
         private String name;
         private int type;
@@ -1,5 +1,8 @@
 package com.plexq.migration.app;
 
+import com.plexq.hermes.Guidance;
+import com.plexq.hermes.TableMetadata;
+import com.plexq.migration.dump.*;
 import net.sourceforge.jtds.jdbcx.JtdsDataSource;
 import org.apache.log4j.Logger;
 import org.springframework.context.ApplicationContext;
@@ -7,9 +10,10 @@ import org.springframework.context.support.FileSystemXmlApplicationContext;
 
 import javax.sql.DataSource;
 import java.io.*;
+import java.nio.channels.Channels;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by IntelliJ IDEA.
@@ -24,14 +28,31 @@ public class DumpToPSQL {
 
     private String dumpPath="data";
 
-    public static void main(String[] args) throws SQLException, IOException {
-        String x = System.getProperty("dumpPath");
+    private int threads=1;
+
+    private int partitions=1;
+
+    private long partitionRows=10000000;
+
+    private int fetchSize=StreamingStatementFactory.DEFAULT_FETCH_SIZE;
+
+    private int bufferSize=DumpSink.DEFAULT_BUFFER_SIZE;
 
+    /**
+     * Compression for the dump files, null for plain text
+     */
+    private DumpCodec codec;
+
+    /**
+     * text for COPY's default text format, binary for its binary format.  Binary needs a target with
+     * integer_datetimes on, the default from PostgreSQL 8.4, as that's how its timestamps are written.
+     */
+    private String format="text";
+
+    public static void main(String[] args) throws SQLException, IOException {
         context = new FileSystemXmlApplicationContext("src/main/resources/META-INF/spring-dump-database.xml");
         DumpToPSQL dtc = new DumpToPSQL();
-        if (x!=null && !x.equals("")) {
-            dtc.setDumpPath(x);
-        }
+        configure(dtc);
 
         DataSource ds = (DataSource)context.getBean("dataSource");
         if (ds instanceof JtdsDataSource) {
@@ -39,23 +60,83 @@ public class DumpToPSQL {
             log.info("Dumping data from "+jds.getDatabaseName()+" at server "+jds.getServerName());
         }
 
-        dtc.run();
+        List<TableDumpResult> results = dtc.run();
+        for (TableDumpResult r : results) {
+            if (!r.isSuccess()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Set up a dumper from the system properties
+     */
+    protected static void configure(DumpToPSQL dtc) {
+        String x = System.getProperty("dumpPath");
+        String threads = System.getProperty("threads");
+        String partitions = System.getProperty("partitions");
+        String partitionRows = System.getProperty("partitionRows");
+        String fetchSize = System.getProperty("fetchSize");
+        String bufferSize = System.getProperty("bufferSize");
+        String compression = System.getProperty("compression");
+        String compressionLevel = System.getProperty("compressionLevel");
+        String format = System.getProperty("format");
+
+        if (x!=null && !x.equals("")) {
+            dtc.setDumpPath(x);
+        }
+        if (threads!=null && !threads.equals("")) {
+            dtc.setThreads(Integer.parseInt(threads));
+        }
+        if (partitions!=null && !partitions.equals("")) {
+            dtc.setPartitions(Integer.parseInt(partitions));
+        }
+        if (partitionRows!=null && !partitionRows.equals("")) {
+            dtc.setPartitionRows(Long.parseLong(partitionRows));
+        }
+        if (fetchSize!=null && !fetchSize.equals("")) {
+            dtc.setFetchSize(Integer.parseInt(fetchSize));
+        }
+        if (bufferSize!=null && !bufferSize.equals("")) {
+            dtc.setBufferSize(Integer.parseInt(bufferSize));
+        }
+        if (compression!=null && !compression.equals("")) {
+            int level = -1;
+            if (compressionLevel!=null && !compressionLevel.equals("")) {
+                level = Integer.parseInt(compressionLevel);
+            }
+            dtc.setCodec(DumpCodecs.forName(compression, level));
+        }
+        if (format!=null && !format.equals("")) {
+            if (!format.equals("text") && !format.equals("binary")) {
+                throw new IllegalArgumentException("format must be text or binary: "+format);
+            }
+            dtc.setFormat(format);
+        }
     }
 
     public DumpToPSQL() {
 
     }
 
-    public void run() throws SQLException, IOException {
-        File f = new File(dumpPath);
-        if (!f.exists() && !f.mkdirs()) {
-            log.error("Failed to make dump path: "+dumpPath);
-            return;
+    /**
+     * Dump every table to its own file.  Tables are handed out largest first to a pool of
+     * workers, each of which holds its own connection, so the wall clock time is bounded by
+     * the biggest table rather than the sum of all of them.
+     * @return a result for every table we attempted, failed ones included
+     */
+    public List<TableDumpResult> run() throws SQLException, IOException {
+        List<TableDumpResult> results = new ArrayList<TableDumpResult>();
+
+        if (!prepare()) {
+            return results;
         }
 
-        Connection connection = ((DataSource)context.getBean("dataSource")).getConnection();
+        DataSource ds = getSourceDataSource();
+        Connection connection = ds.getConnection();
 
         ArrayList<Table> tables = new ArrayList<Table>();
+        ArrayList<Part> parts = new ArrayList<Part>();
 
         System.out.println("Fetching Tables...");
 
@@ -67,121 +148,379 @@ public class DumpToPSQL {
             while (rs.next()) {
                 schemaName = rs.getString(2);
                 tableName = rs.getString(3);
+                if (schemaName.equals("INFORMATION_SCHEMA") || schemaName.equals("sys")) {
+                    continue;
+                }
                 if (System.getProperty("table")==null || System.getProperty("table").equals(tableName)) {
                     System.out.println("Adding " + tableName);
                     tables.add(new Table(schemaName,tableName));
                 }
             }
+            rs.close();
+
+            for (Table t : tables) {
+                t.estimatedRows = estimateRows(dmd, t);
+            }
+
+            for (Table t : tables) {
+                parts.addAll(partition(connection, t));
+            }
         }
         catch (SQLException se) {
             log.error(se);
             log.error("Failed to dump schema - program aborting - badness here");
         }
+        finally {
+            connection.close();
+        }
 
-        for (Table t : tables) {
-            if (!t.schema.equals("INFORMATION_SCHEMA") && !t.schema.equals("sys")) {
-                System.out.println("Dumping "+t);
-                try {
-                    List<Column> cl = new ArrayList<Column>();
-
-                    Statement mtst = connection.createStatement();
-                    DatabaseMetaData dmd = connection.getMetaData();
-                    ResultSet mtrs = dmd.getColumns(null,"dbo",t.name,null);
-                    while(mtrs.next()) {
-                        Column c = new Column();
-                        c.setName(mtrs.getString(4));
-                        c.setType(mtrs.getInt(5));
-                        cl.add(c);
-                    }
+        // Biggest first, so the long tail is made of small tables
+        Collections.sort(parts, new Comparator<Part>() {
+            public int compare(Part a, Part b) {
+                return a.estimatedRows > b.estimatedRows ? -1 : (a.estimatedRows < b.estimatedRows ? 1 : 0);
+            }
+        });
+
+        Queue<Part> queue = new ConcurrentLinkedQueue<Part>(parts);
+        List<TableDumpResult> done = Collections.synchronizedList(results);
+
+        int workers = Math.max(1, Math.min(threads, parts.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int t=0; t<workers; t++) {
+            futures.add(pool.submit(new DumpWorker(ds, queue, done)));
+        }
+        pool.shutdown();
+
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted waiting for dump workers");
+            }
+            catch (ExecutionException ee) {
+                log.error("Dump worker failed", ee.getCause());
+            }
+        }
+
+        // Anything left on the queue never got a worker, most likely because none could connect
+        Part p;
+        while ((p = queue.poll())!=null) {
+            TableDumpResult r = new TableDumpResult(p.toString());
+            r.setError("Not dumped, no worker was available");
+            results.add(r);
+        }
+
+        if (codec instanceof ParallelGzipCodec) {
+            ((ParallelGzipCodec)codec).shutdown();
+        }
+
+        report(results);
+
+        return results;
+    }
+
+    /**
+     * Split a table on its integer primary key into key ranges of roughly equal width if it's big
+     * enough to be worth it.  Anything else - small tables, composite or non-numeric keys, tables
+     * whose metadata we can't read - is dumped whole as a single part.
+     */
+    protected List<Part> partition(Connection connection, Table t) {
+        List<Part> result = new ArrayList<Part>();
 
+        if (partitions>1 && t.estimatedRows>=partitionRows) {
+            try {
+                TableMetadata tm = TableMetadata.fetchMetadata(connection, t.name);
+                if (tm.hasLongOrIntId()) {
+                    String id = tm.getPrimaryKeys().get(0);
                     Statement st = connection.createStatement();
-                    StringBuilder sb = new StringBuilder();
-                    for (Column c : cl) {
-                        if (sb.length()!=0) {
-                            sb.append(",");
-                        }
-                        if (c.getType()==Types.VARCHAR || c.getType()==Types.NVARCHAR || c.getType()==Types.CHAR|| c.getType()==Types.LONGVARCHAR || c.getType()==Types.LONGNVARCHAR) {
-                            sb.append("cast("+c.getName()+" as nvarchar(4000))");
-                        }
-                        else {
-                            sb.append(c.getName());
-                        }
-                    }
-                    sb.append(" from ["+t.schema+"].["+t.name+"]");
-                    ResultSet rs = st.executeQuery("select "+sb.toString());
-                    ResultSetMetaData rsmd = rs.getMetaData();
-                    FileWriter fw = new FileWriter("data/"+t.schema+"."+t.name+".dump");
-                    while (rs.next()) {
-                        for (int x=0;x<rsmd.getColumnCount();x++) {
-                            if (x>0) {
-                                fw.write("\t");
-                            }
-                            Object o = rs.getObject(x+1);
-                            if (o!=null) {
-                                if (cl.get(x).getType()==Types.CLOB) {
-                                    Clob clob = (Clob)o;
-                                    BufferedReader br = new BufferedReader(clob.getCharacterStream());
-                                    String s;
-                                    StringBuilder lsb = new StringBuilder();
-                                    while ((s=br.readLine())!=null) {
-                                        if (s.contains("\\")) {
-                                            s = s.replaceAll("\\\\","\\\\\\\\");
-                                        }
-                                        /*
-                                        if (s.contains("\t") || s.contains("\"")) {
-                                            s = "\""+s.replaceAll("\\\t","\\\\t").replaceAll("\\\"", "\\\"\\\"")+"\"";
-                                        }
-                                        */
-                                        if (s.contains("\t")) {
-                                            s = "\""+s.replaceAll("\\\t","\\\\t");
-                                        }
-                                        lsb.append(s);
-                                        lsb.append("\\n");
-                                    }
-                                    fw.write(lsb.toString());
-                                }
-                                else {
-                                    String s = o.toString();
-                                    if (s.contains("\n")) {
-                                        BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(s.getBytes())));
-                                        sb = new StringBuilder();
-                                        while ((s=br.readLine())!=null) {
-                                            sb.append(s);
-                                            sb.append("\\n");
-                                        }
-                                        s = sb.toString();
-                                    }
-                                    if (s.contains("\\")) {
-                                        s = s.replaceAll("\\\\","\\\\\\\\");
-                                    }
-                                    if (s.contains("\t") || s.contains("\"")) {
-                                        s = "\""+s.replaceAll("\\\t","\\\\t").replaceAll("\\\"", "\\\"\\\"")+"\"";
-                                    }
-                                    fw.write(s);
-                                }
-                            }
-                            else {
-                                fw.write("\\N");
-                            }
-                        }
+                    ResultSet rs = st.executeQuery("select min("+id+"), max("+id+") from ["+t.schema+"].["+t.name+"]");
+                    rs.next();
+                    long min = rs.getLong(1);
+                    boolean empty = rs.wasNull();
+                    long max = rs.getLong(2);
+                    rs.close();
+                    st.close();
 
-                        fw.write("\n");
+                    if (!empty) {
+                        long width = (max - min) / partitions + 1;
+                        int n = 1;
+                        for (long from = min; from <= max && from >= min; from += width) {
+                            Part p = new Part(t, n++);
+                            p.idColumn = id;
+                            p.from = from;
+                            p.to = Math.min(max, from + width - 1);
+                            p.estimatedRows = t.estimatedRows / partitions;
+                            result.add(p);
+                        }
+                        log.info("Split "+t+" on "+id+" ["+min+","+max+"] into "+result.size()+" parts");
+                        return result;
                     }
-                    fw.close();
                 }
-                catch (SQLException se) {
-                    log.info(se);
-                    log.warn("Failed to dump table " + t);
+            }
+            catch (SQLException se) {
+                log.warn("Can't partition "+t+", dumping it whole: "+se.getMessage());
+            }
+            catch (RuntimeException re) {
+                log.warn("Can't partition "+t+", dumping it whole: "+re.getMessage());
+            }
+        }
+
+        Part p = new Part(t, 0);
+        p.estimatedRows = t.estimatedRows;
+        result.add(p);
+        return result;
+    }
+
+    /**
+     * Dump a single table, or one key range of it, to &lt;dumpPath&gt;/&lt;schema&gt;.&lt;table&gt;.dump, or
+     * &lt;schema&gt;.&lt;table&gt;.&lt;nnn&gt;.dump for a numbered part.  Binary dumps are .pgcopy instead of .dump.
+     * @param r where the number of rows and bytes written are recorded
+     */
+    protected void dumpTable(Connection connection, Part p, TableDumpResult r) throws SQLException, IOException {
+        List<Column> cl = fetchColumns(connection, p.table);
+
+        Statement st = StreamingStatementFactory.createStatement(connection, fetchSize);
+        long rows = 0;
+        DumpSink sink = null;
+        try {
+            ResultSet rs = st.executeQuery(buildSelect(p, cl));
+            File f = new File(dumpPath, p.getFileName()+(codec==null ? "" : codec.getExtension()));
+            if (codec==null) {
+                sink = new DumpSink(f, bufferSize);
+            }
+            else {
+                sink = new DumpSink(Channels.newChannel(codec.compress(new FileOutputStream(f))), bufferSize);
+            }
+            rows = writeRows(rs, cl, sink);
+            rs.close();
+        }
+        finally {
+            if (sink!=null) {
+                sink.close();
+            }
+            st.close();
+            StreamingStatementFactory.finish(connection);
+        }
+
+        r.setRows(rows);
+        r.setBytes(sink.getBytesWritten());
+    }
+
+    /**
+     * Get ready to write the tables - here that's making sure the dump path exists
+     * @return false if we can't go on
+     */
+    protected boolean prepare() {
+        File f = new File(dumpPath);
+        if (!f.exists() && !f.mkdirs()) {
+            log.error("Failed to make dump path: "+dumpPath);
+            return false;
+        }
+        return true;
+    }
+
+    protected DataSource getSourceDataSource() {
+        return (DataSource)context.getBean("dataSource");
+    }
+
+    protected List<Column> fetchColumns(Connection connection, Table t) throws SQLException {
+        List<Column> cl = new ArrayList<Column>();
+
+        DatabaseMetaData dmd = connection.getMetaData();
+        ResultSet mtrs = dmd.getColumns(null,"dbo",t.name,null);
+        while(mtrs.next()) {
+            Column c = new Column();
+            c.setName(mtrs.getString(4));
+            c.setType(mtrs.getInt(5));
+            c.setGuidance(Guidance.fromColumnRow(mtrs));
+            cl.add(c);
+        }
+        mtrs.close();
+        return cl;
+    }
+
+    protected String buildSelect(Part p, List<Column> cl) {
+        Table t = p.table;
+        StringBuilder sb = new StringBuilder();
+        for (Column c : cl) {
+            if (sb.length()!=0) {
+                sb.append(",");
+            }
+            if (c.getType()==Types.VARCHAR || c.getType()==Types.NVARCHAR || c.getType()==Types.CHAR|| c.getType()==Types.LONGVARCHAR || c.getType()==Types.LONGNVARCHAR) {
+                sb.append("cast("+c.getName()+" as nvarchar(4000))");
+            }
+            else {
+                sb.append(c.getName());
+            }
+        }
+        sb.append(" from ["+t.schema+"].["+t.name+"]");
+        if (p.idColumn!=null) {
+            sb.append(" where "+p.idColumn+" between "+p.from+" and "+p.to);
+        }
+        return "select "+sb.toString();
+    }
+
+    /**
+     * Write every row of the result set to the sink in the configured format, and close it
+     * @return the number of rows written
+     */
+    protected long writeRows(ResultSet rs, List<Column> cl, DumpSink sink) throws SQLException, IOException {
+        if (isBinary()) {
+            return writeBinary(rs, cl, sink);
+        }
+        return writeText(rs, cl, sink);
+    }
+
+    /**
+     * Write the rows in COPY's text format
+     * @return the number of rows written
+     */
+    private long writeText(ResultSet rs, List<Column> cl, DumpSink sink) throws SQLException, IOException {
+        int[] types = new int[cl.size()];
+        for (int x=0;x<types.length;x++) {
+            types[x] = cl.get(x).getType();
+        }
+        ColumnWriter[] writers = ColumnWriters.compile(types);
+
+        long rows = 0;
+        CopyTextEncoder out = new CopyTextEncoder(sink);
+        while (rs.next()) {
+            for (int x=0;x<writers.length;x++) {
+                if (x>0) {
+                    out.appendDelimiter();
                 }
+                writers[x].write(rs, x+1, out);
+            }
+
+            out.endRow();
+            rows++;
+        }
+        out.close();
+        return rows;
+    }
+
+    /**
+     * Write the rows in COPY's binary format.  Each field is written as the type CreateDDL gives the
+     * column on the PostgreSQL side, so the dump only loads into a schema built from the same metadata.
+     * @return the number of rows written
+     */
+    private long writeBinary(ResultSet rs, List<Column> cl, DumpSink sink) throws SQLException, IOException {
+        List<Guidance> columns = new ArrayList<Guidance>();
+        for (Column c : cl) {
+            columns.add(c.getGuidance());
+        }
+        BinaryColumnWriter[] writers = BinaryColumnWriters.compile(columns);
+
+        long rows = 0;
+        BinaryCopyEncoder out = new BinaryCopyEncoder(sink);
+        out.writeHeader();
+        while (rs.next()) {
+            out.startRow(writers.length);
+            for (int x=0;x<writers.length;x++) {
+                writers[x].write(rs, x+1, out);
+            }
+            rows++;
+        }
+        out.writeTrailer();
+        out.close();
+        return rows;
+    }
+
+    /**
+     * Ask the driver for its table statistics so we can schedule big tables first.  This is
+     * the approximate cardinality, so it's cheap, but it's only a hint - zero if the driver
+     * doesn't give us one.
+     */
+    private long estimateRows(DatabaseMetaData dmd, Table t) {
+        long rows = 0;
+        try {
+            ResultSet rs = dmd.getIndexInfo(null, t.schema, t.name, false, true);
+            while (rs.next()) {
+                // CARDINALITY is the row count for the table statistic and the number of unique values for an index
+                rows = Math.max(rows, rs.getLong(11));
             }
+            rs.close();
         }
+        catch (SQLException se) {
+            log.debug("No row estimate for "+t+": "+se.getMessage());
+        }
+        return rows;
+    }
 
-        connection.close();
+    private void report(List<TableDumpResult> results) {
+        Collections.sort(results, new Comparator<TableDumpResult>() {
+            public int compare(TableDumpResult a, TableDumpResult b) {
+                return a.getTableName().compareTo(b.getTableName());
+            }
+        });
+
+        int failed = 0;
+        long rows = 0;
+        long bytes = 0;
+        for (TableDumpResult r : results) {
+            System.out.println(r);
+            if (r.isSuccess()) {
+                rows += r.getRows();
+                bytes += r.getBytes();
+            }
+            else {
+                failed++;
+            }
+        }
+        System.out.println("Dumped "+(results.size()-failed)+" of "+results.size()+" tables, "+rows+" rows, "+bytes+" bytes");
+        if (failed>0) {
+            log.error(failed+" tables failed to dump");
+        }
+    }
+
+    /**
+     * Pulls parts off the shared queue until it's empty, dumping each on this worker's own connection
+     */
+    private class DumpWorker implements Callable<Object> {
+        private DataSource ds;
+        private Queue<Part> queue;
+        private List<TableDumpResult> results;
+
+        public DumpWorker(DataSource ds, Queue<Part> queue, List<TableDumpResult> results) {
+            this.ds = ds;
+            this.queue = queue;
+            this.results = results;
+        }
+
+        public Object call() throws SQLException {
+            Connection connection = ds.getConnection();
+            try {
+                Part p;
+                while ((p = queue.poll())!=null) {
+                    System.out.println("Dumping "+p);
+                    TableDumpResult r = new TableDumpResult(p.toString());
+                    long start = System.currentTimeMillis();
+                    try {
+                        dumpTable(connection, p, r);
+                        r.setSuccess(true);
+                    }
+                    catch (Exception e) {
+                        log.warn("Failed to dump " + p, e);
+                        r.setError(e.getMessage());
+                    }
+                    r.setElapsedMillis(System.currentTimeMillis() - start);
+                    results.add(r);
+                }
+            }
+            finally {
+                connection.close();
+            }
+            return null;
+        }
     }
 
-    private class Table {
+    protected class Table {
         public String schema;
         public String name;
+        public long estimatedRows;
 
         public Table(String schema, String name) {
             this.schema=schema;
@@ -201,9 +540,102 @@ public class DumpToPSQL {
         this.dumpPath = dumpPath;
     }
 
-    private class Column {
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public long getPartitionRows() {
+        return partitionRows;
+    }
+
+    public void setPartitionRows(long partitionRows) {
+        this.partitionRows = partitionRows;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public DumpCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(DumpCodec codec) {
+        this.codec = codec;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public boolean isBinary() {
+        return "binary".equals(format);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * A unit of work for a dump worker - either a whole table (number 0) or one key range of it
+     */
+    protected class Part {
+        public Table table;
+        public int number;
+        public String idColumn;
+        public long from;
+        public long to;
+        public long estimatedRows;
+
+        public Part(Table table, int number) {
+            this.table=table;
+            this.number=number;
+        }
+
+        public String getFileName() {
+            String ext = isBinary() ? ".pgcopy" : ".dump";
+            if (number==0) {
+                return table.schema+"."+table.name+ext;
+            }
+            return table.schema+"."+table.name+"."+String.format("%03d", number)+ext;
+        }
+
+        public String toString() {
+            if (number==0) {
+                return table.toString();
+            }
+            return table+" part "+number+" ("+idColumn+" "+from+".."+to+")";
+        }
+    }
+
+    protected class Column {
         private String name;
         private int type;
+        private Guidance guidance;
 
         public String getName() {
             return name;
@@ -220,5 +652,13 @@ public class DumpToPSQL {
         public void setType(int type) {
             this.type = type;
         }
+
+        public Guidance getGuidance() {
+            return guidance;
+        }
+
+        public void setGuidance(Guidance guidance) {
+            this.guidance = guidance;
+        }
     }
 }
@@ -2,6 +2,7 @@ package com.plexq.migration.app;
 
 import com.plexq.hermes.CreateDDL;
 import com.plexq.hermes.PostgresqlTableBuilder;
+import com.plexq.hermes.TableRepresentation;
 import net.sourceforge.jtds.jdbcx.JtdsDataSource;
 import org.apache.log4j.Logger;
 import org.springframework.context.ApplicationContext;
@@ -10,6 +11,7 @@ import org.springframework.context.support.FileSystemXmlApplicationContext;
 import javax.sql.DataSource;
 import java.io.*;
 import java.sql.*;
+import java.util.List;
 
 public class GenerateDDL {
     private static Logger log = Logger.getLogger(GenerateDDL.class);
@@ -18,6 +20,21 @@ public class GenerateDDL {
 
     private String dumpPath="ddl/";
 
+    /**
+     * Where to keep the schema snapshot, null not to keep one
+     */
+    private File snapshot;
+
+    /**
+     * Work from the snapshot alone, without connecting to the database
+     */
+    private boolean offline = false;
+
+    /**
+     * How many connections to read table metadata on at once
+     */
+    private int threads = 1;
+
     public static void main(String[] args) throws Exception {
         String x = System.getProperty("dumpPath");
 
@@ -26,9 +43,18 @@ public class GenerateDDL {
         if (x!=null && !x.equals("")) {
             dtc.setDumpPath(x);
         }
+        x = System.getProperty("snapshot");
+        if (x!=null && !x.equals("")) {
+            dtc.setSnapshot(new File(x));
+        }
+        dtc.setOffline(Boolean.getBoolean("offline"));
+        x = System.getProperty("threads");
+        if (x!=null && !x.equals("")) {
+            dtc.setThreads(Integer.parseInt(x));
+        }
 
         DataSource ds = (DataSource)context.getBean("dataSource");
-        if (ds instanceof JtdsDataSource) {
+        if (ds instanceof JtdsDataSource && !dtc.isOffline()) {
             JtdsDataSource jds = (JtdsDataSource)ds;
             log.info("Creating DDL from "+jds.getDatabaseName()+" at server "+jds.getServerName());
         }
@@ -47,14 +73,29 @@ public class GenerateDDL {
             return;
         }
 
-        File f = new File(dp.getPath()+"/"+"ddl.sql");
-
-        Connection connection = (context.getBean("dataSource",DataSource.class)).getConnection();
+        if (offline && snapshot==null) {
+            log.error("Working offline needs a snapshot");
+            return;
+        }
+        Connection connection = offline ? null : (context.getBean("dataSource",DataSource.class)).getConnection();
 
         CreateDDL cddl = new CreateDDL();
+        if (!offline) {
+            cddl.setDataSource(context.getBean("dataSource",DataSource.class));
+            cddl.setThreads(threads);
+        }
+        PostgresqlTableBuilder tb = new PostgresqlTableBuilder();
+
+        List<TableRepresentation> tables = cddl.fetchTables(connection, "dbo", snapshot);
 
-        String ddl = cddl.create(connection,"dbo", new PostgresqlTableBuilder());
+        // The whole thing, and the same split in two for bulk loads: tables before the data goes in,
+        // keys and indexes after
+        write(new File(dp, "ddl.sql"), cddl.build(tables, tb));
+        write(new File(dp, "ddl-pre.sql"), cddl.buildPreData(tables, tb));
+        write(new File(dp, "ddl-post.sql"), cddl.buildPostData(tables, tb));
+    }
 
+    private void write(File f, String ddl) throws IOException {
         FileWriter fw = new FileWriter(f);
         fw.write(ddl);
         fw.close();
@@ -67,4 +108,28 @@ public class GenerateDDL {
     public void setDumpPath(String dumpPath) {
         this.dumpPath = dumpPath;
     }
+
+    public File getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(File snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
 }
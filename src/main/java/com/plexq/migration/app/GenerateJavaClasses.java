@@ -26,6 +26,16 @@ public class GenerateJavaClasses {
 
     private String dumpPath="data/java";
 
+    /**
+     * Where to keep the schema snapshot, null not to keep one
+     */
+    private File snapshot;
+
+    /**
+     * Work from the snapshot alone, without connecting to the database
+     */
+    private boolean offline = false;
+
     public static void main(String[] args) throws Exception {
         String x = System.getProperty("dumpPath");
 
@@ -34,9 +44,14 @@ public class GenerateJavaClasses {
         if (x!=null && !x.equals("")) {
             dtc.setDumpPath(x);
         }
+        x = System.getProperty("snapshot");
+        if (x!=null && !x.equals("")) {
+            dtc.setSnapshot(new File(x));
+        }
+        dtc.setOffline(Boolean.getBoolean("offline"));
 
         DataSource ds = (DataSource)context.getBean("dataSource");
-        if (ds instanceof JtdsDataSource) {
+        if (ds instanceof JtdsDataSource && !dtc.isOffline()) {
             JtdsDataSource jds = (JtdsDataSource)ds;
             log.info("Creating DDL from "+jds.getDatabaseName()+" at server "+jds.getServerName());
         }
@@ -53,7 +68,11 @@ public class GenerateJavaClasses {
 
         File f = new File(dp.getPath()+"/"+"ddl.sql");
 
-        Connection connection = ((DataSource)context.getBean("dataSource")).getConnection();
+        if (offline && snapshot==null) {
+            log.error("Working offline needs a snapshot");
+            return;
+        }
+        Connection connection = offline ? null : ((DataSource)context.getBean("dataSource")).getConnection();
 
         JavaClassTableBuilder jctb = new JavaClassTableBuilder();
         jctb.setPackageName("com.plexq.migrations.model");
@@ -61,7 +80,7 @@ public class GenerateJavaClasses {
 
         CreateDDL cddl = new CreateDDL();
 
-        String ddl = cddl.create(connection,"dbo", jctb);
+        String ddl = cddl.build(cddl.fetchTables(connection, "dbo", snapshot), jctb);
 
         FileWriter fw = new FileWriter(f);
         fw.write(ddl);
@@ -75,4 +94,20 @@ public class GenerateJavaClasses {
     public void setDumpPath(String dumpPath) {
         this.dumpPath = dumpPath;
     }
+
+    public File getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(File snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
 }
@@ -29,6 +29,16 @@ public class GenerateScalaClasses {
 
     private String[] names;
 
+    /**
+     * Where to keep the schema snapshot, null not to keep one
+     */
+    private File snapshot;
+
+    /**
+     * Work from the snapshot alone, without connecting to the database
+     */
+    private boolean offline = false;
+
     public static void main(String[] args) throws Exception {
         String x = System.getProperty("dumpPath");
 
@@ -39,9 +49,14 @@ public class GenerateScalaClasses {
         if (x!=null && !x.equals("")) {
             dumpPath=x;
         }
+        x = System.getProperty("snapshot");
+        if (x!=null && !x.equals("")) {
+            dtc.setSnapshot(new File(x));
+        }
+        dtc.setOffline(Boolean.getBoolean("offline"));
 
         DataSource ds = (DataSource)context.getBean("dataSource");
-        if (ds instanceof JtdsDataSource) {
+        if (ds instanceof JtdsDataSource && !dtc.isOffline()) {
             JtdsDataSource jds = (JtdsDataSource)ds;
             log.info("Creating DDL from "+jds.getDatabaseName()+" at server "+jds.getServerName());
         }
@@ -60,7 +75,11 @@ public class GenerateScalaClasses {
             return;
         }
 
-        Connection connection = ((DataSource)context.getBean("dataSource")).getConnection();
+        if (offline && snapshot==null) {
+            log.error("Working offline needs a snapshot");
+            return;
+        }
+        Connection connection = offline ? null : ((DataSource)context.getBean("dataSource")).getConnection();
 
         ScalaClassTableBuilder jctb = new ScalaClassTableBuilder();
         jctb.setPackageName(config.getPackageName());
@@ -70,11 +89,27 @@ public class GenerateScalaClasses {
 
         // pretty sure at this point, htis is just a side-effect.
         System.out.println("Scanning...");
-        String ddl = cddl.create(connection,"jeves", jctb);
+        String ddl = cddl.build(cddl.fetchTables(connection, "jeves", snapshot), jctb);
 
     }
 
     public static String getDumpPath() {
         return dumpPath;
     }
+
+    public File getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(File snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
 }
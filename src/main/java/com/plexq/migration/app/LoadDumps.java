@@ -0,0 +1,835 @@
+package com.plexq.migration.app;
+
+import com.plexq.hermes.Guidance;
+import com.plexq.hermes.PostgresqlTableBuilder;
+import com.plexq.hermes.TableMetadata;
+import com.plexq.migration.dump.BinaryCopyEncoder;
+import com.plexq.migration.dump.DumpCodec;
+import com.plexq.migration.dump.DumpCodecs;
+import org.apache.log4j.Logger;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import javax.sql.DataSource;
+import java.io.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Loads the files DumpToPSQL writes into PostgreSQL, replacing load_dumps.sh.  The data is streamed
+ * from this side of the connection with COPY FROM STDIN, so the files don't have to be readable by the
+ * server, and compressed dumps are decompressed on the way.  Several loaders can run at once.
+ * <p/>
+ * Tables are loaded in the order given by the tableList file, one table name a line, as load_dumps.sh
+ * did.  Without one every table in the dump path is loaded, ordered so that a table comes after the
+ * tables its foreign keys point to, going by the source database's metadata.  Either way a table isn't
+ * started until the tables before it that it references have finished, so parallel loads can't trip
+ * over a foreign key.  The parts of a range partitioned dump load side by side.
+ * <p/>
+ * Given the ddl-pre.sql and ddl-post.sql GenerateDDL writes, the tables are created before the load
+ * and the keys and indexes built after it, which is a good deal quicker than having COPY maintain them
+ * row by row.  The primary keys and indexes are built in parallel, then the foreign keys one at a time.
+ * <p/>
+ * The foreign keys come from the source database, the dataSource bean, and the load goes to the
+ * targetDataSource bean.  Run from code, set them with setSourceDataSource and setTargetDataSource.
+ * <p/>
+ * Binary dumps hold their timestamps as integers, so if there are any and the target has
+ * integer_datetimes off nothing is loaded.
+ */
+public class LoadDumps {
+    private static Logger log = Logger.getLogger(LoadDumps.class);
+
+    /**
+     * Where the dumps came from, to read the foreign keys from
+     */
+    private DataSource sourceDataSource;
+
+    /**
+     * Where they're going
+     */
+    private DataSource targetDataSource;
+
+    private String dumpPath="data";
+
+    /**
+     * File listing the tables to load, in order, null to load everything in dumpPath
+     */
+    private String tableList;
+
+    private int threads=1;
+
+    /**
+     * Schema to load into, null for the target's search path
+     */
+    private String targetSchema;
+
+    /**
+     * DDL to run before the load, null for none
+     */
+    private String preData;
+
+    /**
+     * DDL to run after the load, null for none
+     */
+    private String postData;
+
+    private PostgresqlTableBuilder tableBuilder = new PostgresqlTableBuilder();
+
+    public static void main(String[] args) throws SQLException, IOException {
+        String x = System.getProperty("dumpPath");
+        String tableList = System.getProperty("tableList");
+        String threads = System.getProperty("threads");
+        String targetSchema = System.getProperty("targetSchema");
+        String preData = System.getProperty("preData");
+        String postData = System.getProperty("postData");
+
+        ApplicationContext context = new FileSystemXmlApplicationContext("src/main/resources/META-INF/spring-dump-database.xml");
+        LoadDumps ld = new LoadDumps();
+        ld.setSourceDataSource((DataSource)context.getBean("dataSource"));
+        ld.setTargetDataSource((DataSource)context.getBean("targetDataSource"));
+        if (x!=null && !x.equals("")) {
+            ld.setDumpPath(x);
+        }
+        if (tableList!=null && !tableList.equals("")) {
+            ld.setTableList(tableList);
+        }
+        if (threads!=null && !threads.equals("")) {
+            ld.setThreads(Integer.parseInt(threads));
+        }
+        if (targetSchema!=null && !targetSchema.equals("")) {
+            ld.setTargetSchema(targetSchema);
+        }
+        if (preData!=null && !preData.equals("")) {
+            ld.setPreData(preData);
+        }
+        if (postData!=null && !postData.equals("")) {
+            ld.setPostData(postData);
+        }
+
+        List<TableDumpResult> results = ld.run();
+        for (TableDumpResult r : results) {
+            if (!r.isSuccess()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    public LoadDumps() {
+
+    }
+
+    /**
+     * @return a result for every table we attempted, failed ones included
+     */
+    public List<TableDumpResult> run() throws SQLException, IOException {
+        List<TableDumpResult> results = new ArrayList<TableDumpResult>();
+
+        Map<String, List<DumpFile>> files = findDumpFiles(new File(dumpPath));
+
+        List<String> order;
+        Map<String, Set<String>> parents;
+        if (tableList!=null) {
+            // Keep the order we were given, but still hold a table back for the ones it references
+            order = readTableList(new File(tableList));
+            parents = fetchParents(order);
+        }
+        else {
+            order = new ArrayList<String>(files.keySet());
+            parents = fetchParents(order);
+            order = orderByForeignKeys(order, parents);
+        }
+
+        List<Unit> units = new ArrayList<Unit>();
+        for (String table : order) {
+            TableDumpResult r = new TableDumpResult(table);
+            results.add(r);
+            List<DumpFile> tableFiles = files.get(table);
+            if (tableFiles==null) {
+                log.warn("No dump found for "+table);
+                r.setError("No dump found");
+                continue;
+            }
+            r.setSuccess(true);
+            for (DumpFile f : tableFiles) {
+                units.add(new Unit(f, r));
+            }
+        }
+
+        DataSource ds = targetDataSource;
+        if (ds==null) {
+            throw new IllegalStateException("No target data source to load into");
+        }
+
+        if (!checkBinary(ds, units)) {
+            for (TableDumpResult r : results) {
+                r.setSuccess(false);
+                r.setError("Not loaded, the target has integer_datetimes off and there are binary dumps");
+            }
+            report(results);
+            return results;
+        }
+
+        if (preData!=null) {
+            System.out.println("Running "+preData);
+            List<TableDumpResult> failed = runStatements(ds, readStatements(new File(preData)), 1);
+            if (!failed.isEmpty()) {
+                log.error("Pre-data DDL failed, not loading anything");
+                report(failed);
+                return failed;
+            }
+        }
+
+        LoadPlan plan = new LoadPlan(order, parents, units);
+
+        int workers = Math.max(1, Math.min(threads, units.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int t=0; t<workers; t++) {
+            futures.add(pool.submit(new LoadWorker(ds, plan)));
+        }
+        pool.shutdown();
+
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted waiting for loaders");
+            }
+            catch (ExecutionException ee) {
+                log.error("Loader failed", ee.getCause());
+            }
+        }
+
+        // Anything left never got a loader, most likely because none could connect
+        for (Unit u : plan.abandon()) {
+            u.result.setSuccess(false);
+            u.result.setError("Not loaded, no loader was available");
+        }
+
+        if (postData!=null) {
+            boolean loaded = true;
+            for (TableDumpResult r : results) {
+                loaded &= r.isSuccess();
+            }
+            if (loaded) {
+                results.addAll(runPostData(ds, readStatements(new File(postData))));
+            }
+            else {
+                log.error("Not building keys and indexes from "+postData+", some tables failed to load");
+            }
+        }
+
+        report(results);
+
+        return results;
+    }
+
+    /**
+     * Load one dump file into its table over the given connection
+     */
+    /**
+     * @return false if there are binary dumps and the target can't take their timestamps
+     */
+    private boolean checkBinary(DataSource ds, List<Unit> units) throws SQLException {
+        boolean binary = false;
+        for (Unit u : units) {
+            binary |= u.file.binary;
+        }
+        if (!binary) {
+            return true;
+        }
+        Connection connection = ds.getConnection();
+        try {
+            if (!BinaryCopyEncoder.hasIntegerDatetimes(connection)) {
+                log.error("The target has integer_datetimes off, so binary timestamps would load wrong; not loading anything");
+                return false;
+            }
+            return true;
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    protected void loadFile(Connection connection, Unit u) throws SQLException, IOException {
+        DumpFile f = u.file;
+        StringBuilder sql = new StringBuilder("copy ");
+        if (targetSchema!=null) {
+            sql.append("\""+targetSchema+"\".");
+        }
+        sql.append("\""+tableBuilder.convertToUnderscoreFormat(f.table)+"\" from stdin");
+        if (f.binary) {
+            sql.append(" with binary");
+        }
+
+        InputStream in = new FileInputStream(f.file);
+        try {
+            DumpCodec codec = DumpCodecs.forFile(f.file.getName());
+            if (codec!=null) {
+                in = codec.decompress(in);
+            }
+            long rows = StreamToPSQL.copyIn(connection, sql.toString(), in);
+            synchronized (u.result) {
+                u.result.setRows(u.result.getRows() + rows);
+                u.result.setBytes(u.result.getBytes() + f.file.length());
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Build the keys and indexes once the data is in.  Primary keys and indexes don't depend on one
+     * another so they're shared out across the loaders, but a foreign key needs the key it refers to,
+     * so those wait for the first lot and go one at a time, as they lock both of their tables.
+     * @return a failed result for each statement that failed
+     */
+    protected List<TableDumpResult> runPostData(DataSource ds, List<String> statements) {
+        List<String> indexes = new ArrayList<String>();
+        List<String> foreignKeys = new ArrayList<String>();
+        for (String s : statements) {
+            if (s.toLowerCase().contains(" foreign key ")) {
+                foreignKeys.add(s);
+            }
+            else {
+                indexes.add(s);
+            }
+        }
+
+        System.out.println("Building "+indexes.size()+" keys and indexes");
+        List<TableDumpResult> failed = runStatements(ds, indexes, threads);
+        System.out.println("Adding "+foreignKeys.size()+" foreign keys");
+        failed.addAll(runStatements(ds, foreignKeys, 1));
+        return failed;
+    }
+
+    /**
+     * Run DDL statements on the given number of connections at once
+     * @return a failed result for each statement that failed
+     */
+    private List<TableDumpResult> runStatements(DataSource ds, List<String> statements, int workers) {
+        List<TableDumpResult> failed = Collections.synchronizedList(new ArrayList<TableDumpResult>());
+        Queue<String> queue = new ConcurrentLinkedQueue<String>(statements);
+
+        workers = Math.max(1, Math.min(workers, statements.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int t=0; t<workers; t++) {
+            futures.add(pool.submit(new DDLWorker(ds, queue, failed)));
+        }
+        pool.shutdown();
+
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted waiting for DDL");
+            }
+            catch (ExecutionException ee) {
+                log.error("DDL worker failed", ee.getCause());
+            }
+        }
+
+        String s;
+        while ((s = queue.poll())!=null) {
+            TableDumpResult r = new TableDumpResult(s);
+            r.setError("Not run, no connection was available");
+            failed.add(r);
+        }
+
+        return new ArrayList<TableDumpResult>(failed);
+    }
+
+    /**
+     * Split a DDL file into statements.  A statement ends with a line ending in a semicolon, which is
+     * how GenerateDDL writes them.
+     */
+    public static List<String> readStatements(File f) throws IOException {
+        List<String> statements = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        try {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = br.readLine())!=null) {
+                if (line.trim().length()==0 && sb.length()==0) {
+                    continue;
+                }
+                sb.append(line);
+                sb.append("\n");
+                if (line.trim().endsWith(";")) {
+                    statements.add(sb.toString().trim());
+                    sb.setLength(0);
+                }
+            }
+            if (sb.toString().trim().length()>0) {
+                statements.add(sb.toString().trim());
+            }
+        }
+        finally {
+            br.close();
+        }
+        return statements;
+    }
+
+    /**
+     * Find the dump files in a directory, grouped by table in name order, with the parts of each table
+     * in part order
+     */
+    public static Map<String, List<DumpFile>> findDumpFiles(File dir) throws IOException {
+        String[] names = dir.list();
+        if (names==null) {
+            throw new FileNotFoundException("Can't read dump path "+dir);
+        }
+        Arrays.sort(names);
+
+        Map<String, List<DumpFile>> files = new TreeMap<String, List<DumpFile>>();
+        for (String name : names) {
+            DumpFile f = DumpFile.parse(new File(dir, name));
+            if (f==null) {
+                continue;
+            }
+            List<DumpFile> l = files.get(f.table);
+            if (l==null) {
+                l = new ArrayList<DumpFile>();
+                files.put(f.table, l);
+            }
+            l.add(f);
+        }
+        return files;
+    }
+
+    /**
+     * Read a table list, one name a line, skipping blank lines
+     */
+    public static List<String> readTableList(File f) throws IOException {
+        List<String> tables = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        try {
+            String line;
+            while ((line = br.readLine())!=null) {
+                line = line.trim();
+                if (line.length()>0) {
+                    tables.add(line);
+                }
+            }
+        }
+        finally {
+            br.close();
+        }
+        return tables;
+    }
+
+    /**
+     * Look up which tables each table references from its column guidance in the source database
+     */
+    private Map<String, Set<String>> fetchParents(List<String> tables) throws SQLException {
+        Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+        if (sourceDataSource==null) {
+            log.warn("No source data source to read foreign keys from, tables won't wait for the tables they reference");
+            return parents;
+        }
+        Connection connection = sourceDataSource.getConnection();
+        try {
+            for (String table : tables) {
+                Set<String> p = new HashSet<String>();
+                try {
+                    for (Guidance g : TableMetadata.fetchMetadata(connection, table).getTableGuidance().values()) {
+                        if (g.getForeignKey()!=null) {
+                            p.add(g.getForeignKey().getTableName());
+                        }
+                    }
+                }
+                catch (RuntimeException re) {
+                    log.warn("Can't read foreign keys for "+table+", loading it in name order: "+re.getMessage());
+                }
+                parents.put(table, p);
+            }
+        }
+        finally {
+            connection.close();
+        }
+        return parents;
+    }
+
+    /**
+     * Order tables so each comes after the tables it references.  Ties keep the order they came in.
+     * A cycle can't be ordered, so the first table in it goes next and a warning is logged.
+     */
+    public static List<String> orderByForeignKeys(List<String> tables, Map<String, Set<String>> parents) {
+        List<String> result = new ArrayList<String>();
+        Set<String> all = new HashSet<String>(tables);
+        Set<String> placed = new HashSet<String>();
+
+        while (result.size()<tables.size()) {
+            boolean progress = false;
+            for (String t : tables) {
+                if (placed.contains(t)) {
+                    continue;
+                }
+                boolean ready = true;
+                Set<String> p = parents.get(t);
+                if (p!=null) {
+                    for (String parent : p) {
+                        if (!parent.equals(t) && all.contains(parent) && !placed.contains(parent)) {
+                            ready = false;
+                            break;
+                        }
+                    }
+                }
+                if (ready) {
+                    result.add(t);
+                    placed.add(t);
+                    progress = true;
+                }
+            }
+            if (!progress) {
+                for (String t : tables) {
+                    if (!placed.contains(t)) {
+                        log.warn("Foreign key cycle through "+t+", it may not load until the constraints are dropped");
+                        result.add(t);
+                        placed.add(t);
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void report(List<TableDumpResult> results) {
+        int failed = 0;
+        long rows = 0;
+        long bytes = 0;
+        for (TableDumpResult r : results) {
+            System.out.println(r);
+            if (r.isSuccess()) {
+                rows += r.getRows();
+                bytes += r.getBytes();
+            }
+            else {
+                failed++;
+            }
+        }
+        System.out.println("Loaded "+(results.size()-failed)+" of "+results.size()+" tables, "+rows+" rows, "+bytes+" bytes");
+        if (failed>0) {
+            log.error(failed+" tables failed to load");
+        }
+    }
+
+    /**
+     * A dump file, with the table and part it holds worked out from its name:
+     * &lt;schema&gt;.&lt;table&gt;[.&lt;nnn&gt;].(dump|pgcopy)[.gz|.zz]
+     */
+    public static class DumpFile {
+        public File file;
+        public String schema;
+        public String table;
+        public int part;
+        public boolean binary;
+
+        /**
+         * @return the dump file, or null if this isn't one
+         */
+        public static DumpFile parse(File file) {
+            String name = file.getName();
+            DumpCodec codec = DumpCodecs.forFile(name);
+            if (codec!=null) {
+                name = name.substring(0, name.length()-codec.getExtension().length());
+            }
+
+            DumpFile f = new DumpFile();
+            f.file = file;
+            if (name.endsWith(".dump")) {
+                name = name.substring(0, name.length()-".dump".length());
+            }
+            else if (name.endsWith(".pgcopy")) {
+                name = name.substring(0, name.length()-".pgcopy".length());
+                f.binary = true;
+            }
+            else {
+                return null;
+            }
+
+            String[] pieces = name.split("\\.");
+            int n = pieces.length;
+            if (n>2 && pieces[n-1].matches("[0-9]{3}")) {
+                f.part = Integer.parseInt(pieces[n-1]);
+                n--;
+            }
+            if (n!=2) {
+                return null;
+            }
+            f.schema = pieces[0];
+            f.table = pieces[1];
+            return f;
+        }
+    }
+
+    /**
+     * One file to load, and the result for its table
+     */
+    protected static class Unit {
+        public DumpFile file;
+        public TableDumpResult result;
+
+        public Unit(DumpFile file, TableDumpResult result) {
+            this.file = file;
+            this.result = result;
+        }
+
+        public String toString() {
+            return file.file.getName();
+        }
+    }
+
+    /**
+     * Hands out files to the loaders, holding a table back until every table before it in the load
+     * order that it references has finished loading
+     */
+    static class LoadPlan {
+        private Map<String, Integer> position = new HashMap<String, Integer>();
+        private Map<String, Set<String>> parents;
+        private LinkedList<Unit> pending;
+        private Map<String, Integer> remaining = new HashMap<String, Integer>();
+        private Map<String, Long> started = new HashMap<String, Long>();
+
+        public LoadPlan(List<String> order, Map<String, Set<String>> parents, List<Unit> units) {
+            for (int t=0; t<order.size(); t++) {
+                position.put(order.get(t), t);
+            }
+            this.parents = parents;
+            this.pending = new LinkedList<Unit>(units);
+            for (Unit u : units) {
+                Integer n = remaining.get(u.file.table);
+                remaining.put(u.file.table, n==null ? 1 : n+1);
+            }
+        }
+
+        /**
+         * @return the next file that can be loaded, waiting for one if need be, or null when there are none left
+         */
+        public synchronized Unit next() throws InterruptedException {
+            while (!pending.isEmpty()) {
+                Unit u = poll();
+                if (u!=null) {
+                    return u;
+                }
+                wait();
+            }
+            return null;
+        }
+
+        /**
+         * @return the next file that can be loaded now, or null if there isn't one
+         */
+        public synchronized Unit poll() {
+            for (Iterator<Unit> i = pending.iterator(); i.hasNext();) {
+                Unit u = i.next();
+                if (isReady(u.file.table)) {
+                    i.remove();
+                    if (!started.containsKey(u.file.table)) {
+                        started.put(u.file.table, System.currentTimeMillis());
+                    }
+                    return u;
+                }
+            }
+            return null;
+        }
+
+        private boolean isReady(String table) {
+            Set<String> p = parents.get(table);
+            if (p==null) {
+                return true;
+            }
+            int me = position.get(table);
+            for (String parent : p) {
+                Integer their = position.get(parent);
+                // Only tables earlier in the order count, so a cycle or a bad table list can't deadlock us
+                if (their!=null && their<me && remaining.containsKey(parent) && remaining.get(parent)>0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Record a file as loaded, or failed - a failed parent doesn't hold up its children, their
+         * load will report whatever the constraints make of it
+         */
+        public synchronized void done(Unit u) {
+            String table = u.file.table;
+            int n = remaining.get(table) - 1;
+            remaining.put(table, n);
+            if (n==0) {
+                u.result.setElapsedMillis(System.currentTimeMillis() - started.get(table));
+            }
+            notifyAll();
+        }
+
+        /**
+         * @return the files no loader took, which won't be handed out now
+         */
+        public synchronized List<Unit> abandon() {
+            List<Unit> left = new ArrayList<Unit>(pending);
+            pending.clear();
+            notifyAll();
+            return left;
+        }
+    }
+
+    /**
+     * Takes files from the plan until it's empty, loading each on this worker's own connection
+     */
+    private class LoadWorker implements Callable<Object> {
+        private DataSource ds;
+        private LoadPlan plan;
+
+        public LoadWorker(DataSource ds, LoadPlan plan) {
+            this.ds = ds;
+            this.plan = plan;
+        }
+
+        public Object call() throws SQLException, InterruptedException {
+            Connection connection = ds.getConnection();
+            try {
+                Unit u;
+                while ((u = plan.next())!=null) {
+                    System.out.println("Loading "+u);
+                    try {
+                        loadFile(connection, u);
+                    }
+                    catch (Exception e) {
+                        log.warn("Failed to load "+u, e);
+                        synchronized (u.result) {
+                            u.result.setSuccess(false);
+                            u.result.setError(u+": "+e.getMessage());
+                        }
+                    }
+                    finally {
+                        plan.done(u);
+                    }
+                }
+            }
+            finally {
+                connection.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Runs statements off a shared queue on its own connection, timing each one
+     */
+    private class DDLWorker implements Callable<Object> {
+        private DataSource ds;
+        private Queue<String> queue;
+        private List<TableDumpResult> failed;
+
+        public DDLWorker(DataSource ds, Queue<String> queue, List<TableDumpResult> failed) {
+            this.ds = ds;
+            this.queue = queue;
+            this.failed = failed;
+        }
+
+        public Object call() throws SQLException {
+            Connection connection = ds.getConnection();
+            try {
+                String s;
+                while ((s = queue.poll())!=null) {
+                    long start = System.currentTimeMillis();
+                    Statement st = connection.createStatement();
+                    try {
+                        st.execute(s);
+                        System.out.println("Ran in "+(System.currentTimeMillis()-start)+"ms: "+s);
+                    }
+                    catch (SQLException se) {
+                        log.warn("Failed to run "+s, se);
+                        TableDumpResult r = new TableDumpResult(s);
+                        r.setError(se.getMessage());
+                        r.setElapsedMillis(System.currentTimeMillis()-start);
+                        failed.add(r);
+                    }
+                    finally {
+                        st.close();
+                    }
+                }
+            }
+            finally {
+                connection.close();
+            }
+            return null;
+        }
+    }
+
+    public DataSource getSourceDataSource() {
+        return sourceDataSource;
+    }
+
+    public void setSourceDataSource(DataSource sourceDataSource) {
+        this.sourceDataSource = sourceDataSource;
+    }
+
+    public DataSource getTargetDataSource() {
+        return targetDataSource;
+    }
+
+    public void setTargetDataSource(DataSource targetDataSource) {
+        this.targetDataSource = targetDataSource;
+    }
+
+    public String getPreData() {
+        return preData;
+    }
+
+    public void setPreData(String preData) {
+        this.preData = preData;
+    }
+
+    public String getPostData() {
+        return postData;
+    }
+
+    public void setPostData(String postData) {
+        this.postData = postData;
+    }
+
+    public String getDumpPath() {
+        return dumpPath;
+    }
+
+    public void setDumpPath(String dumpPath) {
+        this.dumpPath = dumpPath;
+    }
+
+    public String getTableList() {
+        return tableList;
+    }
+
+    public void setTableList(String tableList) {
+        this.tableList = tableList;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public String getTargetSchema() {
+        return targetSchema;
+    }
+
+    public void setTargetSchema(String targetSchema) {
+        this.targetSchema = targetSchema;
+    }
+}
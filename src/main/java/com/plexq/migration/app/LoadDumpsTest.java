@@ -0,0 +1,133 @@
+package com.plexq.migration.app;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LoadDumpsTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(LoadDumpsTest.class);
+    }
+
+    @Test
+    public void testParseWholeTable() {
+        LoadDumps.DumpFile f = LoadDumps.DumpFile.parse(new File("dbo.Customer.dump"));
+        assertEquals("dbo", f.schema);
+        assertEquals("Customer", f.table);
+        assertEquals(0, f.part);
+        assertFalse(f.binary);
+    }
+
+    @Test
+    public void testParseCompressedBinaryPart() {
+        LoadDumps.DumpFile f = LoadDumps.DumpFile.parse(new File("dbo.Orders.007.pgcopy.gz"));
+        assertEquals("Orders", f.table);
+        assertEquals(7, f.part);
+        assertTrue(f.binary);
+
+        f = LoadDumps.DumpFile.parse(new File("dbo.Orders.012.dump.zz"));
+        assertEquals("Orders", f.table);
+        assertEquals(12, f.part);
+    }
+
+    @Test
+    public void testParseIgnoresOtherFiles() {
+        assertNull(LoadDumps.DumpFile.parse(new File("tablelist.txt")));
+        assertNull(LoadDumps.DumpFile.parse(new File("ddl.sql.gz")));
+        assertNull(LoadDumps.DumpFile.parse(new File("Orders.dump")));
+    }
+
+    private Map<String, Set<String>> parents(String... pairs) {
+        Map<String, Set<String>> m = new HashMap<String, Set<String>>();
+        for (int t = 0; t < pairs.length; t += 2) {
+            if (!m.containsKey(pairs[t])) {
+                m.put(pairs[t], new HashSet<String>());
+            }
+            m.get(pairs[t]).add(pairs[t + 1]);
+        }
+        return m;
+    }
+
+    @Test
+    public void testParentsFirst() {
+        List<String> order = LoadDumps.orderByForeignKeys(Arrays.asList("Item", "Orders", "Customer", "Product"),
+                parents("Item", "Orders", "Item", "Product", "Orders", "Customer"));
+        assertEquals(Arrays.asList("Customer", "Product", "Orders", "Item"), order);
+    }
+
+    @Test
+    public void testSelfReferenceAndUnknownTables() {
+        List<String> order = LoadDumps.orderByForeignKeys(Arrays.asList("Employee", "Audit"),
+                parents("Employee", "Employee", "Audit", "NotDumped"));
+        assertEquals(Arrays.asList("Employee", "Audit"), order);
+    }
+
+    @Test
+    public void testCycleIsBroken() {
+        List<String> order = LoadDumps.orderByForeignKeys(Arrays.asList("A", "B", "C"),
+                parents("A", "B", "B", "A"));
+        assertEquals(Arrays.asList("C", "A", "B"), order);
+    }
+
+    @Test
+    public void testReadStatements() throws IOException {
+        File f = File.createTempFile("ddl", ".sql");
+        f.deleteOnExit();
+        FileWriter fw = new FileWriter(f);
+        fw.write("create table \"_orders\" (\nid int8 not null,\nname text);\n\n"
+                + "alter table \"_orders\" add primary key (id);\n");
+        fw.close();
+
+        List<String> statements = LoadDumps.readStatements(f);
+        assertEquals(2, statements.size());
+        assertEquals("create table \"_orders\" (\nid int8 not null,\nname text);", statements.get(0));
+        assertEquals("alter table \"_orders\" add primary key (id);", statements.get(1));
+    }
+
+    private LoadDumps.Unit unit(String name) {
+        LoadDumps.DumpFile f = LoadDumps.DumpFile.parse(new File(name));
+        return new LoadDumps.Unit(f, new TableDumpResult(f.table));
+    }
+
+    @Test
+    public void testPlanHoldsChildrenBackUntilParentsLoad() throws InterruptedException {
+        LoadDumps.Unit customer1 = unit("dbo.Customer.001.dump");
+        LoadDumps.Unit customer2 = unit("dbo.Customer.002.dump");
+        LoadDumps.Unit orders = unit("dbo.Orders.dump");
+        LoadDumps.Unit product = unit("dbo.Product.dump");
+        LoadDumps.LoadPlan plan = new LoadDumps.LoadPlan(Arrays.asList("Customer", "Orders", "Product"),
+                parents("Orders", "Customer"), Arrays.asList(customer1, customer2, orders, product));
+
+        // Both parts of Customer go side by side, and Product doesn't need to wait, but Orders does
+        assertSame(customer1, plan.poll());
+        assertSame(customer2, plan.poll());
+        assertSame(product, plan.poll());
+        assertNull(plan.poll());
+
+        plan.done(customer1);
+        plan.done(product);
+        assertNull(plan.poll());
+        plan.done(customer2);
+        assertSame(orders, plan.next());
+        plan.done(orders);
+        assertNull(plan.next());
+    }
+
+    @Test
+    public void testPlanOnlyWaitsForEarlierTables() {
+        // A table list that has the child first can't wait for its parent, or the load would never finish
+        LoadDumps.Unit orders = unit("dbo.Orders.dump");
+        LoadDumps.Unit customer = unit("dbo.Customer.dump");
+        LoadDumps.LoadPlan plan = new LoadDumps.LoadPlan(Arrays.asList("Orders", "Customer"),
+                parents("Orders", "Customer"), Arrays.asList(orders, customer));
+
+        assertSame(orders, plan.poll());
+        assertSame(customer, plan.poll());
+    }
+}
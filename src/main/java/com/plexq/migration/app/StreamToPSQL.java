@@ -0,0 +1,310 @@
+package com.plexq.migration.app;
+
+import com.plexq.hermes.PostgresqlTableBuilder;
+import com.plexq.migration.dump.BinaryCopyEncoder;
+import com.plexq.migration.dump.CopyPipe;
+import com.plexq.migration.dump.DumpSink;
+import com.plexq.migration.dump.StreamingStatementFactory;
+import org.apache.log4j.Logger;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Copies tables straight from the source database into PostgreSQL without going through dump files.
+ * Each table, or key range of one, is read exactly as DumpToPSQL reads it, but the COPY data goes into
+ * a CopyPipe rather than a file, and a second thread feeds the other end of the pipe to COPY FROM STDIN
+ * on the target through the driver's CopyManager.  The pipe is bounded, so if the target can't keep up
+ * the source read waits for it.
+ * <p/>
+ * The target tables have to exist already, made from the ddl GenerateDDL writes - the table and column
+ * names are converted the same way.  Each part is one COPY, so a failure partway through leaves nothing
+ * of that part behind.
+ * <p/>
+ * Takes the same system properties as DumpToPSQL, less the file ones, plus targetSchema and pipeChunks.
+ * The target is the targetDataSource bean.  If format=binary is asked for but the target has
+ * integer_datetimes off, the copy is done in text instead, as binary timestamps would load wrong.
+ */
+public class StreamToPSQL extends DumpToPSQL {
+    private static Logger log = Logger.getLogger(StreamToPSQL.class);
+
+    private DataSource sourceDataSource;
+
+    private DataSource targetDataSource;
+
+    /**
+     * Schema to copy into, null for the target's search path
+     */
+    private String targetSchema;
+
+    private int pipeChunks=CopyPipe.DEFAULT_CHUNKS;
+
+    private ExecutorService copyPool;
+
+    private PostgresqlTableBuilder tableBuilder = new PostgresqlTableBuilder();
+
+    public static void main(String[] args) throws SQLException, IOException {
+        ApplicationContext context = new FileSystemXmlApplicationContext("src/main/resources/META-INF/spring-dump-database.xml");
+        StreamToPSQL stp = new StreamToPSQL();
+        configure(stp);
+
+        String targetSchema = System.getProperty("targetSchema");
+        String pipeChunks = System.getProperty("pipeChunks");
+        if (targetSchema!=null && !targetSchema.equals("")) {
+            stp.setTargetSchema(targetSchema);
+        }
+        if (pipeChunks!=null && !pipeChunks.equals("")) {
+            stp.setPipeChunks(Integer.parseInt(pipeChunks));
+        }
+
+        stp.setSourceDataSource((DataSource)context.getBean("dataSource"));
+        stp.setTargetDataSource((DataSource)context.getBean("targetDataSource"));
+
+        List<TableDumpResult> results = stp.run();
+        for (TableDumpResult r : results) {
+            if (!r.isSuccess()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    public StreamToPSQL() {
+
+    }
+
+    public List<TableDumpResult> run() throws SQLException, IOException {
+        if (isBinary()) {
+            Connection target = targetDataSource.getConnection();
+            try {
+                if (!BinaryCopyEncoder.hasIntegerDatetimes(target)) {
+                    log.warn("The target has integer_datetimes off, so binary timestamps would load wrong; copying as text");
+                    setFormat("text");
+                }
+            }
+            finally {
+                target.close();
+            }
+        }
+
+        // One COPY thread for each dump worker, started as they're needed
+        copyPool = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "copy-in");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            return super.run();
+        }
+        finally {
+            copyPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Nothing to prepare, there are no files
+     */
+    protected boolean prepare() {
+        return true;
+    }
+
+    protected DataSource getSourceDataSource() {
+        return sourceDataSource;
+    }
+
+    /**
+     * Copy one part to the target.  The source side runs on this thread and the COPY on one from the
+     * copy pool; whichever fails first aborts the pipe so the other stops too.
+     */
+    protected void dumpTable(Connection connection, Part p, TableDumpResult r) throws SQLException, IOException {
+        List<Column> cl = fetchColumns(connection, p.table);
+        String copySql = buildCopy(p, cl);
+
+        final CopyPipe pipe = new CopyPipe(pipeChunks);
+        Connection target = targetDataSource.getConnection();
+        Statement st = null;
+        long rows = 0;
+        DumpSink sink = null;
+        try {
+            Future<Long> copy = copyPool.submit(new CopyIn(target, copySql, pipe));
+
+            st = StreamingStatementFactory.createStatement(connection, getFetchSize());
+            try {
+                ResultSet rs = st.executeQuery(buildSelect(p, cl));
+                sink = new DumpSink(pipe.getChannel(), getBufferSize());
+                rows = writeRows(rs, cl, sink);
+                rs.close();
+            }
+            catch (SQLException se) {
+                pipe.abort(se);
+                waitForCopy(copy);
+                throw se;
+            }
+            catch (IOException ioe) {
+                // Most likely the COPY failed and broke the pipe, in which case its error is the one we want
+                pipe.abort(ioe);
+                waitForCopy(copy);
+                throw ioe;
+            }
+            catch (RuntimeException re) {
+                pipe.abort(re);
+                waitForCopy(copy);
+                throw re;
+            }
+
+            long copied = waitForCopy(copy);
+            if (copied!=rows) {
+                log.warn("Read "+rows+" rows of "+p+" but the target copied "+copied);
+            }
+        }
+        finally {
+            if (st!=null) {
+                st.close();
+            }
+            StreamingStatementFactory.finish(connection);
+            target.close();
+        }
+
+        r.setRows(rows);
+        r.setBytes(sink.getBytesWritten());
+    }
+
+    /**
+     * Wait for the COPY to finish, rethrowing what it failed with
+     * @return the number of rows the target copied
+     */
+    private long waitForCopy(Future<Long> copy) throws SQLException, IOException {
+        try {
+            return copy.get();
+        }
+        catch (InterruptedException ie) {
+            copy.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the copy to finish");
+        }
+        catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof SQLException) {
+                throw (SQLException)t;
+            }
+            if (t instanceof IOException) {
+                throw (IOException)t;
+            }
+            IOException ioe = new IOException("Copy failed: "+t);
+            ioe.initCause(t);
+            throw ioe;
+        }
+    }
+
+    /**
+     * The COPY statement for a part, with the table and column names converted the way the ddl was
+     */
+    protected String buildCopy(Part p, List<Column> cl) {
+        StringBuilder sb = new StringBuilder("copy ");
+        if (targetSchema!=null) {
+            sb.append("\""+targetSchema+"\".");
+        }
+        sb.append("\""+tableBuilder.convertToUnderscoreFormat(p.table.name)+"\" (");
+        for (int t=0;t<cl.size();t++) {
+            if (t>0) {
+                sb.append(",");
+            }
+            sb.append(tableBuilder.convertToUnderscoreFormat(cl.get(t).getName()));
+        }
+        sb.append(") from stdin");
+        if (isBinary()) {
+            sb.append(" with binary");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Feed the pipe to COPY on the target.  Aborts the pipe if the COPY fails, which stops the source
+     * side the next time it writes.
+     */
+    private static class CopyIn implements Callable<Long> {
+        private Connection target;
+        private String sql;
+        private CopyPipe pipe;
+
+        public CopyIn(Connection target, String sql, CopyPipe pipe) {
+            this.target = target;
+            this.sql = sql;
+            this.pipe = pipe;
+        }
+
+        public Long call() throws SQLException, IOException {
+            InputStream in = pipe.getInputStream();
+            try {
+                return copyIn(target, sql, in);
+            }
+            catch (SQLException se) {
+                pipe.abort(se);
+                throw se;
+            }
+            catch (IOException ioe) {
+                pipe.abort(ioe);
+                throw ioe;
+            }
+            catch (RuntimeException re) {
+                pipe.abort(re);
+                throw re;
+            }
+            finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Run a COPY FROM STDIN on the target, reading the data from the given stream
+     * @return the number of rows copied
+     */
+    public static long copyIn(Connection target, String sql, InputStream in) throws SQLException, IOException {
+        if (!(target instanceof BaseConnection)) {
+            throw new SQLException("The target has to be a PostgreSQL connection, not "+target.getClass().getName());
+        }
+        CopyManager cm = new CopyManager((BaseConnection)target);
+        return cm.copyIn(sql, in, 65536);
+    }
+
+    public void setSourceDataSource(DataSource sourceDataSource) {
+        this.sourceDataSource = sourceDataSource;
+    }
+
+    public DataSource getTargetDataSource() {
+        return targetDataSource;
+    }
+
+    public void setTargetDataSource(DataSource targetDataSource) {
+        this.targetDataSource = targetDataSource;
+    }
+
+    public String getTargetSchema() {
+        return targetSchema;
+    }
+
+    public void setTargetSchema(String targetSchema) {
+        this.targetSchema = targetSchema;
+    }
+
+    public int getPipeChunks() {
+        return pipeChunks;
+    }
+
+    public void setPipeChunks(int pipeChunks) {
+        this.pipeChunks = pipeChunks;
+    }
+}
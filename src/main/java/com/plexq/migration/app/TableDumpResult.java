@@ -0,0 +1,79 @@
+package com.plexq.migration.app;
+
+/**
+ * The outcome of dumping or loading a single table, collected by the workers so we can
+ * print a report at the end of a run instead of losing failures in the log.
+ */
+public class TableDumpResult {
+    private String tableName;
+    private boolean success;
+    private long rows;
+    private long bytes;
+    private long elapsedMillis;
+    private String error;
+
+    public TableDumpResult(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return MB/s over the whole time spent on this table, query included
+     */
+    public double getThroughput() {
+        return (bytes / (1024.0 * 1024.0)) / (Math.max(1, elapsedMillis) / 1000.0);
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public String toString() {
+        if (success) {
+            return "OK     " + tableName + " : " + rows + " rows, " + bytes + " bytes in " + elapsedMillis + "ms ("
+                    + String.format("%.1f", getThroughput()) + " MB/s)";
+        }
+        else {
+            return "FAILED " + tableName + " : " + error;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.plexq.migration.dump;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The binary COPY counterpart of ColumnWriter - writes one column of the current row as a binary
+ * field, in the send format of the target column's type.  See BinaryColumnWriters.
+ */
+public interface BinaryColumnWriter {
+    /**
+     * @param rs the result set, positioned on a row
+     * @param column the 1 based column index
+     * @param out where the field (or a null) goes
+     */
+    void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException;
+}
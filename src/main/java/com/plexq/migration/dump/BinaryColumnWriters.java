@@ -0,0 +1,237 @@
+package com.plexq.migration.dump;
+
+import com.plexq.hermes.Guidance;
+import com.plexq.hermes.PostgresqlTableBuilder;
+import com.plexq.hermes.TableBuildException;
+import com.plexq.hermes.TableMetadata;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Builds the BinaryColumnWriters for a table from its column Guidance.  Binary COPY needs each field in
+ * the exact format of the target column, so we work out the target type the same way the DDL is
+ * generated - java.sql type to Java class through TableMetadata, then Java class and guidance to a
+ * PostgreSQL type through PostgresqlTableBuilder - and pick the writer for that type.  Anything we can't
+ * map goes as text.
+ * <p/>
+ * Writers with a Calendar are not thread safe, so compile a fresh set for each table dump.
+ */
+public class BinaryColumnWriters {
+    /**
+     * Days from 1970-01-01 to 2000-01-01, the PostgreSQL epoch
+     */
+    private static final long PG_EPOCH_DAYS = 10957;
+
+    private static final long MICROS_PER_DAY = 86400L * 1000000L;
+
+    public static BinaryColumnWriter[] compile(List<Guidance> columns) {
+        PostgresqlTableBuilder tb = new PostgresqlTableBuilder();
+        BinaryColumnWriter[] writers = new BinaryColumnWriter[columns.size()];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = forType(getTargetType(tb, columns.get(t)));
+        }
+        return writers;
+    }
+
+    /**
+     * @return the PostgreSQL type the DDL generator would give this column, or text if it can't map it
+     */
+    public static String getTargetType(PostgresqlTableBuilder tb, Guidance g) {
+        Class c = TableMetadata.getJavaClassForSQLType(g.getJavaSQLType());
+        if (c == null) {
+            return "text";
+        }
+        try {
+            return tb.getDatabaseTypeForJavaClass(c, g);
+        }
+        catch (TableBuildException tbe) {
+            return "text";
+        }
+    }
+
+    public static BinaryColumnWriter forType(String type) {
+        if (type.equals("int8")) {
+            return new Int8Writer();
+        }
+        if (type.equals("int")) {
+            return new Int4Writer();
+        }
+        if (type.equals("float8")) {
+            return new Float8Writer();
+        }
+        if (type.startsWith("numeric")) {
+            return new NumericWriter();
+        }
+        if (type.equals("boolean")) {
+            return new BooleanWriter();
+        }
+        if (type.equals("date")) {
+            return new DateWriter();
+        }
+        if (type.equals("timestamp")) {
+            return new TimestampWriter();
+        }
+        if (type.equals("bytea")) {
+            return new ByteaWriter();
+        }
+        return new TextWriter();
+    }
+
+    static class Int8Writer implements BinaryColumnWriter {
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            long v = rs.getLong(column);
+            if (rs.wasNull()) {
+                out.writeNull();
+            }
+            else {
+                out.writeInt8(v);
+            }
+        }
+    }
+
+    static class Int4Writer implements BinaryColumnWriter {
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            int v = rs.getInt(column);
+            if (rs.wasNull()) {
+                out.writeNull();
+            }
+            else {
+                out.writeInt4(v);
+            }
+        }
+    }
+
+    static class Float8Writer implements BinaryColumnWriter {
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            double v = rs.getDouble(column);
+            if (rs.wasNull()) {
+                out.writeNull();
+            }
+            else {
+                out.writeFloat8(v);
+            }
+        }
+    }
+
+    static class NumericWriter implements BinaryColumnWriter {
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            BigDecimal v = rs.getBigDecimal(column);
+            if (v == null) {
+                out.writeNull();
+            }
+            else {
+                out.writeNumeric(v);
+            }
+        }
+    }
+
+    static class BooleanWriter implements BinaryColumnWriter {
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            boolean v = rs.getBoolean(column);
+            if (rs.wasNull()) {
+                out.writeNull();
+            }
+            else {
+                out.writeBoolean(v);
+            }
+        }
+    }
+
+    /**
+     * int4 days since 2000-01-01
+     */
+    static class DateWriter implements BinaryColumnWriter {
+        private Calendar calendar = new GregorianCalendar();
+
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            Date v = rs.getDate(column);
+            if (v == null) {
+                out.writeNull();
+                return;
+            }
+            calendar.setTimeInMillis(v.getTime());
+            out.writeInt4((int)(daysSinceEpoch(calendar) - PG_EPOCH_DAYS));
+        }
+    }
+
+    /**
+     * int8 microseconds since 2000-01-01 00:00:00, as a timestamp without time zone, so we go by the
+     * local wall clock fields just as the text format does
+     */
+    static class TimestampWriter implements BinaryColumnWriter {
+        private Calendar calendar = new GregorianCalendar();
+
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            Timestamp v = rs.getTimestamp(column);
+            if (v == null) {
+                out.writeNull();
+                return;
+            }
+            calendar.setTimeInMillis(v.getTime());
+            long micros = (daysSinceEpoch(calendar) - PG_EPOCH_DAYS) * MICROS_PER_DAY
+                    + calendar.get(Calendar.HOUR_OF_DAY) * 3600000000L
+                    + calendar.get(Calendar.MINUTE) * 60000000L
+                    + calendar.get(Calendar.SECOND) * 1000000L
+                    + v.getNanos() / 1000;
+            out.writeInt8(micros);
+        }
+    }
+
+    static class ByteaWriter implements BinaryColumnWriter {
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            byte[] v = rs.getBytes(column);
+            if (v == null) {
+                out.writeNull();
+            }
+            else {
+                out.writeBytes(v);
+            }
+        }
+    }
+
+    /**
+     * Text, xml and anything else that arrives as a string.  CLOBs are read whole here, since binary
+     * fields need their length up front.
+     */
+    static class TextWriter implements BinaryColumnWriter {
+        public void write(ResultSet rs, int column, BinaryCopyEncoder out) throws SQLException, IOException {
+            String v = rs.getString(column);
+            if (v == null) {
+                out.writeNull();
+            }
+            else {
+                out.writeText(v);
+            }
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 of the calendar's local date, counted on the proleptic Gregorian calendar
+     * the way PostgreSQL counts them
+     */
+    static long daysSinceEpoch(Calendar c) {
+        long y = c.get(Calendar.YEAR);
+        if (c.get(Calendar.ERA) == GregorianCalendar.BC) {
+            y = 1 - y;
+        }
+        int m = c.get(Calendar.MONTH) + 1;
+        int d = c.get(Calendar.DAY_OF_MONTH);
+
+        if (m <= 2) {
+            y--;
+        }
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+}
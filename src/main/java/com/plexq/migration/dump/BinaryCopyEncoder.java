@@ -0,0 +1,239 @@
+package com.plexq.migration.dump;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Writes PostgreSQL's binary COPY format: the PGCOPY signature and header, then for each row a 16 bit
+ * field count followed by each field as a 32 bit length (-1 for null) and the value in network byte
+ * order, then a -1 trailer.  Values have to be in exactly the server's internal send format for the
+ * target column type, which is why BinaryColumnWriters picks writers from the same type mapping that
+ * generated the DDL.
+ * <p/>
+ * Like CopyTextEncoder, everything goes through a reusable buffer that's handed to the sink when it fills.
+ * <p/>
+ * Timestamps are written as int8 microseconds, which is only how the server reads them when it has
+ * integer_datetimes on.  That's the default from 8.4; 8.3 and earlier, and servers built with float
+ * datetimes, have it off and would load garbage, so check with hasIntegerDatetimes() before loading.
+ */
+public class BinaryCopyEncoder {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xff, '\r', '\n', 0};
+
+    private static final BigInteger TEN_THOUSAND = BigInteger.valueOf(10000);
+
+    private DumpSink out;
+    private byte[] buffer;
+    private int length = 0;
+    private byte[] scratch = new byte[1024];
+
+    public BinaryCopyEncoder(DumpSink out) {
+        this(out, 65536);
+    }
+
+    public BinaryCopyEncoder(DumpSink out, int bufferSize) {
+        this.out = out;
+        // Room for the largest fixed size field, an int8 with its length
+        this.buffer = new byte[Math.max(bufferSize, 12)];
+    }
+
+    /**
+     * Whether a server has integer_datetimes on, so it can take the timestamps we write
+     */
+    public static boolean hasIntegerDatetimes(Connection target) throws SQLException {
+        Statement st = target.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("show integer_datetimes");
+            return rs.next() && "on".equalsIgnoreCase(rs.getString(1));
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    public void writeHeader() throws IOException {
+        writeRaw(SIGNATURE, 0, SIGNATURE.length);
+        // Flags, then the length of the header extension area
+        putInt(0);
+        putInt(0);
+    }
+
+    public void startRow(int fields) throws IOException {
+        putShort(fields);
+    }
+
+    public void writeTrailer() throws IOException {
+        putShort(-1);
+    }
+
+    public void writeNull() throws IOException {
+        putInt(-1);
+    }
+
+    public void writeInt2(short v) throws IOException {
+        putInt(2);
+        putShort(v);
+    }
+
+    public void writeInt4(int v) throws IOException {
+        putInt(4);
+        putInt(v);
+    }
+
+    public void writeInt8(long v) throws IOException {
+        putInt(8);
+        putLong(v);
+    }
+
+    public void writeFloat8(double v) throws IOException {
+        putInt(8);
+        putLong(Double.doubleToLongBits(v));
+    }
+
+    public void writeBoolean(boolean v) throws IOException {
+        putInt(1);
+        ensure(1);
+        buffer[length++] = (byte)(v ? 1 : 0);
+    }
+
+    public void writeBytes(byte[] b) throws IOException {
+        putInt(b.length);
+        writeRaw(b, 0, b.length);
+    }
+
+    /**
+     * Write a text value as UTF-8.  We need the length before the bytes, so it's encoded into a scratch
+     * array first.
+     */
+    public void writeText(CharSequence s) throws IOException {
+        int n = s.length();
+        if (scratch.length < n * 3) {
+            scratch = new byte[n * 3];
+        }
+        int p = 0;
+        for (int t = 0; t < n; t++) {
+            char c = s.charAt(t);
+            if (c < 0x80) {
+                scratch[p++] = (byte)c;
+            }
+            else if (c < 0x800) {
+                scratch[p++] = (byte)(0xc0 | (c >> 6));
+                scratch[p++] = (byte)(0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && t + 1 < n && Character.isLowSurrogate(s.charAt(t + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++t));
+                scratch[p++] = (byte)(0xf0 | (cp >> 18));
+                scratch[p++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                scratch[p++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                scratch[p++] = (byte)(0x80 | (cp & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                scratch[p++] = (byte)'?';
+            }
+            else {
+                scratch[p++] = (byte)(0xe0 | (c >> 12));
+                scratch[p++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                scratch[p++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        putInt(p);
+        writeRaw(scratch, 0, p);
+    }
+
+    /**
+     * Write a numeric in the server's format: a count of base 10000 digits, the weight of the first
+     * digit, the sign, the display scale, then the digits themselves
+     */
+    public void writeNumeric(BigDecimal v) throws IOException {
+        int dscale = Math.max(v.scale(), 0);
+        BigDecimal abs = v.abs();
+        if (abs.scale() < 0) {
+            abs = abs.setScale(0);
+        }
+
+        // Pad the fraction out to a whole number of base 10000 digits so it splits evenly
+        int fractionDigits = (abs.scale() + 3) / 4;
+        BigInteger unscaled = abs.setScale(fractionDigits * 4).unscaledValue();
+
+        short[] digits = new short[unscaled.bitLength() / 13 + 2];
+        int count = 0;
+        while (unscaled.signum() != 0) {
+            BigInteger[] qr = unscaled.divideAndRemainder(TEN_THOUSAND);
+            digits[count++] = qr[1].shortValue();
+            unscaled = qr[0];
+        }
+
+        // digits holds them least significant first; drop the trailing zeros of the fraction
+        int low = 0;
+        while (low < count && digits[low] == 0) {
+            low++;
+        }
+        int ndigits = count - low;
+        int weight = ndigits == 0 ? 0 : count - fractionDigits - 1;
+
+        putInt(8 + ndigits * 2);
+        putShort(ndigits);
+        putShort(weight);
+        putShort(v.signum() < 0 ? 0x4000 : 0x0000);
+        putShort(dscale);
+        for (int t = count - 1; t >= low; t--) {
+            putShort(digits[t]);
+        }
+    }
+
+    private void ensure(int n) throws IOException {
+        if (buffer.length - length < n) {
+            flushBuffer();
+        }
+    }
+
+    private void putShort(int v) throws IOException {
+        ensure(2);
+        buffer[length++] = (byte)(v >> 8);
+        buffer[length++] = (byte)v;
+    }
+
+    private void putInt(int v) throws IOException {
+        ensure(4);
+        buffer[length++] = (byte)(v >> 24);
+        buffer[length++] = (byte)(v >> 16);
+        buffer[length++] = (byte)(v >> 8);
+        buffer[length++] = (byte)v;
+    }
+
+    private void putLong(long v) throws IOException {
+        putInt((int)(v >> 32));
+        putInt((int)v);
+    }
+
+    private void writeRaw(byte[] b, int off, int len) throws IOException {
+        if (len > buffer.length - length) {
+            flushBuffer();
+            if (len > buffer.length) {
+                out.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, length, len);
+        length += len;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+}
@@ -0,0 +1,140 @@
+package com.plexq.migration.dump;
+
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.*;
+
+public class BinaryCopyEncoderTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(BinaryCopyEncoderTest.class);
+    }
+
+    private ByteArrayOutputStream bytes;
+    private BinaryCopyEncoder out;
+
+    @Before
+    public void setUp() {
+        bytes = new ByteArrayOutputStream();
+        out = new BinaryCopyEncoder(new DumpSink(Channels.newChannel(bytes), 1024), 16);
+    }
+
+    private String hex() throws IOException {
+        out.close();
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes.toByteArray()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testHeaderAndTrailer() throws IOException {
+        out.writeHeader();
+        out.writeTrailer();
+        assertEquals("5047434f50590aff0d0a00" + "00000000" + "00000000" + "ffff", hex());
+    }
+
+    @Test
+    public void testRow() throws IOException {
+        out.startRow(3);
+        out.writeInt4(-2);
+        out.writeNull();
+        out.writeBoolean(true);
+        assertEquals("0003" + "00000004fffffffe" + "ffffffff" + "0000000101", hex());
+    }
+
+    @Test
+    public void testInt8AcrossBufferBoundary() throws IOException {
+        out.writeInt8(1);
+        out.writeInt8(0x0102030405060708L);
+        assertEquals("000000080000000000000001" + "000000080102030405060708", hex());
+    }
+
+    @Test
+    public void testText() throws IOException {
+        // 2, 3 and 4 byte UTF-8 sequences, and longer than the buffer
+        out.writeText("\u00e9\u20ac\ud83d\ude00 and some more text");
+        String h = hex();
+        assertEquals("0000001c" + "c3a9" + "e282ac" + "f09f9880", h.substring(0, 26));
+        assertEquals(4 + 0x1c, h.length() / 2);
+    }
+
+    @Test
+    public void testNumeric() throws IOException {
+        // ndigits, weight, sign, dscale, then base 10000 digits
+        out.writeNumeric(new BigDecimal("123.45"));
+        assertEquals("0000000c" + "0002" + "0000" + "0000" + "0002" + "007b" + "1194", hex());
+    }
+
+    @Test
+    public void testNegativeFraction() throws IOException {
+        out.writeNumeric(new BigDecimal("-0.0001"));
+        assertEquals("0000000a" + "0001" + "ffff" + "4000" + "0004" + "0001", hex());
+    }
+
+    @Test
+    public void testNumericZeroAndPowers() throws IOException {
+        out.writeNumeric(new BigDecimal("0"));
+        out.writeNumeric(new BigDecimal("1E+4"));
+        assertEquals("00000008" + "0000" + "0000" + "0000" + "0000"
+                + "0000000a" + "0001" + "0001" + "0000" + "0000" + "0001", hex());
+    }
+
+    @Test
+    public void testDays() {
+        assertEquals(0, BinaryColumnWriters.daysSinceEpoch(new GregorianCalendar(1970, Calendar.JANUARY, 1)));
+        assertEquals(10957, BinaryColumnWriters.daysSinceEpoch(new GregorianCalendar(2000, Calendar.JANUARY, 1)));
+        assertEquals(11016, BinaryColumnWriters.daysSinceEpoch(new GregorianCalendar(2000, Calendar.FEBRUARY, 29)));
+        // Before the Gregorian cutover we still count on the proleptic calendar, as PostgreSQL does
+        assertEquals(-719162, BinaryColumnWriters.daysSinceEpoch(new GregorianCalendar(1, Calendar.JANUARY, 1)));
+    }
+
+    /**
+     * A connection answering show integer_datetimes with the given setting
+     */
+    private static Connection server(final String integerDatetimes) {
+        return (Connection)Proxy.newProxyInstance(BinaryCopyEncoderTest.class.getClassLoader(), new Class[] {Connection.class, Statement.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("createStatement")) {
+                    return proxy;
+                }
+                if (name.equals("executeQuery")) {
+                    assertEquals("show integer_datetimes", args[0]);
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ResultSet.class}, this);
+                }
+                if (name.equals("next")) {
+                    return true;
+                }
+                if (name.equals("getString")) {
+                    return integerDatetimes;
+                }
+                if (name.equals("close")) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    @Test
+    public void testIntegerDatetimes() throws SQLException {
+        assertTrue(BinaryCopyEncoder.hasIntegerDatetimes(server("on")));
+        assertFalse(BinaryCopyEncoder.hasIntegerDatetimes(server("off")));
+    }
+}
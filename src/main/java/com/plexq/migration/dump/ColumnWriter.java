@@ -0,0 +1,18 @@
+package com.plexq.migration.dump;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes one column of the current row of a ResultSet to a dump.  ColumnWriters.compile builds an
+ * array of these for a table once, so the per cell work is just the typed getter and the formatting.
+ */
+public interface ColumnWriter {
+    /**
+     * @param rs the result set, positioned on a row
+     * @param column the 1 based column index
+     * @param out where the value (or \N) goes
+     */
+    void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException;
+}
@@ -0,0 +1,221 @@
+package com.plexq.migration.dump;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Builds the ColumnWriters for a table from the java.sql.Types codes of its columns.  Integers are
+ * read with getLong and written straight out as digits, dates and timestamps are formatted field by
+ * field from a Calendar the writer keeps, binaries are read with getBytes and written as escape format
+ * bytea, with octal escapes for anything that isn't printable, and CLOBs are streamed.  Anything we
+ * don't have a special case for goes through getString.
+ * <p/>
+ * Writers with a Calendar are not thread safe, so compile a fresh set for each table dump.
+ */
+public class ColumnWriters {
+    public static ColumnWriter[] compile(int[] types) {
+        ColumnWriter[] writers = new ColumnWriter[types.length];
+        for (int t = 0; t < types.length; t++) {
+            writers[t] = forType(types[t]);
+        }
+        return writers;
+    }
+
+    public static ColumnWriter forType(int type) {
+        switch (type) {
+            case Types.BIGINT:
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return new IntegerWriter();
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return new BooleanWriter();
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return new DecimalWriter();
+            case Types.TIMESTAMP:
+                return new TimestampWriter();
+            case Types.DATE:
+                return new DateWriter();
+            case Types.TIME:
+                return new TimeWriter();
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return new BinaryWriter();
+            case Types.CLOB:
+            case Types.NCLOB:
+                return new ClobWriter();
+            default:
+                return new StringWriter();
+        }
+    }
+
+    static class IntegerWriter implements ColumnWriter {
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            long v = rs.getLong(column);
+            if (rs.wasNull()) {
+                out.appendNull();
+            }
+            else {
+                out.appendLong(v);
+            }
+        }
+    }
+
+    static class BooleanWriter implements ColumnWriter {
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            boolean v = rs.getBoolean(column);
+            if (rs.wasNull()) {
+                out.appendNull();
+            }
+            else {
+                out.appendRaw(v ? 't' : 'f');
+            }
+        }
+    }
+
+    static class DecimalWriter implements ColumnWriter {
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            BigDecimal v = rs.getBigDecimal(column);
+            if (v == null) {
+                out.appendNull();
+            }
+            else {
+                out.append(v.toPlainString());
+            }
+        }
+    }
+
+    /**
+     * Writes yyyy-MM-dd HH:mm:ss with microseconds if there are any, which is what PostgreSQL itself
+     * produces for a timestamp
+     */
+    static class TimestampWriter implements ColumnWriter {
+        private Calendar calendar = new GregorianCalendar();
+
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            Timestamp v = rs.getTimestamp(column);
+            if (v == null) {
+                out.appendNull();
+                return;
+            }
+            calendar.setTimeInMillis(v.getTime());
+            writeDate(calendar, out, false);
+            out.appendRaw(' ');
+            writeTime(calendar, out);
+            int micros = v.getNanos() / 1000;
+            if (micros != 0) {
+                int width = 6;
+                while (micros % 10 == 0) {
+                    micros /= 10;
+                    width--;
+                }
+                out.appendRaw('.');
+                out.appendPadded(micros, width);
+            }
+            writeEra(calendar, out);
+        }
+    }
+
+    static class DateWriter implements ColumnWriter {
+        private Calendar calendar = new GregorianCalendar();
+
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            Date v = rs.getDate(column);
+            if (v == null) {
+                out.appendNull();
+                return;
+            }
+            calendar.setTimeInMillis(v.getTime());
+            writeDate(calendar, out, true);
+        }
+    }
+
+    static class TimeWriter implements ColumnWriter {
+        private Calendar calendar = new GregorianCalendar();
+
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            Time v = rs.getTime(column);
+            if (v == null) {
+                out.appendNull();
+                return;
+            }
+            calendar.setTimeInMillis(v.getTime());
+            writeTime(calendar, out);
+        }
+    }
+
+    static class BinaryWriter implements ColumnWriter {
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            byte[] v = rs.getBytes(column);
+            if (v == null) {
+                out.appendNull();
+            }
+            else {
+                out.appendBytea(v);
+            }
+        }
+    }
+
+    static class ClobWriter implements ColumnWriter {
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            Reader r = rs.getCharacterStream(column);
+            if (r == null) {
+                out.appendNull();
+                return;
+            }
+            try {
+                out.append(r);
+            }
+            finally {
+                r.close();
+            }
+        }
+    }
+
+    static class StringWriter implements ColumnWriter {
+        public void write(ResultSet rs, int column, CopyTextEncoder out) throws SQLException, IOException {
+            String v = rs.getString(column);
+            if (v == null) {
+                out.appendNull();
+            }
+            else {
+                out.append(v);
+            }
+        }
+    }
+
+    private static void writeDate(Calendar c, CopyTextEncoder out, boolean withEra) throws IOException {
+        out.appendPadded(c.get(Calendar.YEAR), 4);
+        out.appendRaw('-');
+        out.appendPadded(c.get(Calendar.MONTH) + 1, 2);
+        out.appendRaw('-');
+        out.appendPadded(c.get(Calendar.DAY_OF_MONTH), 2);
+        if (withEra) {
+            writeEra(c, out);
+        }
+    }
+
+    private static void writeTime(Calendar c, CopyTextEncoder out) throws IOException {
+        out.appendPadded(c.get(Calendar.HOUR_OF_DAY), 2);
+        out.appendRaw(':');
+        out.appendPadded(c.get(Calendar.MINUTE), 2);
+        out.appendRaw(':');
+        out.appendPadded(c.get(Calendar.SECOND), 2);
+    }
+
+    private static void writeEra(Calendar c, CopyTextEncoder out) throws IOException {
+        if (c.get(Calendar.ERA) == GregorianCalendar.BC) {
+            out.appendRaw(' ');
+            out.appendRaw('B');
+            out.appendRaw('C');
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.plexq.migration.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded in-memory pipe between a thread reading rows from the source and a thread feeding them to
+ * COPY on the target.  The writing side is a channel, so a DumpSink can write to it exactly as it would
+ * to a file, and each buffer it drains becomes one chunk on a queue.  The reading side is an InputStream
+ * for CopyManager.copyIn.  The queue holds at most a fixed number of chunks, so when the target falls
+ * behind the source blocks rather than the whole table piling up in the heap.
+ * <p/>
+ * Either side can abort the pipe when it fails, which makes the other side's next read or write throw
+ * rather than wait forever for a partner that's gone.
+ */
+public class CopyPipe {
+    public static final int DEFAULT_CHUNKS = 16;
+
+    private static final byte[] EOF = new byte[0];
+
+    private static final long POLL_MILLIS = 100;
+
+    private BlockingQueue<byte[]> queue;
+    private volatile Throwable failure;
+
+    private Channel channel = new Channel();
+    private Input input = new Input();
+
+    public CopyPipe() {
+        this(DEFAULT_CHUNKS);
+    }
+
+    /**
+     * @param chunks how many buffers can be waiting in the pipe at once
+     */
+    public CopyPipe(int chunks) {
+        queue = new ArrayBlockingQueue<byte[]>(Math.max(1, chunks));
+    }
+
+    public WritableByteChannel getChannel() {
+        return channel;
+    }
+
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    /**
+     * Break the pipe, so both ends fail from now on
+     */
+    public void abort(Throwable cause) {
+        if (failure == null) {
+            failure = cause == null ? new IOException("Pipe aborted") : cause;
+        }
+        queue.clear();
+    }
+
+    public boolean isAborted() {
+        return failure != null;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            IOException ioe = new IOException("Copy pipe aborted: " + failure.getMessage());
+            ioe.initCause(failure);
+            throw ioe;
+        }
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        try {
+            while (!queue.offer(chunk, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing to the copy pipe");
+        }
+        checkFailure();
+    }
+
+    private byte[] take() throws IOException {
+        try {
+            byte[] chunk;
+            while ((chunk = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkFailure();
+            }
+            checkFailure();
+            return chunk;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted reading from the copy pipe");
+        }
+    }
+
+    private class Channel implements WritableByteChannel {
+        private boolean open = true;
+
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new IOException("Copy pipe is closed");
+            }
+            int n = src.remaining();
+            if (n > 0) {
+                byte[] chunk = new byte[n];
+                src.get(chunk);
+                put(chunk);
+            }
+            return n;
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Marks the end of the data.  The reader sees end of stream once it has everything before it.
+         */
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                put(EOF);
+            }
+        }
+    }
+
+    private class Input extends InputStream {
+        private byte[] chunk;
+        private int position;
+        private boolean finished = false;
+
+        /**
+         * @return false at the end of the data
+         */
+        private boolean fill() throws IOException {
+            while (!finished && (chunk == null || position == chunk.length)) {
+                chunk = take();
+                position = 0;
+                if (chunk == EOF) {
+                    finished = true;
+                }
+            }
+            return !finished;
+        }
+
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return chunk[position++] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        public int available() {
+            return chunk == null || finished ? 0 : chunk.length - position;
+        }
+
+        public void close() {
+            // Nothing more will be read, so don't let the writer block on a full queue
+            if (!finished) {
+                abort(new IOException("Copy pipe reader closed"));
+            }
+        }
+    }
+}
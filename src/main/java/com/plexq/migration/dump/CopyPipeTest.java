@@ -0,0 +1,183 @@
+package com.plexq.migration.dump;
+
+import com.plexq.migration.app.StreamToPSQL;
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class CopyPipeTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(CopyPipeTest.class);
+    }
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private Future<byte[]> drain(final InputStream in) {
+        return pool.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream bo = new ByteArrayOutputStream();
+                byte[] b = new byte[7];
+                int n;
+                while ((n = in.read(b)) != -1) {
+                    bo.write(b, 0, n);
+                }
+                return bo.toByteArray();
+            }
+        });
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        CopyPipe pipe = new CopyPipe(2);
+        Future<byte[]> read = drain(pipe.getInputStream());
+
+        // Small sink buffer and a two chunk pipe, so the writer has to wait for the reader
+        DumpSink sink = new DumpSink(pipe.getChannel(), 16);
+        StringBuilder expected = new StringBuilder();
+        for (int t = 0; t < 1000; t++) {
+            String line = t + "\tvalue " + t + "\n";
+            sink.write(line);
+            expected.append(line);
+        }
+        sink.close();
+
+        assertEquals(expected.toString(), new String(read.get(10, TimeUnit.SECONDS), "UTF-8"));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        CopyPipe pipe = new CopyPipe();
+        Future<byte[]> read = drain(pipe.getInputStream());
+        pipe.getChannel().close();
+        assertEquals(0, read.get(10, TimeUnit.SECONDS).length);
+    }
+
+    @Test
+    public void testWriterBlocksWhenFull() throws Exception {
+        final CopyPipe pipe = new CopyPipe(1);
+        final WritableByteChannel ch = pipe.getChannel();
+        ch.write(ByteBuffer.wrap(new byte[]{1}));
+
+        Future<Object> second = pool.submit(new Callable<Object>() {
+            public Object call() throws IOException {
+                ch.write(ByteBuffer.wrap(new byte[]{2}));
+                return null;
+            }
+        });
+        try {
+            second.get(300, TimeUnit.MILLISECONDS);
+            fail("Write to a full pipe should block");
+        }
+        catch (TimeoutException te) {
+            // expected
+        }
+
+        assertEquals(1, pipe.getInputStream().read());
+        second.get(10, TimeUnit.SECONDS);
+        assertEquals(2, pipe.getInputStream().read());
+    }
+
+    @Test
+    public void testReaderFailureStopsWriter() throws Exception {
+        final CopyPipe pipe = new CopyPipe(1);
+        Future<Object> write = pool.submit(new Callable<Object>() {
+            public Object call() throws IOException {
+                while (true) {
+                    pipe.getChannel().write(ByteBuffer.wrap(new byte[100]));
+                }
+            }
+        });
+
+        pipe.getInputStream().read();
+        pipe.abort(new IOException("target went away"));
+        try {
+            write.get(10, TimeUnit.SECONDS);
+            fail("Writer should see the abort");
+        }
+        catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IOException);
+            assertTrue(ee.getCause().getMessage().contains("target went away"));
+        }
+    }
+
+    @Test
+    public void testWriterFailureStopsReader() throws Exception {
+        CopyPipe pipe = new CopyPipe();
+        Future<byte[]> read = drain(pipe.getInputStream());
+        pipe.getChannel().write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        pipe.abort(new IOException("source went away"));
+        try {
+            read.get(10, TimeUnit.SECONDS);
+            fail("Reader should see the abort rather than a short, clean end of stream");
+        }
+        catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * Streams rows through a pipe into COPY on a real server.  Only runs when -Dtest.pg.url (and
+     * optionally test.pg.user/test.pg.password) is given.
+     */
+    @Test
+    public void testCopyInThroughPipe() throws Exception {
+        String url = System.getProperty("test.pg.url");
+        Assume.assumeTrue(url != null);
+
+        Class.forName("org.postgresql.Driver");
+        final Connection c = DriverManager.getConnection(url, System.getProperty("test.pg.user"), System.getProperty("test.pg.password"));
+        try {
+            Statement st = c.createStatement();
+            st.executeUpdate("create temporary table copy_pipe_test (id int8, name text)");
+
+            final CopyPipe pipe = new CopyPipe(2);
+            Future<Long> copy = pool.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return StreamToPSQL.copyIn(c, "copy copy_pipe_test (id,name) from stdin", pipe.getInputStream());
+                }
+            });
+
+            CopyTextEncoder out = new CopyTextEncoder(new DumpSink(pipe.getChannel(), 4096));
+            for (int t = 0; t < 100000; t++) {
+                out.appendLong(t);
+                out.appendDelimiter();
+                out.append("row\t" + t);
+                out.endRow();
+            }
+            out.close();
+
+            assertEquals(100000L, copy.get(60, TimeUnit.SECONDS).longValue());
+            ResultSet rs = st.executeQuery("select count(*), max(name) from copy_pipe_test");
+            rs.next();
+            assertEquals(100000, rs.getInt(1));
+            assertEquals("row\t99999", rs.getString(2));
+            rs.close();
+            st.close();
+        }
+        finally {
+            c.close();
+        }
+    }
+}
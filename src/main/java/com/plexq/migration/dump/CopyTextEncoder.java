@@ -0,0 +1,229 @@
+package com.plexq.migration.dump;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Writes rows in PostgreSQL's COPY text format.  Values are escaped in a single pass into a reusable
+ * char buffer, which is handed to the underlying Writer when it fills up or when asked to flush, so a
+ * cell costs no allocations and no more than one scan.
+ * <p/>
+ * The escaping matches what the server itself produces for COPY TO in text format with the default tab
+ * delimiter: backslash, tab, newline and carriage return, plus the backspace, form feed and vertical tab
+ * control characters, become backslash sequences; nulls are written as \N; and nothing is ever quoted.
+ */
+public class CopyTextEncoder {
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private Writer out;
+    private char[] buffer;
+    private int length = 0;
+    private char[] readBuffer;
+    private char[] digits = new char[20];
+
+
+    public CopyTextEncoder(Writer out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CopyTextEncoder(Writer out, int bufferSize) {
+        this.out = out;
+        // Room for at least one escaped character
+        this.buffer = new char[Math.max(bufferSize, 2)];
+    }
+
+    /**
+     * Append a value, escaping it as we go
+     */
+    public CopyTextEncoder append(CharSequence s) throws IOException {
+        int n = s.length();
+        for (int t = 0; t < n; t++) {
+            escape(s.charAt(t));
+        }
+        return this;
+    }
+
+    /**
+     * Append a value held in a char array, escaping it as we go
+     */
+    public CopyTextEncoder append(char[] c, int offset, int count) throws IOException {
+        int end = offset + count;
+        for (int t = offset; t < end; t++) {
+            escape(c[t]);
+        }
+        return this;
+    }
+
+    /**
+     * Append the whole content of a Reader, escaping it as we go.  Used for CLOBs so we never have to
+     * materialize them.
+     */
+    public CopyTextEncoder append(Reader r) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = new char[8192];
+        }
+        int n;
+        while ((n = r.read(readBuffer)) != -1) {
+            append(readBuffer, 0, n);
+        }
+        return this;
+    }
+
+    public CopyTextEncoder appendNull() throws IOException {
+        raw('\\');
+        raw('N');
+        return this;
+    }
+
+    public CopyTextEncoder appendDelimiter() throws IOException {
+        raw('\t');
+        return this;
+    }
+
+    public CopyTextEncoder endRow() throws IOException {
+        raw('\n');
+        return this;
+    }
+
+    /**
+     * Append a character that needs no escaping, such as a digit, without checking it
+     */
+    public void appendRaw(char c) throws IOException {
+        raw(c);
+    }
+
+    /**
+     * Append a long as decimal digits without going through a String
+     */
+    public CopyTextEncoder appendLong(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            // Can't be negated
+            append("-9223372036854775808");
+            return this;
+        }
+        if (v < 0) {
+            raw('-');
+            v = -v;
+        }
+        int p = digits.length;
+        do {
+            digits[--p] = (char)('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        while (p < digits.length) {
+            raw(digits[p++]);
+        }
+        return this;
+    }
+
+    /**
+     * Append a non-negative int zero padded to at least the given width, for date and time fields
+     */
+    public CopyTextEncoder appendPadded(int v, int width) throws IOException {
+        int p = digits.length;
+        do {
+            digits[--p] = (char)('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        while (digits.length - p < width) {
+            digits[--p] = '0';
+        }
+        while (p < digits.length) {
+            raw(digits[p++]);
+        }
+        return this;
+    }
+
+    /**
+     * Append bytes as a PostgreSQL escape format bytea literal, which every server version reads,
+     * unlike the hex format that only came in with 9.0.  Printable ASCII goes in as it is, a backslash
+     * as two, and anything else as a backslash and three octal digits.  Each of those backslashes is
+     * itself escaped, as COPY text requires.
+     */
+    public CopyTextEncoder appendBytea(byte[] b) throws IOException {
+        for (int t = 0; t < b.length; t++) {
+            int v = b[t] & 0xff;
+            if (v == '\\') {
+                raw('\\');
+                raw('\\');
+                raw('\\');
+                raw('\\');
+            }
+            else if (v >= 0x20 && v < 0x7f) {
+                raw((char)v);
+            }
+            else {
+                raw('\\');
+                raw('\\');
+                raw((char)('0' + (v >> 6)));
+                raw((char)('0' + ((v >> 3) & 7)));
+                raw((char)('0' + (v & 7)));
+            }
+        }
+        return this;
+    }
+
+    private void escape(char c) throws IOException {
+        if (buffer.length - length < 2) {
+            flushBuffer();
+        }
+        switch (c) {
+            case '\\':
+                buffer[length++] = '\\';
+                buffer[length++] = '\\';
+                break;
+            case '\t':
+                buffer[length++] = '\\';
+                buffer[length++] = 't';
+                break;
+            case '\n':
+                buffer[length++] = '\\';
+                buffer[length++] = 'n';
+                break;
+            case '\r':
+                buffer[length++] = '\\';
+                buffer[length++] = 'r';
+                break;
+            case '\b':
+                buffer[length++] = '\\';
+                buffer[length++] = 'b';
+                break;
+            case '\f':
+                buffer[length++] = '\\';
+                buffer[length++] = 'f';
+                break;
+            case 0x0b:
+                buffer[length++] = '\\';
+                buffer[length++] = 'v';
+                break;
+            default:
+                buffer[length++] = c;
+        }
+    }
+
+    private void raw(char c) throws IOException {
+        if (length == buffer.length) {
+            flushBuffer();
+        }
+        buffer[length++] = c;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    /**
+     * Hand anything buffered to the underlying Writer and flush it
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+}
@@ -0,0 +1,121 @@
+package com.plexq.migration.dump;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class CopyTextEncoderTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(CopyTextEncoderTest.class);
+    }
+
+    private String encode(String s) throws IOException {
+        StringWriter sw = new StringWriter();
+        CopyTextEncoder e = new CopyTextEncoder(sw);
+        e.append(s);
+        e.flush();
+        return sw.toString();
+    }
+
+    @Test
+    public void testPlain() throws IOException {
+        assertEquals("hello world", encode("hello world"));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertEquals("", encode(""));
+    }
+
+    @Test
+    public void testBackslash() throws IOException {
+        assertEquals("C:\\\\temp\\\\", encode("C:\\temp\\"));
+    }
+
+    @Test
+    public void testTab() throws IOException {
+        // No quoting - the old dumper wrapped these in a stray double quote
+        assertEquals("a\\tb", encode("a\tb"));
+    }
+
+    @Test
+    public void testNewlines() throws IOException {
+        // No trailing newline is added and CRLF survives as is
+        assertEquals("one\\ntwo", encode("one\ntwo"));
+        assertEquals("one\\r\\ntwo\\r\\n", encode("one\r\ntwo\r\n"));
+        assertEquals("\\r", encode("\r"));
+    }
+
+    @Test
+    public void testQuotesAreNotEscaped() throws IOException {
+        assertEquals("say \"hi\"", encode("say \"hi\""));
+    }
+
+    @Test
+    public void testControlCharacters() throws IOException {
+        assertEquals("\\b\\f\\v", encode("\b\f\u000b"));
+    }
+
+    @Test
+    public void testEndOfDataMarker() throws IOException {
+        assertEquals("\\\\.", encode("\\."));
+    }
+
+    @Test
+    public void testBytea() throws IOException {
+        StringWriter sw = new StringWriter();
+        CopyTextEncoder e = new CopyTextEncoder(sw);
+        e.appendBytea(new byte[] {'a', 0, '\\', '\n', (byte)0xff, ' '});
+        e.flush();
+        // Escape format, which servers before 9.0 read too: a\000\\\012\377 before COPY doubles the backslashes
+        assertEquals("a\\\\000\\\\\\\\\\\\012\\\\377 ", sw.toString());
+    }
+
+    @Test
+    public void testNonAscii() throws IOException {
+        assertEquals("caf\u00e9 \u65e5\u672c", encode("caf\u00e9 \u65e5\u672c"));
+    }
+
+    @Test
+    public void testRow() throws IOException {
+        StringWriter sw = new StringWriter();
+        CopyTextEncoder e = new CopyTextEncoder(sw);
+        e.append("1");
+        e.appendDelimiter();
+        e.appendNull();
+        e.appendDelimiter();
+        e.append("x\ty");
+        e.endRow();
+        e.flush();
+        assertEquals("1\t\\N\tx\\ty\n", sw.toString());
+    }
+
+    @Test
+    public void testClobWithTabs() throws IOException {
+        StringWriter sw = new StringWriter();
+        CopyTextEncoder e = new CopyTextEncoder(sw);
+        e.append(new StringReader("line\tone\nline two"));
+        e.flush();
+        assertEquals("line\\tone\\nline two", sw.toString());
+    }
+
+    @Test
+    public void testSmallBufferSpill() throws IOException {
+        StringBuilder in = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int t = 0; t < 1000; t++) {
+            in.append("a\\\t");
+            expected.append("a\\\\\\t");
+        }
+        StringWriter sw = new StringWriter();
+        CopyTextEncoder e = new CopyTextEncoder(sw, 3);
+        e.append(in);
+        e.flush();
+        assertEquals(expected.toString(), sw.toString());
+    }
+}
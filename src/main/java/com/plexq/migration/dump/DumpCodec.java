@@ -0,0 +1,21 @@
+package com.plexq.migration.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression format for dump files.  The dumper wraps its file in compress() and anything loading
+ * the dump wraps its input in decompress(), so data is compressed and decompressed on the fly and we
+ * never need a temporary uncompressed copy.  DumpCodecs knows about the ones we ship with.
+ */
+public interface DumpCodec {
+    /**
+     * @return the suffix added to dump file names, such as .gz
+     */
+    String getExtension();
+
+    OutputStream compress(OutputStream out) throws IOException;
+
+    InputStream decompress(InputStream in) throws IOException;
+}
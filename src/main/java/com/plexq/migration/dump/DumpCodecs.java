@@ -0,0 +1,48 @@
+package com.plexq.migration.dump;
+
+import java.util.zip.Deflater;
+
+/**
+ * Looks up dump codecs by name, for the dumper, and by file name, for the loader.  A null codec means
+ * the dump is plain text.
+ */
+public class DumpCodecs {
+    /**
+     * @param name none, gzip, deflate or pgzip
+     * @param level the compression level, 0-9, or -1 for the default
+     * @return the codec, or null for none
+     */
+    public static DumpCodec forName(String name, int level) {
+        if (name == null || name.equals("") || name.equals("none")) {
+            return null;
+        }
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + level);
+        }
+        if (name.equals("gzip")) {
+            return new GzipCodec(level);
+        }
+        if (name.equals("deflate")) {
+            return new DeflateCodec(level);
+        }
+        if (name.equals("pgzip")) {
+            return new ParallelGzipCodec(level);
+        }
+        throw new IllegalArgumentException("No dump codec called " + name);
+    }
+
+    /**
+     * Pick the codec that will read a dump file based on its extension
+     * @return the codec, or null if the file isn't compressed
+     */
+    public static DumpCodec forFile(String fileName) {
+        if (fileName.endsWith(".gz")) {
+            // Parallel gzip output is ordinary multi-member gzip
+            return new GzipCodec();
+        }
+        if (fileName.endsWith(".zz")) {
+            return new DeflateCodec();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,153 @@
+package com.plexq.migration.dump;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The end of the line for dump output.  Characters are encoded to UTF-8 straight into a large direct
+ * ByteBuffer, which is written to the channel only when it fills up, so a table costs a handful of
+ * write calls rather than a couple per cell.  Also keeps count of what went through it so we can
+ * report on throughput.
+ */
+public class DumpSink extends Writer {
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private long bytesWritten = 0;
+    private long started;
+    private long finished = -1;
+    /**
+     * A high surrogate waiting for its other half from the next write
+     */
+    private char pending = 0;
+
+    public DumpSink(File f) throws IOException {
+        this(f, DEFAULT_BUFFER_SIZE);
+    }
+
+    public DumpSink(File f, int bufferSize) throws IOException {
+        this(new FileOutputStream(f).getChannel(), bufferSize);
+    }
+
+    public DumpSink(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        // Room for at least one encoded character
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 4));
+        this.started = System.currentTimeMillis();
+    }
+
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        for (int t = off; t < end; t++) {
+            encode(cbuf[t]);
+        }
+    }
+
+    public void write(int c) throws IOException {
+        encode((char)c);
+    }
+
+    /**
+     * Write bytes that are already encoded, such as a binary COPY stream
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void encode(char c) throws IOException {
+        if (buffer.remaining() < 4) {
+            drain();
+        }
+
+        if (pending != 0) {
+            char high = pending;
+            pending = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                buffer.put((byte)(0xf0 | (cp >> 18)));
+                buffer.put((byte)(0x80 | ((cp >> 12) & 0x3f)));
+                buffer.put((byte)(0x80 | ((cp >> 6) & 0x3f)));
+                buffer.put((byte)(0x80 | (cp & 0x3f)));
+                return;
+            }
+            // Unpaired, same as String.getBytes would do
+            buffer.put((byte)'?');
+            if (buffer.remaining() < 4) {
+                drain();
+            }
+        }
+
+        if (c < 0x80) {
+            buffer.put((byte)c);
+        }
+        else if (c < 0x800) {
+            buffer.put((byte)(0xc0 | (c >> 6)));
+            buffer.put((byte)(0x80 | (c & 0x3f)));
+        }
+        else if (Character.isHighSurrogate(c)) {
+            pending = c;
+        }
+        else if (Character.isLowSurrogate(c)) {
+            buffer.put((byte)'?');
+        }
+        else {
+            buffer.put((byte)(0xe0 | (c >> 12)));
+            buffer.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+            buffer.put((byte)(0x80 | (c & 0x3f)));
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void flush() throws IOException {
+        drain();
+    }
+
+    public void close() throws IOException {
+        if (finished != -1) {
+            return;
+        }
+        if (pending != 0) {
+            pending = 0;
+            buffer.put((byte)'?');
+        }
+        drain();
+        channel.close();
+        finished = System.currentTimeMillis();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getElapsedMillis() {
+        return (finished == -1 ? System.currentTimeMillis() : finished) - started;
+    }
+
+    /**
+     * @return MB/s written so far
+     */
+    public double getThroughput() {
+        long ms = Math.max(1, getElapsedMillis());
+        return (bytesWritten / (1024.0 * 1024.0)) / (ms / 1000.0);
+    }
+}
@@ -0,0 +1,51 @@
+package com.plexq.migration.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Plain gzip at a configurable level, readable with gunzip/zcat
+ */
+public class GzipCodec implements DumpCodec {
+    private static final int STREAM_BUFFER_SIZE = 65536;
+
+    private int level;
+
+    public GzipCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public GzipCodec(int level) {
+        this.level = level;
+    }
+
+    public String getExtension() {
+        return ".gz";
+    }
+
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new LevelGZIPOutputStream(out, level);
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        return new GZIPInputStream(in, STREAM_BUFFER_SIZE);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * GZIPOutputStream doesn't let you pick the level, but its Deflater is protected
+     */
+    static class LevelGZIPOutputStream extends GZIPOutputStream {
+        public LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, STREAM_BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.plexq.migration.dump;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * gzip compressed in parallel, the same way pigz does it.  The stream is cut into fixed size blocks,
+ * each block is compressed on its own by a pool of threads as a complete gzip member, and the members
+ * are written out in order.  A file made of several gzip members is still a valid gzip file, so gunzip,
+ * zcat and GZIPInputStream read it as normal.  The ratio is a touch worse than plain gzip because each
+ * block starts with an empty dictionary, but a block size of a megabyte or so makes that negligible.
+ * <p/>
+ * The thread pool is shared by every stream this codec creates, so one instance can serve all the
+ * dump workers.
+ */
+public class ParallelGzipCodec implements DumpCodec {
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private int level;
+    private int threads;
+    private int blockSize;
+    private ExecutorService pool;
+
+    public ParallelGzipCodec() {
+        this(Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE);
+    }
+
+    public ParallelGzipCodec(int level) {
+        this(level, Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE);
+    }
+
+    public ParallelGzipCodec(int level, int threads, int blockSize) {
+        this.level = level;
+        this.threads = Math.max(1, threads);
+        this.blockSize = blockSize;
+    }
+
+    public String getExtension() {
+        return ".gz";
+    }
+
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new BlockOutputStream(out, getPool());
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        return new GZIPInputStream(in, 65536);
+    }
+
+    private synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "gzip-block");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Stop the compression threads once nothing is using this codec any more
+     */
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private class BlockOutputStream extends OutputStream {
+        private OutputStream out;
+        private ExecutorService pool;
+        private byte[] block = new byte[blockSize];
+        private int count = 0;
+        private boolean anyBlocks = false;
+        private boolean closed = false;
+        /**
+         * Blocks in the order they have to be written.  Limited to a couple per thread so a slow disk
+         * can't make us buffer the whole table.
+         */
+        private LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+        BlockOutputStream(OutputStream out, ExecutorService pool) {
+            this.out = out;
+            this.pool = pool;
+        }
+
+        public void write(int b) throws IOException {
+            if (count == block.length) {
+                submit();
+            }
+            block[count++] = (byte)b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == block.length) {
+                    submit();
+                }
+                int n = Math.min(len, block.length - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void submit() throws IOException {
+            final byte[] data = block;
+            final int length = count;
+            pending.add(pool.submit(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    ByteArrayOutputStream bo = new ByteArrayOutputStream(length / 2 + 64);
+                    OutputStream gz = new GzipCodec.LevelGZIPOutputStream(bo, level);
+                    gz.write(data, 0, length);
+                    gz.close();
+                    return bo.toByteArray();
+                }
+            }));
+            anyBlocks = true;
+            block = new byte[blockSize];
+            count = 0;
+
+            while (pending.size() >= threads * 2) {
+                writeNext();
+            }
+        }
+
+        private void writeNext() throws IOException {
+            try {
+                out.write(pending.removeFirst().get());
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for a compressed block");
+            }
+            catch (ExecutionException ee) {
+                IOException ioe = new IOException("Failed to compress a block: " + ee.getCause());
+                ioe.initCause(ee.getCause());
+                throw ioe;
+            }
+        }
+
+        public void flush() throws IOException {
+            // A partial block would end up as a tiny member, so we only flush what's done
+            while (!pending.isEmpty() && pending.getFirst().isDone()) {
+                writeNext();
+            }
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // An empty file isn't valid gzip, so there's always at least one member
+                if (count > 0 || !anyBlocks) {
+                    submit();
+                }
+                while (!pending.isEmpty()) {
+                    writeNext();
+                }
+            }
+            finally {
+                for (Future<byte[]> f : pending) {
+                    f.cancel(true);
+                }
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.plexq.migration.dump;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates statements that stream a result set from the server a batch of rows at a time instead of
+ * letting the driver pull the whole thing into the heap.  Every driver has its own idea of what it
+ * takes to get a real cursor, so we switch on the product name the same way QueryBuilderFactory does:
+ * <ul>
+ * <li>PostgreSQL only uses a cursor with a positive fetch size inside a transaction, so auto commit is turned off</li>
+ * <li>MySQL only streams with a fetch size of Integer.MIN_VALUE</li>
+ * <li>SQL Server (jTDS) and Oracle honour the fetch size on a forward only, read only statement</li>
+ * </ul>
+ * Callers should commit or roll back the connection when they're done with the result set, since on
+ * some databases we've opened a transaction for them.
+ */
+public class StreamingStatementFactory {
+    private static Logger log = Logger.getLogger(StreamingStatementFactory.class);
+
+    public static final int DEFAULT_FETCH_SIZE = 10000;
+
+    public static Statement createStatement(Connection db) throws SQLException {
+        return createStatement(db, DEFAULT_FETCH_SIZE);
+    }
+
+    public static Statement createStatement(Connection db, int fetchSize) throws SQLException {
+        String product = db.getMetaData().getDatabaseProductName();
+
+        Statement st = db.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+        if (product.equals("PostgreSQL")) {
+            if (db.getAutoCommit()) {
+                db.setAutoCommit(false);
+            }
+            st.setFetchSize(fetchSize);
+        }
+        else if (product.equals("MySQL")) {
+            st.setFetchSize(Integer.MIN_VALUE);
+        }
+        else {
+            st.setFetchSize(fetchSize);
+        }
+
+        st.setFetchDirection(ResultSet.FETCH_FORWARD);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Streaming statement for "+product+" with fetch size "+st.getFetchSize());
+        }
+
+        return st;
+    }
+
+    /**
+     * Close out the transaction a streaming read may have opened
+     */
+    public static void finish(Connection db) throws SQLException {
+        if (!db.getAutoCommit()) {
+            db.rollback();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.plexq.migration.dump;
+
+import org.junit.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StreamingStatementFactoryTest {
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.runClasses(StreamingStatementFactoryTest.class);
+    }
+
+    /**
+     * Records the settings the factory applies to a connection and its statement, standing in
+     * for a driver reporting the given product name
+     */
+    private static class Recorder implements InvocationHandler {
+        String product;
+        Map<String, Object> calls = new HashMap<String, Object>();
+        boolean autoCommit = true;
+
+        Recorder(String product) {
+            this.product = product;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getMetaData")) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DatabaseMetaData.class}, this);
+            }
+            if (name.equals("getDatabaseProductName")) {
+                return product;
+            }
+            if (name.equals("createStatement")) {
+                calls.put("resultSetType", args[0]);
+                calls.put("resultSetConcurrency", args[1]);
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Statement.class}, this);
+            }
+            if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            }
+            if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean)args[0];
+                return null;
+            }
+            if (name.equals("getFetchSize")) {
+                return calls.get("setFetchSize");
+            }
+            if (args!=null && args.length==1) {
+                calls.put(name, args[0]);
+            }
+            else {
+                calls.put(name, Boolean.TRUE);
+            }
+            return null;
+        }
+
+        Connection connection() {
+            return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class}, this);
+        }
+    }
+
+    @Test
+    public void testPostgresqlUsesCursorInTransaction() throws SQLException {
+        Recorder r = new Recorder("PostgreSQL");
+        Connection c = r.connection();
+        StreamingStatementFactory.createStatement(c, 500);
+
+        assertEquals(ResultSet.TYPE_FORWARD_ONLY, r.calls.get("resultSetType"));
+        assertEquals(ResultSet.CONCUR_READ_ONLY, r.calls.get("resultSetConcurrency"));
+        assertEquals(500, r.calls.get("setFetchSize"));
+        assertFalse(r.autoCommit);
+
+        StreamingStatementFactory.finish(c);
+        assertEquals(Boolean.TRUE, r.calls.get("rollback"));
+    }
+
+    @Test
+    public void testMySQLUsesStreamingFetchSize() throws SQLException {
+        Recorder r = new Recorder("MySQL");
+        StreamingStatementFactory.createStatement(r.connection(), 500);
+
+        assertEquals(Integer.MIN_VALUE, r.calls.get("setFetchSize"));
+        assertTrue(r.autoCommit);
+    }
+
+    @Test
+    public void testSQLServerKeepsAutoCommit() throws SQLException {
+        Recorder r = new Recorder("Microsoft SQL Server");
+        Connection c = r.connection();
+        StreamingStatementFactory.createStatement(c, 500);
+
+        assertEquals(ResultSet.TYPE_FORWARD_ONLY, r.calls.get("resultSetType"));
+        assertEquals(500, r.calls.get("setFetchSize"));
+        assertTrue(r.autoCommit);
+
+        StreamingStatementFactory.finish(c);
+        assertNull(r.calls.get("rollback"));
+    }
+
+    /**
+     * Reads a couple of gigabytes of synthetic rows through a streaming statement and checks the heap
+     * never grows by more than a few batches worth.  Needs a real server, so it only runs when
+     * -Dtest.pg.url (and optionally test.pg.user/test.pg.password) is given.
+     */
+    @Test
+    public void testPostgresqlHeapIsBounded() throws Exception {
+        String url = System.getProperty("test.pg.url");
+        Assume.assumeTrue(url!=null);
+
+        Class.forName("org.postgresql.Driver");
+        Connection c = DriverManager.getConnection(url, System.getProperty("test.pg.user"), System.getProperty("test.pg.password"));
+        try {
+            Runtime rt = Runtime.getRuntime();
+            System.gc();
+            long baseline = rt.totalMemory() - rt.freeMemory();
+            long peak = 0;
+
+            Statement st = StreamingStatementFactory.createStatement(c, 1000);
+            ResultSet rs = st.executeQuery("select g, repeat('x', 1000) from generate_series(1, 2000000) g");
+            long rows = 0;
+            while (rs.next()) {
+                rs.getString(2);
+                if (++rows % 50000 == 0) {
+                    System.gc();
+                    peak = Math.max(peak, rt.totalMemory() - rt.freeMemory() - baseline);
+                }
+            }
+            rs.close();
+            st.close();
+            StreamingStatementFactory.finish(c);
+
+            assertEquals(2000000, rows);
+            assertTrue("Heap grew by "+peak+" bytes while streaming", peak < 64*1024*1024);
+        }
+        finally {
+            c.close();
+        }
+    }
+}